@@ -0,0 +1,109 @@
+package com.esri.hadoop.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * The file system an index is benchmarked on, either the local file system
+ * or an in-process MiniDFSCluster (same setup as the MiniFS unit tests).
+ */
+public class BenchmarkFileSystem
+{
+    public static final String LOCAL = "local";
+    public static final String HDFS = "hdfs";
+
+    private final File m_tmpDir;
+    private final MiniDFSCluster m_dfsCluster;
+    private final FileSystem m_fileSystem;
+    private final Path m_root;
+
+    /**
+     * Creates the file system
+     *
+     * @param kind either LOCAL or HDFS
+     * @throws IOException
+     */
+    public BenchmarkFileSystem(final String kind) throws IOException
+    {
+        m_tmpDir = File.createTempFile("bench", "");
+        FileUtils.forceDelete(m_tmpDir);
+        FileUtils.forceMkdir(m_tmpDir);
+
+        final Configuration config = new Configuration();
+        if (HDFS.equals(kind))
+        {
+            Logger.getLogger(org.apache.hadoop.metrics2.util.MBeans.class).setLevel(Level.ERROR);
+            Logger.getLogger(org.apache.hadoop.metrics2.impl.MetricsSystemImpl.class).setLevel(Level.ERROR);
+
+            System.setProperty("test.build.data", new File(m_tmpDir, "data").getAbsolutePath());
+            System.setProperty("hadoop.log.dir", new File(m_tmpDir, "logs").getAbsolutePath());
+
+            config.set("hadoop.tmp.dir", m_tmpDir.getAbsolutePath());
+            config.setBoolean("dfs.permissions", false);
+            config.setInt("dfs.replication", 1);
+            config.set("dfs.datanode.data.dir.perm", "777");
+
+            m_dfsCluster = new MiniDFSCluster.Builder(config).numDataNodes(1).format(true).build();
+            m_dfsCluster.waitClusterUp();
+            m_fileSystem = m_dfsCluster.getFileSystem();
+            m_root = new Path("/tmp");
+        }
+        else if (LOCAL.equals(kind))
+        {
+            m_dfsCluster = null;
+            // the raw file system, no crc side files in the way of the measurements
+            m_fileSystem = FileSystem.getLocal(config).getRaw();
+            m_root = new Path(m_tmpDir.getAbsolutePath());
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown file system " + kind);
+        }
+    }
+
+    /**
+     * @return the file system
+     */
+    public FileSystem getFileSystem()
+    {
+        return m_fileSystem;
+    }
+
+    /**
+     * Creates a unique path on this file system
+     *
+     * @param prefix the file name prefix
+     * @return a new path
+     */
+    public Path newPath(final String prefix)
+    {
+        return new Path(m_root, prefix + "-" + UUID.randomUUID().toString());
+    }
+
+    /**
+     * Shuts down the cluster if any and deletes all files
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            if (m_dfsCluster != null)
+            {
+                m_dfsCluster.shutdown();
+            }
+        }
+        finally
+        {
+            FileUtils.deleteQuietly(m_tmpDir);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.esri.hadoop.benchmark;
+
+import com.esri.hadoop.Extent;
+
+import java.util.Random;
+
+/**
+ * Synthetic point and rectangle distributions used by the benchmarks.
+ * All data is generated from a seed so that runs are reproducible.
+ */
+public enum Dataset
+{
+    /**
+     * Points uniformly distributed over the world extent
+     */
+    UNIFORM
+            {
+                @Override
+                void point(
+                        final Random random,
+                        final double[] xy)
+                {
+                    xy[0] = WORLD.xmin + WORLD.width() * random.nextDouble();
+                    xy[1] = WORLD.ymin + WORLD.height() * random.nextDouble();
+                }
+            },
+    /**
+     * Points gathered in gaussian clusters, think cities
+     */
+    CLUSTERED
+            {
+                @Override
+                void point(
+                        final Random random,
+                        final double[] xy)
+                {
+                    final int cluster = random.nextInt(CLUSTERS);
+                    xy[0] = clamp(CENTER_X[cluster] + SIGMA * random.nextGaussian(), WORLD.xmin, WORLD.xmax);
+                    xy[1] = clamp(CENTER_Y[cluster] + SIGMA * random.nextGaussian(), WORLD.ymin, WORLD.ymax);
+                }
+            },
+    /**
+     * Points heavily skewed toward the lower left corner of the world extent
+     */
+    SKEWED
+            {
+                @Override
+                void point(
+                        final Random random,
+                        final double[] xy)
+                {
+                    xy[0] = WORLD.xmin + WORLD.width() * Math.pow(random.nextDouble(), SKEW);
+                    xy[1] = WORLD.ymin + WORLD.height() * Math.pow(random.nextDouble(), SKEW);
+                }
+            };
+
+    public static final Extent WORLD = new Extent(-180, -90, 180, 90);
+
+    private static final int CLUSTERS = 64;
+    private static final double SIGMA = 1.0;
+    private static final double SKEW = 4.0;
+
+    // cluster centers are fixed so they do not depend on the seed of a sample
+    private static final double[] CENTER_X = new double[CLUSTERS];
+    private static final double[] CENTER_Y = new double[CLUSTERS];
+
+    static
+    {
+        final Random random = new Random(7919L);
+        for (int i = 0; i < CLUSTERS; i++)
+        {
+            CENTER_X[i] = WORLD.xmin + WORLD.width() * random.nextDouble();
+            CENTER_Y[i] = WORLD.ymin + WORLD.height() * random.nextDouble();
+        }
+    }
+
+    /**
+     * Generates one point into xy
+     *
+     * @param random the random generator
+     * @param xy     the x and y of the point
+     */
+    abstract void point(
+            final Random random,
+            final double[] xy);
+
+    /**
+     * Fills the x and y arrays with points of this distribution
+     *
+     * @param seed the random seed
+     * @param x    the x values
+     * @param y    the y values
+     */
+    public void points(
+            final long seed,
+            final double[] x,
+            final double[] y)
+    {
+        final Random random = new Random(seed);
+        final double[] xy = new double[2];
+        for (int i = 0; i < x.length; i++)
+        {
+            point(random, xy);
+            x[i] = xy[0];
+            y[i] = xy[1];
+        }
+    }
+
+    /**
+     * Fills the arrays with rectangles whose centers follow this distribution
+     *
+     * @param seed    the random seed
+     * @param maxSide the maximum width or height of a rectangle
+     * @param xmin    the minimum x values
+     * @param ymin    the minimum y values
+     * @param xmax    the maximum x values
+     * @param ymax    the maximum y values
+     */
+    public void rectangles(
+            final long seed,
+            final double maxSide,
+            final double[] xmin,
+            final double[] ymin,
+            final double[] xmax,
+            final double[] ymax)
+    {
+        final Random random = new Random(seed);
+        final double[] xy = new double[2];
+        for (int i = 0; i < xmin.length; i++)
+        {
+            point(random, xy);
+            final double hw = 0.5 * maxSide * random.nextDouble();
+            final double hh = 0.5 * maxSide * random.nextDouble();
+            xmin[i] = xy[0] - hw;
+            ymin[i] = xy[1] - hh;
+            xmax[i] = xy[0] + hw;
+            ymax[i] = xy[1] + hh;
+        }
+    }
+
+    /**
+     * Creates square query extents centered on points of this distribution
+     *
+     * @param seed the random seed
+     * @param side the side length of the query extent
+     * @param n    the number of query extents
+     * @return the query extents
+     */
+    public Extent[] queries(
+            final long seed,
+            final double side,
+            final int n)
+    {
+        final Random random = new Random(seed);
+        final double[] xy = new double[2];
+        final double half = 0.5 * side;
+        final Extent[] extents = new Extent[n];
+        for (int i = 0; i < n; i++)
+        {
+            point(random, xy);
+            extents[i] = new Extent(xy[0] - half, xy[1] - half, xy[0] + half, xy[1] + half);
+        }
+        return extents;
+    }
+
+    private static double clamp(
+            final double v,
+            final double min,
+            final double max)
+    {
+        return v < min ? min : (v > max ? max : v);
+    }
+}
@@ -0,0 +1,120 @@
+package com.esri.hadoop.benchmark;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.quadtree.FSQuadTreeWriter;
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.quadtree.QuadTree;
+import com.esri.hadoop.rtree.FSRTreeWriter;
+import com.esri.hadoop.rtree.MBRHandle;
+import com.esri.hadoop.rtree.RTree;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+
+/**
+ * Shared data and index fixtures of the benchmarks.
+ */
+public final class Fixtures
+{
+    /**
+     * The seed of the indexed data
+     */
+    public static final long DATA_SEED = 20140206L;
+
+    /**
+     * The seed of the query extents
+     */
+    public static final long QUERY_SEED = 20140213L;
+
+    /**
+     * The number of distinct query extents cycled through by the search benchmarks
+     */
+    public static final int QUERY_COUNT = 1024;
+
+    /**
+     * The maximum side of an indexed rectangle
+     */
+    public static final double RECTANGLE_SIDE = 0.1;
+
+    /**
+     * The fake record length, addresses are spaced by this many bytes
+     */
+    public static final long RECORD_LENGTH = 64L;
+
+    private Fixtures()
+    {
+    }
+
+    /**
+     * Writes a quad tree index of size points of the dataset
+     */
+    public static void writeQuadTree(
+            final FileSystem fileSystem,
+            final Path path,
+            final Dataset dataset,
+            final int size,
+            final int bucketSize) throws IOException
+    {
+        writeQuadTree(fileSystem, path, dataset, size, bucketSize, QuadTree.FORMAT_ROWS);
+    }
+
+    /**
+     * Writes a quad tree index of size points of the dataset in a node format
+     */
+    public static void writeQuadTree(
+            final FileSystem fileSystem,
+            final Path path,
+            final Dataset dataset,
+            final int size,
+            final int bucketSize,
+            final int format) throws IOException
+    {
+        final double[] x = new double[size];
+        final double[] y = new double[size];
+        dataset.points(DATA_SEED, x, y);
+        final FSQuadTreeWriter writer = new FSQuadTreeWriter(fileSystem.create(path, true), bucketSize, Dataset.WORLD, format);
+        for (int i = 0; i < size; i++)
+        {
+            writer.addPointData(new PointData(x[i], y[i], i * RECORD_LENGTH));
+        }
+        writer.close();
+    }
+
+    /**
+     * Writes an R tree index of size rectangles of the dataset
+     */
+    public static void writeRTree(
+            final FileSystem fileSystem,
+            final Path path,
+            final Dataset dataset,
+            final int size,
+            final int nodeSize) throws IOException
+    {
+        writeRTree(fileSystem, path, dataset, size, nodeSize, RTree.STRATEGY_QUADRATIC);
+    }
+
+    /**
+     * Writes an R tree index of size rectangles of the dataset with an insertion strategy
+     */
+    public static void writeRTree(
+            final FileSystem fileSystem,
+            final Path path,
+            final Dataset dataset,
+            final int size,
+            final int nodeSize,
+            final int strategy) throws IOException
+    {
+        final double[] xmin = new double[size];
+        final double[] ymin = new double[size];
+        final double[] xmax = new double[size];
+        final double[] ymax = new double[size];
+        dataset.rectangles(DATA_SEED, RECTANGLE_SIDE, xmin, ymin, xmax, ymax);
+        final FSRTreeWriter writer = new FSRTreeWriter(fileSystem.create(path, true), nodeSize / 2, nodeSize, strategy);
+        for (int i = 0; i < size; i++)
+        {
+            writer.add(new MBRHandle(new Extent(xmin[i], ymin[i], xmax[i], ymax[i]), i * RECORD_LENGTH));
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,136 @@
+package com.esri.hadoop.benchmark;
+
+import com.esri.hadoop.quadtree.FSQuadTreeWriter;
+import com.esri.hadoop.quadtree.PointData;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures FSQuadTreeWriter.addPointData (in memory tree building) and FSQuadTreeWriter.close
+ * (tree serialization to the file system) separately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public abstract class QuadTreeBuildBenchmark
+{
+    @Param({BenchmarkFileSystem.LOCAL, BenchmarkFileSystem.HDFS})
+    public String fileSystem;
+
+    @Param({"UNIFORM", "CLUSTERED", "SKEWED"})
+    public Dataset dataset;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"32"})
+    public int bucketSize;
+
+    protected BenchmarkFileSystem m_fileSystem;
+    protected double[] m_x;
+    protected double[] m_y;
+    protected Path m_path;
+    protected FSQuadTreeWriter m_writer;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException
+    {
+        m_fileSystem = new BenchmarkFileSystem(fileSystem);
+        m_x = new double[size];
+        m_y = new double[size];
+        dataset.points(Fixtures.DATA_SEED, m_x, m_y);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException
+    {
+        m_fileSystem.close();
+    }
+
+    protected void openWriter() throws IOException
+    {
+        m_path = m_fileSystem.newPath("quadtree");
+        m_writer = new FSQuadTreeWriter(m_fileSystem.getFileSystem().create(m_path, true), bucketSize, Dataset.WORLD);
+    }
+
+    protected void addPoints()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            m_writer.addPointData(new PointData(m_x[i], m_y[i], i * Fixtures.RECORD_LENGTH));
+        }
+    }
+
+    protected void deleteIndex() throws IOException
+    {
+        m_fileSystem.getFileSystem().delete(m_path, false);
+    }
+
+    /**
+     * Time to insert all the points in the in memory quad tree
+     */
+    public static class AddPointData extends QuadTreeBuildBenchmark
+    {
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException
+        {
+            openWriter();
+        }
+
+        @Benchmark
+        public void addPointData()
+        {
+            addPoints();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException
+        {
+            m_writer.close();
+            deleteIndex();
+        }
+    }
+
+    /**
+     * Time to write a fully loaded quad tree to the file system
+     */
+    public static class Close extends QuadTreeBuildBenchmark
+    {
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException
+        {
+            openWriter();
+            addPoints();
+        }
+
+        @Benchmark
+        public void close() throws IOException
+        {
+            m_writer.close();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException
+        {
+            deleteIndex();
+        }
+    }
+}
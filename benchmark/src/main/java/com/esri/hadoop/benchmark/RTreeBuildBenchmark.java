@@ -0,0 +1,184 @@
+package com.esri.hadoop.benchmark;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.rtree.FSRTreeWriter;
+import com.esri.hadoop.rtree.MBRHandle;
+import com.esri.hadoop.rtree.RTree;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures FSRTreeWriter.add (in memory tree building) and FSRTreeWriter.close
+ * (tree serialization to the file system) separately, for each insertion strategy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public abstract class RTreeBuildBenchmark
+{
+    @Param({BenchmarkFileSystem.LOCAL, BenchmarkFileSystem.HDFS})
+    public String fileSystem;
+
+    @Param({"UNIFORM", "CLUSTERED", "SKEWED"})
+    public Dataset dataset;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"25"})
+    public int nodeSize;
+
+    protected BenchmarkFileSystem m_fileSystem;
+    protected double[] m_xmin;
+    protected double[] m_ymin;
+    protected double[] m_xmax;
+    protected double[] m_ymax;
+    protected Path m_path;
+    protected FSRTreeWriter m_writer;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException
+    {
+        m_fileSystem = new BenchmarkFileSystem(fileSystem);
+        m_xmin = new double[size];
+        m_ymin = new double[size];
+        m_xmax = new double[size];
+        m_ymax = new double[size];
+        dataset.rectangles(Fixtures.DATA_SEED, Fixtures.RECTANGLE_SIDE, m_xmin, m_ymin, m_xmax, m_ymax);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException
+    {
+        m_fileSystem.close();
+    }
+
+    protected void openWriter(final int strategy) throws IOException
+    {
+        m_path = m_fileSystem.newPath("rtree");
+        m_writer = new FSRTreeWriter(m_fileSystem.getFileSystem().create(m_path, true), nodeSize / 2, nodeSize, strategy);
+    }
+
+    protected void addRectangles()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            m_writer.add(new MBRHandle(new Extent(m_xmin[i], m_ymin[i], m_xmax[i], m_ymax[i]), i * Fixtures.RECORD_LENGTH));
+        }
+    }
+
+    protected void deleteIndex() throws IOException
+    {
+        m_fileSystem.getFileSystem().delete(m_path, false);
+    }
+
+    /**
+     * Time to insert all the rectangles in the in memory R tree
+     */
+    public static class Add extends RTreeBuildBenchmark
+    {
+        @Param({"1", "2", "3", "4"})
+        public int strategy;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException
+        {
+            openWriter(strategy);
+        }
+
+        @Benchmark
+        public void add()
+        {
+            addRectangles();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException
+        {
+            m_writer.close();
+            deleteIndex();
+        }
+    }
+
+    /**
+     * Time to write a fully loaded R tree to the file system
+     */
+    public static class Close extends RTreeBuildBenchmark
+    {
+        @Param({"1", "2", "3", "4"})
+        public int strategy;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException
+        {
+            openWriter(strategy);
+            addRectangles();
+        }
+
+        @Benchmark
+        public void close()
+        {
+            m_writer.close();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException
+        {
+            deleteIndex();
+        }
+    }
+
+    /**
+     * Time to bulk load (Sort-Tile-Recursive) all the rectangles and write the R tree to the file system
+     */
+    public static class BulkLoad extends RTreeBuildBenchmark
+    {
+        private List<MBRHandle> m_list;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException
+        {
+            // the insertion strategy does not matter to a bulk load
+            openWriter(RTree.STRATEGY_QUADRATIC);
+            m_list = new ArrayList<MBRHandle>(size);
+            for (int i = 0; i < size; i++)
+            {
+                m_list.add(new MBRHandle(new Extent(m_xmin[i], m_ymin[i], m_xmax[i], m_ymax[i]), i * Fixtures.RECORD_LENGTH));
+            }
+        }
+
+        @Benchmark
+        public void bulkLoad()
+        {
+            m_writer.bulkLoad(m_list);
+            m_writer.close();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException
+        {
+            m_list = null;
+            deleteIndex();
+        }
+    }
+}
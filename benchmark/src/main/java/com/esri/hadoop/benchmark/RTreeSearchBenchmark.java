@@ -0,0 +1,107 @@
+package com.esri.hadoop.benchmark;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.rtree.FSRTreeReader;
+import com.esri.hadoop.rtree.MBRHandle;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of FSRTreeReader.search(Extent) including the full iteration of the results.
+ * The index is built once per trial, the query extents are centered on the data distribution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RTreeSearchBenchmark
+{
+    @Param({BenchmarkFileSystem.LOCAL, BenchmarkFileSystem.HDFS})
+    public String fileSystem;
+
+    @Param({"UNIFORM", "CLUSTERED", "SKEWED"})
+    public Dataset dataset;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"25"})
+    public int nodeSize;
+
+    @Param({"0.1", "1.0"})
+    public double querySide;
+
+    @Param({"0", "16777216"})
+    public long cacheSize;
+
+    @Param({"1", "2", "3", "4"})
+    public int strategy;
+
+    private BenchmarkFileSystem m_fileSystem;
+    private FSDataInputStream m_stream;
+    private FSRTreeReader m_reader;
+    private Extent[] m_queries;
+    private int m_next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        m_fileSystem = new BenchmarkFileSystem(fileSystem);
+        final Path path = m_fileSystem.newPath("rtree");
+        Fixtures.writeRTree(m_fileSystem.getFileSystem(), path, dataset, size, nodeSize, strategy);
+        m_stream = m_fileSystem.getFileSystem().open(path);
+        m_reader = new FSRTreeReader(m_stream, cacheSize);
+        m_queries = dataset.queries(Fixtures.QUERY_SEED, querySide, Fixtures.QUERY_COUNT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        try
+        {
+            m_stream.close();
+        }
+        finally
+        {
+            m_fileSystem.close();
+        }
+    }
+
+    @Benchmark
+    public int search(final Blackhole blackhole) throws IOException
+    {
+        final Extent extent = m_queries[m_next];
+        if (++m_next == m_queries.length)
+        {
+            m_next = 0;
+        }
+        final Iterator<MBRHandle> iterator = m_reader.search(extent);
+        int count = 0;
+        while (iterator.hasNext())
+        {
+            blackhole.consume(iterator.next());
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,125 @@
+package com.esri.hadoop;
+
+import org.apache.hadoop.fs.PositionedReadable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * AddressRange is a contiguous region of a data file holding the records at sorted addresses.
+ * The records of a search are read with one large sequential read per range rather than one seek per record.
+ */
+public class AddressRange
+{
+    /**
+     * The start of the range, the first address
+     */
+    public final long start;
+
+    /**
+     * The end of the range (exclusive), the last address plus the maximum record size
+     */
+    public final long end;
+
+    /**
+     * The sorted addresses in the range
+     */
+    public final long[] addresses;
+
+    /**
+     * Create an AddressRange
+     *
+     * @param start     the start of the range
+     * @param end       the end of the range (exclusive)
+     * @param addresses the sorted addresses in the range
+     */
+    public AddressRange(
+            final long start,
+            final long end,
+            final long[] addresses)
+    {
+        this.start = start;
+        this.end = end;
+        this.addresses = addresses;
+    }
+
+    /**
+     * Reads the range, a range past the end of the file is cut short
+     *
+     * @param stream the data file
+     * @return the bytes of the range, the record at an address starts at (address - start)
+     * @throws IOException
+     */
+    public byte[] read(final PositionedReadable stream) throws IOException
+    {
+        final byte[] bytes = new byte[(int) (end - start)];
+        int length = 0;
+        while (length < bytes.length)
+        {
+            final int n = stream.read(start + length, bytes, length, bytes.length - length);
+            if (n <= 0)
+            {
+                return Arrays.copyOf(bytes, length);
+            }
+            length += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * Sorts addresses and removes the duplicates
+     *
+     * @param addresses the addresses, sorted in place
+     * @param count     the number of addresses
+     * @return the sorted distinct addresses
+     */
+    public static long[] sortDistinct(
+            final long[] addresses,
+            final int count)
+    {
+        Arrays.sort(addresses, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (distinct == 0 || addresses[i] != addresses[distinct - 1])
+            {
+                addresses[distinct++] = addresses[i];
+            }
+        }
+        return Arrays.copyOf(addresses, distinct);
+    }
+
+    /**
+     * Groups sorted addresses into ranges, an address starts a new range when it is more than maxGap bytes
+     * after the end of the record before it, or when the range would be larger than maxRangeSize
+     *
+     * @param addresses     the sorted addresses
+     * @param maxGap        the largest number of unused bytes read between two records of a range
+     * @param maxRecordSize the maximum size of a record
+     * @param maxRangeSize  the maximum size of a range, at least maxRecordSize
+     * @return the ranges
+     */
+    public static List<AddressRange> group(
+            final long[] addresses,
+            final long maxGap,
+            final int maxRecordSize,
+            final int maxRangeSize)
+    {
+        final List<AddressRange> ranges = new ArrayList<AddressRange>();
+        int first = 0;
+        for (int i = 1; i <= addresses.length; i++)
+        {
+            if (i == addresses.length ||
+                    addresses[i] - addresses[i - 1] > maxGap + maxRecordSize ||
+                    addresses[i] + maxRecordSize - addresses[first] > maxRangeSize)
+            {
+                ranges.add(new AddressRange(addresses[first], addresses[i - 1] + maxRecordSize,
+                        Arrays.copyOfRange(addresses, first, i)));
+                first = i;
+            }
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,142 @@
+package com.esri.hadoop;
+
+import org.apache.hadoop.util.PureJavaCrc32C;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes the body of a versioned index file, calculating the CRC32C of each block,
+ * and finishes it with the trailer read by Checksums.
+ * The bytes are buffered, finish() must be called once the body is written, close() does not close the output.
+ */
+public class ChecksumOutputStream extends OutputStream
+{
+    private final OutputStream m_output;
+    private final int m_blockSize;
+    private final PureJavaCrc32C m_crc = new PureJavaCrc32C();
+    private final byte[] m_buffer = new byte[64 * 1024];
+    private int m_bufferSize;
+    private int m_blockFill;
+    private int[] m_checksums = new int[16];
+    private int m_blockCount;
+
+    /**
+     * Creates a body stream
+     *
+     * @param output    the index output stream, right after the header
+     * @param blockSize the block size
+     */
+    public ChecksumOutputStream(
+            final OutputStream output,
+            final int blockSize)
+    {
+        m_output = output;
+        m_blockSize = blockSize;
+    }
+
+    @Override
+    public void write(final int b) throws IOException
+    {
+        if (m_bufferSize == m_buffer.length)
+        {
+            flushBuffer();
+        }
+        m_buffer[m_bufferSize++] = (byte) b;
+    }
+
+    @Override
+    public void write(
+            final byte[] bytes,
+            int offset,
+            int length) throws IOException
+    {
+        while (length > 0)
+        {
+            if (m_bufferSize == m_buffer.length)
+            {
+                flushBuffer();
+            }
+            final int n = Math.min(length, m_buffer.length - m_bufferSize);
+            System.arraycopy(bytes, offset, m_buffer, m_bufferSize, n);
+            m_bufferSize += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        int offset = 0;
+        while (offset < m_bufferSize)
+        {
+            final int n = Math.min(m_bufferSize - offset, m_blockSize - m_blockFill);
+            m_crc.update(m_buffer, offset, n);
+            m_blockFill += n;
+            offset += n;
+            if (m_blockFill == m_blockSize)
+            {
+                endBlock();
+            }
+        }
+        m_output.write(m_buffer, 0, m_bufferSize);
+        m_bufferSize = 0;
+    }
+
+    private void endBlock()
+    {
+        if (m_blockCount == m_checksums.length)
+        {
+            m_checksums = Arrays.copyOf(m_checksums, m_blockCount * 2);
+        }
+        m_checksums[m_blockCount++] = (int) m_crc.getValue();
+        m_crc.reset();
+        m_blockFill = 0;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        m_output.flush();
+    }
+
+    /**
+     * Writes the buffered bytes and the trailer, the checksum of each block and the checksum of these checksums
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException
+    {
+        flushBuffer();
+        if (m_blockFill > 0)
+        {
+            endBlock();
+        }
+        final byte[] trailer = new byte[4 * m_blockCount + 4];
+        for (int i = 0; i < m_blockCount; i++)
+        {
+            putInt(trailer, 4 * i, m_checksums[i]);
+        }
+        putInt(trailer, 4 * m_blockCount, Checksums.crc32c(trailer, 0, 4 * m_blockCount));
+        m_output.write(trailer);
+    }
+
+    private static void putInt(
+            final byte[] bytes,
+            final int offset,
+            final int value)
+    {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+    }
+}
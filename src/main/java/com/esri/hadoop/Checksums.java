@@ -0,0 +1,165 @@
+package com.esri.hadoop;
+
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.util.PureJavaCrc32C;
+
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * CRC32C checksums of a versioned index file.
+ * The header ends with the checksum of its bytes. The body, the nodes of the tree, is followed by a trailer,
+ * the checksum of each block of the body and the checksum of these checksums.
+ * A torn write leaves the trailer missing or wrong, so it is detected without reading the tree.
+ */
+public final class Checksums
+{
+    /**
+     * The size of the body blocks
+     */
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    private Checksums()
+    {
+    }
+
+    /**
+     * Calculates the CRC32C of bytes
+     *
+     * @param bytes  the bytes
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @return the checksum
+     */
+    public static int crc32c(
+            final byte[] bytes,
+            final int offset,
+            final int length)
+    {
+        final PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The number of blocks of a body
+     *
+     * @param bodyLength the body length
+     * @param blockSize  the block size
+     * @return the number of blocks
+     */
+    public static long blockCount(
+            final long bodyLength,
+            final int blockSize)
+    {
+        return (bodyLength + blockSize - 1) / blockSize;
+    }
+
+    /**
+     * Writes the header bytes followed by their checksum
+     *
+     * @param dataOutput the output
+     * @param header     the header bytes
+     * @throws IOException
+     */
+    public static void writeHeader(
+            final DataOutput dataOutput,
+            final byte[] header) throws IOException
+    {
+        dataOutput.write(header);
+        dataOutput.writeInt(crc32c(header, 0, header.length));
+    }
+
+    /**
+     * Reads the checksum at the position of the stream and checks it against the header bytes before it
+     *
+     * @param stream the input stream, right after the header bytes
+     * @param start  the position of the first header byte
+     * @throws IOException
+     */
+    public static void verifyHeader(
+            final FSDataInputStream stream,
+            final long start) throws IOException
+    {
+        final long end = stream.getPos();
+        final byte[] header = new byte[(int) (end - start)];
+        stream.readFully(start, header, 0, header.length);
+        if (stream.readInt() != crc32c(header, 0, header.length))
+        {
+            throw new ChecksumException("The index header is corrupt", start);
+        }
+    }
+
+    /**
+     * Reads the trailer and checks it against its own checksum.
+     * This only reads the trailer, not the body.
+     *
+     * @param stream     the input stream
+     * @param bodyStart  the position of the body
+     * @param bodyLength the body length
+     * @param blockSize  the block size
+     * @return the checksum of each block
+     * @throws IOException
+     */
+    public static int[] readTrailer(
+            final PositionedReadable stream,
+            final long bodyStart,
+            final long bodyLength,
+            final int blockSize) throws IOException
+    {
+        final long position = bodyStart + bodyLength;
+        final byte[] bytes = new byte[(int) (4 * blockCount(bodyLength, blockSize) + 4)];
+        try
+        {
+            stream.readFully(position, bytes, 0, bytes.length);
+        }
+        catch (EOFException e)
+        {
+            throw new ChecksumException("The index is truncated", position);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final int[] checksums = new int[bytes.length / 4 - 1];
+        for (int i = 0; i < checksums.length; i++)
+        {
+            checksums[i] = buffer.getInt();
+        }
+        if (buffer.getInt() != crc32c(bytes, 0, bytes.length - 4))
+        {
+            throw new ChecksumException("The index trailer is corrupt", position);
+        }
+        return checksums;
+    }
+
+    /**
+     * Reads the whole body and checks each block against its checksum in the trailer
+     *
+     * @param stream     the input stream
+     * @param bodyStart  the position of the body
+     * @param bodyLength the body length
+     * @param blockSize  the block size
+     * @throws IOException
+     */
+    public static void verifyBody(
+            final PositionedReadable stream,
+            final long bodyStart,
+            final long bodyLength,
+            final int blockSize) throws IOException
+    {
+        final int[] checksums = readTrailer(stream, bodyStart, bodyLength, blockSize);
+        final byte[] block = new byte[(int) Math.min(blockSize, bodyLength)];
+        for (int i = 0; i < checksums.length; i++)
+        {
+            final long position = bodyStart + (long) i * blockSize;
+            final int length = (int) Math.min(blockSize, bodyStart + bodyLength - position);
+            stream.readFully(position, block, 0, length);
+            if (checksums[i] != crc32c(block, 0, length))
+            {
+                throw new ChecksumException("The index block " + i + " is corrupt", position);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.esri.hadoop;
+
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.rtree.MBRHandle;
+
+/**
+ * This join function is the callback of a spatial join.
+ * Used when you call join on a SpatialJoin.
+ */
+public interface IJoinFunction
+{
+    /**
+     * This allows you to create your own function as a callback during a join.
+     *
+     * @param pointData the data point (x,y,address)
+     * @param mbrHandle the extent and handle containing the point
+     */
+    public void evaluate(
+            final PointData pointData,
+            final MBRHandle mbrHandle);
+}
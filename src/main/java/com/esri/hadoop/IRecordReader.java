@@ -0,0 +1,24 @@
+package com.esri.hadoop;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.IOException;
+
+/**
+ * Reads a record of a data file, the record an index entry points to.
+ * Used to copy the records of a data file in another order.
+ */
+public interface IRecordReader
+{
+    /**
+     * This allows you to read your own record format.
+     *
+     * @param dataInputStream the data file
+     * @param address         the position of the record in the data file
+     * @return the bytes of the record
+     * @throws IOException
+     */
+    public byte[] read(
+            final FSDataInputStream dataInputStream,
+            final long address) throws IOException;
+}
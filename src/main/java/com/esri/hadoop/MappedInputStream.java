@@ -0,0 +1,226 @@
+package com.esri.hadoop;
+
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A local file mapped in memory.
+ * The absolute getters decode values straight from the mapped pages, without any copy or allocation,
+ * and are safe to call from many threads.
+ * This is also a seekable and positioned readable input stream, so it can be wrapped in a FSDataInputStream.
+ * <p/>
+ * A mapping is limited to 2GB, so the file is mapped in segments. Each segment overlaps the next one by
+ * 8 bytes so that any primitive value is entirely in the segment of its first byte.
+ */
+public class MappedInputStream extends InputStream implements Seekable, PositionedReadable
+{
+    /**
+     * The default segment size
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private static final int OVERLAP = 8;
+
+    private final MappedByteBuffer[] m_segments;
+    private final int m_segmentSize;
+    private final long m_length;
+    private long m_position;
+
+    /**
+     * Maps a file
+     *
+     * @param file the local file
+     * @throws IOException
+     */
+    public MappedInputStream(final File file) throws IOException
+    {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Maps a file
+     *
+     * @param file        the local file
+     * @param segmentSize the size of the segments the file is mapped in
+     * @throws IOException
+     */
+    public MappedInputStream(
+            final File file,
+            final int segmentSize) throws IOException
+    {
+        m_segmentSize = segmentSize;
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            final FileChannel channel = randomAccessFile.getChannel();
+            m_length = channel.size();
+            final int count = (int) Math.max(1, (m_length + segmentSize - 1) / segmentSize);
+            m_segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++)
+            {
+                final long start = (long) i * segmentSize;
+                final long size = Math.min(m_length - start, (long) segmentSize + OVERLAP);
+                m_segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(0, size));
+            }
+        }
+        finally
+        {
+            // the mappings stay valid once the channel is closed
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return the length of the file
+     */
+    public long length()
+    {
+        return m_length;
+    }
+
+    /**
+     * Reads a byte
+     *
+     * @param position the position in the file
+     * @return the byte
+     */
+    public byte get(final long position)
+    {
+        return m_segments[(int) (position / m_segmentSize)].get((int) (position % m_segmentSize));
+    }
+
+    /**
+     * Reads an int
+     *
+     * @param position the position in the file
+     * @return the int
+     */
+    public int getInt(final long position)
+    {
+        return m_segments[(int) (position / m_segmentSize)].getInt((int) (position % m_segmentSize));
+    }
+
+    /**
+     * Reads a long
+     *
+     * @param position the position in the file
+     * @return the long
+     */
+    public long getLong(final long position)
+    {
+        return m_segments[(int) (position / m_segmentSize)].getLong((int) (position % m_segmentSize));
+    }
+
+    /**
+     * Reads a double
+     *
+     * @param position the position in the file
+     * @return the double
+     */
+    public double getDouble(final long position)
+    {
+        return m_segments[(int) (position / m_segmentSize)].getDouble((int) (position % m_segmentSize));
+    }
+
+    @Override
+    public int read(
+            final long position,
+            final byte[] buffer,
+            final int offset,
+            final int length)
+    {
+        if (position >= m_length)
+        {
+            return -1;
+        }
+        final int n = (int) Math.min(length, m_length - position);
+        int done = 0;
+        while (done < n)
+        {
+            final long p = position + done;
+            final ByteBuffer segment = m_segments[(int) (p / m_segmentSize)].duplicate();
+            segment.position((int) (p % m_segmentSize));
+            final int chunk = Math.min(n - done, m_segmentSize - segment.position());
+            segment.get(buffer, offset + done, chunk);
+            done += chunk;
+        }
+        return n;
+    }
+
+    @Override
+    public void readFully(
+            final long position,
+            final byte[] buffer,
+            final int offset,
+            final int length) throws IOException
+    {
+        if (position + length > m_length)
+        {
+            throw new EOFException("Reading past the end of the file");
+        }
+        read(position, buffer, offset, length);
+    }
+
+    @Override
+    public void readFully(
+            final long position,
+            final byte[] buffer) throws IOException
+    {
+        readFully(position, buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read()
+    {
+        if (m_position >= m_length)
+        {
+            return -1;
+        }
+        return get(m_position++) & 0xFF;
+    }
+
+    @Override
+    public int read(
+            final byte[] buffer,
+            final int offset,
+            final int length)
+    {
+        final int n = read(m_position, buffer, offset, length);
+        if (n > 0)
+        {
+            m_position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public void seek(final long position) throws IOException
+    {
+        if (position < 0 || position > m_length)
+        {
+            throw new EOFException("Cannot seek to " + position);
+        }
+        m_position = position;
+    }
+
+    @Override
+    public long getPos()
+    {
+        return m_position;
+    }
+
+    @Override
+    public boolean seekToNewSource(final long targetPos)
+    {
+        return false;
+    }
+}
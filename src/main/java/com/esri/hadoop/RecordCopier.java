@@ -0,0 +1,56 @@
+package com.esri.hadoop;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RecordCopier copies the records of a data file to a new data file, in the order they are asked for.
+ * A record is copied once, the index entries sharing an address share the new address.
+ */
+public class RecordCopier
+{
+    private final FSDataInputStream m_input;
+    private final IRecordReader m_recordReader;
+    private final FSDataOutputStream m_output;
+    private final Map<Long, Long> m_addresses = new HashMap<Long, Long>();
+
+    /**
+     * Create a RecordCopier
+     *
+     * @param input        the data file
+     * @param recordReader the reader of the records of the data file
+     * @param output       the new data file
+     */
+    public RecordCopier(
+            final FSDataInputStream input,
+            final IRecordReader recordReader,
+            final FSDataOutputStream output)
+    {
+        m_input = input;
+        m_recordReader = recordReader;
+        m_output = output;
+    }
+
+    /**
+     * Copies a record at the end of the new data file, unless it is already copied
+     *
+     * @param address the address of the record in the data file
+     * @return the address of the record in the new data file
+     * @throws IOException
+     */
+    public long copy(final long address) throws IOException
+    {
+        Long newAddress = m_addresses.get(address);
+        if (newAddress == null)
+        {
+            newAddress = m_output.getPos();
+            m_output.write(m_recordReader.read(m_input, address));
+            m_addresses.put(address, newAddress);
+        }
+        return newAddress;
+    }
+}
@@ -0,0 +1,47 @@
+package com.esri.hadoop;
+
+/**
+ * Space filling curves, the distance of a cell of a grid along a curve going through all the cells.
+ * Cells close along a curve are close in space, sorting by distance keeps nearby entries together.
+ */
+public final class SpaceFillingCurves
+{
+    private SpaceFillingCurves()
+    {
+    }
+
+    /**
+     * The distance of a cell along the Hilbert curve
+     *
+     * @param order the grid has 2^order by 2^order cells, at most 31
+     * @param x     the cell column
+     * @param y     the cell row
+     * @return the distance
+     */
+    public static long hilbert(
+            final int order,
+            int x,
+            int y)
+    {
+        final int n = 1 << order;
+        long d = 0;
+        for (int s = n >>> 1; s > 0; s >>>= 1)
+        {
+            final int rx = (x & s) != 0 ? 1 : 0;
+            final int ry = (y & s) != 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0)
+            {
+                if (rx == 1)
+                {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                final int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+}
@@ -0,0 +1,211 @@
+package com.esri.hadoop;
+
+import com.esri.hadoop.quadtree.FSQuadTreeReader;
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.quadtree.QuadTree;
+import com.esri.hadoop.quadtree.QuadTreeNode;
+import com.esri.hadoop.rtree.FSRTreeReader;
+import com.esri.hadoop.rtree.MBRHandle;
+import com.esri.hadoop.rtree.PackedNode;
+import com.esri.hadoop.rtree.RTree;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * SpatialJoin finds the points of a quad tree contained (or touching) the MBRs of a rtree.
+ * Both trees are walked together: the quad tree is traversed once, and each cell carries down the rtree entries
+ * intersecting it. A rtree node is opened when it is larger than the cell, so the disjoint pairs of nodes are pruned
+ * high in both trees. Give the rtree reader a node cache, a rtree node overlapping many cells is then read once.
+ */
+public class SpatialJoin
+{
+    private final FSRTreeReader m_rTreeReader;
+    private final FSQuadTreeReader m_quadTreeReader;
+
+    /**
+     * Create a SpatialJoin
+     *
+     * @param rTreeReader    the rtree of MBRs
+     * @param quadTreeReader the quad tree of points
+     */
+    public SpatialJoin(
+            final FSRTreeReader rTreeReader,
+            final FSQuadTreeReader quadTreeReader)
+    {
+        m_rTreeReader = rTreeReader;
+        m_quadTreeReader = quadTreeReader;
+    }
+
+    /**
+     * Executes joinFunction(PointData, MBRHandle) on every point and MBR containing it (contained or touch).
+     *
+     * @param joinFunction the callback
+     * @throws IOException
+     */
+    public void join(final IJoinFunction joinFunction) throws IOException
+    {
+        final QuadTree quadTree = m_quadTreeReader.getQuadTree();
+        // the points outside of the root node are searched one by one
+        for (final PointData pt : quadTree.overflow())
+        {
+            final Iterator<MBRHandle> iterator = m_rTreeReader.search(new Extent(pt.x, pt.y, pt.x, pt.y));
+            while (iterator.hasNext())
+            {
+                joinFunction.evaluate(pt, iterator.next());
+            }
+        }
+        final RTree rTree = m_rTreeReader.getRTree();
+        final Entries entries = new Entries(16);
+        entries.addNode(rTree.readNode(m_rTreeReader.getStream(), rTree.getRootHandle()));
+        final Point2D.Double rootMin = quadTree.rootMin();
+        join(entries, quadTree.root(), rootMin.x, rootMin.y, quadTree.rootWidth(), joinFunction);
+    }
+
+    /**
+     * Joins a quad tree node with the rtree entries of its parent
+     */
+    private void join(
+            final Entries parentEntries,
+            final QuadTreeNode node,
+            final double x,
+            final double y,
+            final double width,
+            final IJoinFunction joinFunction) throws IOException
+    {
+        final boolean isLeaf = !node.hasChildren();
+        if (isLeaf && node.getData().isEmpty())
+        {
+            return;
+        }
+        final Entries entries = new Entries(parentEntries.size);
+        filter(parentEntries, entries, x, y, width, isLeaf);
+        if (entries.size == 0)
+        {
+            return;
+        }
+        final QuadTreeNode[] children = node.loadChildren(m_quadTreeReader.getDataInputStream());
+        if (children == null)
+        {
+            final double[] extents = entries.extents;
+            for (final PointData pt : node.getData())
+            {
+                for (int i = 0, c = 0; i < entries.size; i++, c += 4)
+                {
+                    if (extents[c] <= pt.x && extents[c + 1] <= pt.y && pt.x <= extents[c + 2] && pt.y <= extents[c + 3])
+                    {
+                        joinFunction.evaluate(pt, new MBRHandle(
+                                new Extent(extents[c], extents[c + 1], extents[c + 2], extents[c + 3]),
+                                entries.handles[i]));
+                    }
+                }
+            }
+        }
+        else
+        {
+            final double ww = width * 0.5;
+            join(entries, children[0], x, y, ww, joinFunction);
+            join(entries, children[1], x, y + ww, ww, joinFunction);
+            join(entries, children[2], x + ww, y, ww, joinFunction);
+            join(entries, children[3], x + ww, y + ww, ww, joinFunction);
+        }
+    }
+
+    /**
+     * Keeps the entries intersecting a cell, the rtree nodes larger than the cell are replaced by their entries.
+     * At a leaf cell all the rtree nodes are opened, only the MBR handles are kept.
+     */
+    private void filter(
+            final Entries input,
+            final Entries output,
+            final double x,
+            final double y,
+            final double width,
+            final boolean openAll) throws IOException
+    {
+        final RTree rTree = m_rTreeReader.getRTree();
+        final FSDataInputStream stream = m_rTreeReader.getStream();
+        Entries pending = input;
+        while (pending != null)
+        {
+            Entries opened = null;
+            final double[] extents = pending.extents;
+            for (int i = 0, c = 0; i < pending.size; i++, c += 4)
+            {
+                final double xmin = extents[c];
+                final double ymin = extents[c + 1];
+                final double xmax = extents[c + 2];
+                final double ymax = extents[c + 3];
+                if (xmin < x + width && xmax >= x && ymax >= y && ymin < y + width)
+                {
+                    if (pending.isData[i] || (!openAll && xmax - xmin <= width && ymax - ymin <= width))
+                    {
+                        output.add(pending.handles[i], pending.isData[i], xmin, ymin, xmax, ymax);
+                    }
+                    else
+                    {
+                        if (opened == null)
+                        {
+                            opened = new Entries(16);
+                        }
+                        opened.addNode(rTree.readNode(stream, pending.handles[i]));
+                    }
+                }
+            }
+            pending = opened;
+        }
+    }
+
+    /**
+     * The rtree entries carried by a cell, nodes and MBR handles
+     */
+    private static final class Entries
+    {
+        private long[] handles;
+        private boolean[] isData;
+        private double[] extents;
+        private int size;
+
+        private Entries(final int capacity)
+        {
+            handles = new long[Math.max(capacity, 1)];
+            isData = new boolean[handles.length];
+            extents = new double[4 * handles.length];
+        }
+
+        private void add(
+                final long handle,
+                final boolean data,
+                final double xmin,
+                final double ymin,
+                final double xmax,
+                final double ymax)
+        {
+            if (size == handles.length)
+            {
+                handles = Arrays.copyOf(handles, size * 2);
+                isData = Arrays.copyOf(isData, size * 2);
+                extents = Arrays.copyOf(extents, size * 8);
+            }
+            handles[size] = handle;
+            isData[size] = data;
+            final int c = 4 * size++;
+            extents[c] = xmin;
+            extents[c + 1] = ymin;
+            extents[c + 2] = xmax;
+            extents[c + 3] = ymax;
+        }
+
+        private void addNode(final PackedNode node)
+        {
+            final double[] nodeExtents = node.extents;
+            for (int i = 0, c = 0; i < node.size; i++, c += 4)
+            {
+                add(node.handles[i], node.isLeaf, nodeExtents[c], nodeExtents[c + 1], nodeExtents[c + 2], nodeExtents[c + 3]);
+            }
+        }
+    }
+}
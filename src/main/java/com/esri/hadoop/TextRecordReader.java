@@ -0,0 +1,42 @@
+package com.esri.hadoop;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads a line of a text file, the record is the line and its end of line.
+ * The last line of a file may have no end of line.
+ */
+public class TextRecordReader implements IRecordReader
+{
+    private final byte[] m_buffer = new byte[4096];
+
+    @Override
+    public byte[] read(
+            final FSDataInputStream dataInputStream,
+            final long address) throws IOException
+    {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        long position = address;
+        while (true)
+        {
+            final int length = dataInputStream.read(position, m_buffer, 0, m_buffer.length);
+            if (length <= 0)
+            {
+                return record.toByteArray();
+            }
+            for (int i = 0; i < length; i++)
+            {
+                if (m_buffer[i] == '\n')
+                {
+                    record.write(m_buffer, 0, i + 1);
+                    return record.toByteArray();
+                }
+            }
+            record.write(m_buffer, 0, length);
+            position += length;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.IRecordReader;
+import com.esri.hadoop.TextRecordReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IndexInputFormat feeds the mappers the records of a data file inside an extent, found with the index of the file.
+ * The index is split by subtree, the subtrees outside of the extent are left out, and a split is a run of
+ * subtrees of about the split size in the index. The key is the address of the record and the value its bytes.
+ * A record pointed to by many subtrees of different splits is read by each of these splits.
+ */
+public abstract class IndexInputFormat extends InputFormat<LongWritable, BytesWritable>
+{
+    public static final String INDEX_PATH = "fsspatialindex.index.path";
+    public static final String DATA_PATH = "fsspatialindex.data.path";
+    public static final String EXTENT = "fsspatialindex.extent";
+    public static final String SPLIT_SIZE = "fsspatialindex.split.size";
+    public static final String RECORD_READER = "fsspatialindex.record.reader";
+
+    public static final long DEFAULT_SPLIT_SIZE = 16L * 1024L * 1024L;
+
+    /**
+     * The maximum number of hosts of a split
+     */
+    private static final int MAX_HOSTS = 3;
+
+    /**
+     * Sets the index file
+     *
+     * @param job  the job
+     * @param path the path of the index file
+     */
+    public static void setIndexPath(
+            final Job job,
+            final Path path)
+    {
+        job.getConfiguration().set(INDEX_PATH, path.toString());
+    }
+
+    /**
+     * Sets the data file, the file the addresses of the index point to
+     *
+     * @param job  the job
+     * @param path the path of the data file
+     */
+    public static void setDataPath(
+            final Job job,
+            final Path path)
+    {
+        job.getConfiguration().set(DATA_PATH, path.toString());
+    }
+
+    /**
+     * Sets the extent of the records fed to the mappers, all the records when not set
+     *
+     * @param job    the job
+     * @param extent the extent
+     */
+    public static void setExtent(
+            final Job job,
+            final Extent extent)
+    {
+        job.getConfiguration().set(EXTENT, extent.xmin + "," + extent.ymin + "," + extent.xmax + "," + extent.ymax);
+    }
+
+    /**
+     * Sets the size of the part of the index searched by a mapper
+     *
+     * @param job       the job
+     * @param splitSize the size in bytes
+     */
+    public static void setSplitSize(
+            final Job job,
+            final long splitSize)
+    {
+        job.getConfiguration().setLong(SPLIT_SIZE, splitSize);
+    }
+
+    /**
+     * Sets the reader of the records of the data file, a TextRecordReader when not set
+     *
+     * @param job          the job
+     * @param recordReader the class of the record reader
+     */
+    public static void setRecordReader(
+            final Job job,
+            final Class<? extends IRecordReader> recordReader)
+    {
+        job.getConfiguration().setClass(RECORD_READER, recordReader, IRecordReader.class);
+    }
+
+    /**
+     * Retrieves the extent of the records
+     *
+     * @param configuration the job configuration
+     * @return the extent
+     */
+    public static Extent getExtent(final Configuration configuration)
+    {
+        final String text = configuration.get(EXTENT);
+        if (text == null)
+        {
+            return new Extent(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        }
+        final String[] tokens = text.split(",");
+        if (tokens.length != 4)
+        {
+            throw new IllegalArgumentException("Extent must be xmin,ymin,xmax,ymax : " + text);
+        }
+        return new Extent(Double.parseDouble(tokens[0]), Double.parseDouble(tokens[1]),
+                Double.parseDouble(tokens[2]), Double.parseDouble(tokens[3]));
+    }
+
+    /**
+     * Splits the index in the subtrees intersecting the extent, each no larger than the split size unless it is a leaf
+     *
+     * @param index       the index
+     * @param indexLength the length of the index file
+     * @param extent      the extent
+     * @param splitSize   the split size
+     * @return the subtrees
+     * @throws IOException
+     */
+    protected abstract List<Subtree> partition(
+            final FSDataInputStream index,
+            final long indexLength,
+            final Extent extent,
+            final long splitSize) throws IOException;
+
+    /**
+     * Indicates if the split searching the first subtrees also searches entries held outside of any subtree
+     *
+     * @param index the index
+     * @return true if there are such entries
+     * @throws IOException
+     */
+    protected abstract boolean hasOverflow(final FSDataInputStream index) throws IOException;
+
+    /**
+     * Finds an address of the data file pointed to by each subtree, to locate the data of a split
+     *
+     * @param index    the index
+     * @param subtrees the subtrees, their first address is set, -1 if there is none
+     * @throws IOException
+     */
+    protected abstract void locate(
+            final FSDataInputStream index,
+            final List<Subtree> subtrees) throws IOException;
+
+    /**
+     * Searches the subtrees of a split
+     *
+     * @param index  the index
+     * @param split  the split
+     * @param extent the extent
+     * @return the sorted distinct addresses of the records in the extent
+     * @throws IOException
+     */
+    protected abstract long[] searchAddresses(
+            final FSDataInputStream index,
+            final IndexSplit split,
+            final Extent extent) throws IOException;
+
+    @Override
+    public List<InputSplit> getSplits(final JobContext context) throws IOException
+    {
+        final Configuration configuration = context.getConfiguration();
+        final Path indexPath = new Path(configuration.get(INDEX_PATH));
+        final Path dataPath = new Path(configuration.get(DATA_PATH));
+        final long splitSize = configuration.getLong(SPLIT_SIZE, DEFAULT_SPLIT_SIZE);
+        final Extent extent = getExtent(configuration);
+
+        final FileSystem indexFileSystem = indexPath.getFileSystem(configuration);
+        final FileSystem dataFileSystem = dataPath.getFileSystem(configuration);
+        final FileStatus dataStatus = dataFileSystem.getFileStatus(dataPath);
+        final List<InputSplit> splits = new ArrayList<InputSplit>();
+        final FSDataInputStream index = indexFileSystem.open(indexPath);
+        try
+        {
+            final List<Subtree> subtrees = partition(index, indexFileSystem.getFileStatus(indexPath).getLen(), extent, splitSize);
+            // the subtrees in index order, the neighbour subtrees of a split are near each other in space
+            Collections.sort(subtrees, new Comparator<Subtree>()
+            {
+                @Override
+                public int compare(
+                        final Subtree a,
+                        final Subtree b)
+                {
+                    return a.position < b.position ? -1 : (a.position == b.position ? 0 : 1);
+                }
+            });
+            locate(index, subtrees);
+            boolean overflow = hasOverflow(index);
+            int first = 0;
+            long length = 0L;
+            for (int i = 0; i < subtrees.size(); i++)
+            {
+                length += subtrees.get(i).size;
+                if (length >= splitSize || i == subtrees.size() - 1)
+                {
+                    splits.add(createSplit(subtrees.subList(first, i + 1), overflow, length, dataFileSystem, dataStatus));
+                    overflow = false;
+                    first = i + 1;
+                    length = 0L;
+                }
+            }
+            if (overflow)
+            {
+                splits.add(new IndexSplit(new long[0], new double[0], true, 0L, new String[0]));
+            }
+        }
+        finally
+        {
+            index.close();
+        }
+        return splits;
+    }
+
+    /**
+     * Creates a split of subtrees, located on the hosts holding most of the data blocks of the subtrees
+     */
+    private IndexSplit createSplit(
+            final List<Subtree> subtrees,
+            final boolean overflow,
+            final long length,
+            final FileSystem fileSystem,
+            final FileStatus dataStatus) throws IOException
+    {
+        final long[] positions = new long[subtrees.size()];
+        final double[] cells = new double[3 * subtrees.size()];
+        final Map<String, Long> weights = new HashMap<String, Long>();
+        for (int i = 0; i < positions.length; i++)
+        {
+            final Subtree subtree = subtrees.get(i);
+            positions[i] = subtree.position;
+            cells[3 * i] = subtree.x;
+            cells[3 * i + 1] = subtree.y;
+            cells[3 * i + 2] = subtree.width;
+            if (subtree.firstAddress >= 0L && subtree.firstAddress < dataStatus.getLen())
+            {
+                for (final BlockLocation location : fileSystem.getFileBlockLocations(dataStatus, subtree.firstAddress, 1))
+                {
+                    for (final String host : location.getHosts())
+                    {
+                        final Long weight = weights.get(host);
+                        weights.put(host, (weight == null ? 0L : weight) + subtree.size);
+                    }
+                }
+            }
+        }
+        final List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(weights.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>()
+        {
+            @Override
+            public int compare(
+                    final Map.Entry<String, Long> a,
+                    final Map.Entry<String, Long> b)
+            {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        final String[] hosts = new String[Math.min(MAX_HOSTS, entries.size())];
+        for (int i = 0; i < hosts.length; i++)
+        {
+            hosts[i] = entries.get(i).getKey();
+        }
+        return new IndexSplit(positions, cells, overflow, length, hosts);
+    }
+
+    @Override
+    public RecordReader<LongWritable, BytesWritable> createRecordReader(
+            final InputSplit split,
+            final TaskAttemptContext context)
+    {
+        return new IndexRecordReader(this);
+    }
+
+    /**
+     * The reader of the records of the data file, a Configurable reader is given the job configuration
+     *
+     * @param configuration the job configuration
+     * @return the record reader
+     */
+    static IRecordReader newRecordReader(final Configuration configuration)
+    {
+        final Class<? extends IRecordReader> type =
+                configuration.getClass(RECORD_READER, TextRecordReader.class, IRecordReader.class);
+        return ReflectionUtils.newInstance(type, configuration);
+    }
+}
@@ -0,0 +1,101 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.IRecordReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.IOException;
+
+/**
+ * IndexRecordReader searches the subtrees of a split then reads the records found in address order,
+ * so the data file is read forward.
+ */
+public class IndexRecordReader extends RecordReader<LongWritable, BytesWritable>
+{
+    private final IndexInputFormat m_inputFormat;
+    private final LongWritable m_key = new LongWritable();
+    private final BytesWritable m_value = new BytesWritable();
+    private FSDataInputStream m_data;
+    private IRecordReader m_recordReader;
+    private long[] m_addresses = new long[0];
+    private int m_next;
+
+    /**
+     * Create an IndexRecordReader
+     *
+     * @param inputFormat the input format of the index
+     */
+    public IndexRecordReader(final IndexInputFormat inputFormat)
+    {
+        m_inputFormat = inputFormat;
+    }
+
+    @Override
+    public void initialize(
+            final InputSplit split,
+            final TaskAttemptContext context) throws IOException
+    {
+        final Configuration configuration = context.getConfiguration();
+        final Path indexPath = new Path(configuration.get(IndexInputFormat.INDEX_PATH));
+        final FSDataInputStream index = indexPath.getFileSystem(configuration).open(indexPath);
+        try
+        {
+            m_addresses = m_inputFormat.searchAddresses(index, (IndexSplit) split, IndexInputFormat.getExtent(configuration));
+        }
+        finally
+        {
+            index.close();
+        }
+        final Path dataPath = new Path(configuration.get(IndexInputFormat.DATA_PATH));
+        m_data = dataPath.getFileSystem(configuration).open(dataPath);
+        m_recordReader = IndexInputFormat.newRecordReader(configuration);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException
+    {
+        if (m_next == m_addresses.length)
+        {
+            return false;
+        }
+        final long address = m_addresses[m_next++];
+        final byte[] record = m_recordReader.read(m_data, address);
+        m_key.set(address);
+        m_value.set(record, 0, record.length);
+        return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey()
+    {
+        return m_key;
+    }
+
+    @Override
+    public BytesWritable getCurrentValue()
+    {
+        return m_value;
+    }
+
+    @Override
+    public float getProgress()
+    {
+        return m_addresses.length == 0 ? 1.0F : (float) m_next / m_addresses.length;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (m_data != null)
+        {
+            m_data.close();
+            m_data = null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.esri.hadoop.mapreduce;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * IndexSplit is a list of subtrees of an index, a mapper searches these subtrees only.
+ * The length is the size of the subtrees in the index and the locations are the hosts holding most of
+ * the data file blocks pointed to by the subtrees.
+ */
+public class IndexSplit extends InputSplit implements Writable
+{
+    private long[] m_positions;
+    private double[] m_cells;
+    private boolean m_overflow;
+    private long m_length;
+    private String[] m_hosts;
+
+    /**
+     * Default constructor, for deserialization
+     */
+    public IndexSplit()
+    {
+    }
+
+    /**
+     * Create an IndexSplit
+     *
+     * @param positions the positions of the root nodes of the subtrees
+     * @param cells     the cells of the quad tree root nodes, minx, miny and width, empty for a rtree
+     * @param overflow  true if the split searches the points outside of the quad tree root
+     * @param length    the size of the subtrees in the index
+     * @param hosts     the hosts holding the data
+     */
+    public IndexSplit(
+            final long[] positions,
+            final double[] cells,
+            final boolean overflow,
+            final long length,
+            final String[] hosts)
+    {
+        m_positions = positions;
+        m_cells = cells;
+        m_overflow = overflow;
+        m_length = length;
+        m_hosts = hosts;
+    }
+
+    /**
+     * The positions of the root nodes of the subtrees
+     *
+     * @return
+     */
+    public long[] positions()
+    {
+        return m_positions;
+    }
+
+    /**
+     * The cells of the quad tree root nodes, minx, miny and width of each
+     *
+     * @return
+     */
+    public double[] cells()
+    {
+        return m_cells;
+    }
+
+    /**
+     * Indicates if the split searches the points outside of the quad tree root
+     *
+     * @return
+     */
+    public boolean overflow()
+    {
+        return m_overflow;
+    }
+
+    @Override
+    public long getLength()
+    {
+        return m_length;
+    }
+
+    @Override
+    public String[] getLocations()
+    {
+        return m_hosts;
+    }
+
+    @Override
+    public void write(final DataOutput dataOutput) throws IOException
+    {
+        dataOutput.writeInt(m_positions.length);
+        for (final long position : m_positions)
+        {
+            dataOutput.writeLong(position);
+        }
+        dataOutput.writeInt(m_cells.length);
+        for (final double cell : m_cells)
+        {
+            dataOutput.writeDouble(cell);
+        }
+        dataOutput.writeBoolean(m_overflow);
+        dataOutput.writeLong(m_length);
+        // the hosts are only used to schedule the task
+    }
+
+    @Override
+    public void readFields(final DataInput dataInput) throws IOException
+    {
+        m_positions = new long[dataInput.readInt()];
+        for (int i = 0; i < m_positions.length; i++)
+        {
+            m_positions[i] = dataInput.readLong();
+        }
+        m_cells = new double[dataInput.readInt()];
+        for (int i = 0; i < m_cells.length; i++)
+        {
+            m_cells[i] = dataInput.readDouble();
+        }
+        m_overflow = dataInput.readBoolean();
+        m_length = dataInput.readLong();
+        m_hosts = new String[0];
+    }
+}
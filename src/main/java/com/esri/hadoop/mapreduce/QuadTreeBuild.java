@@ -0,0 +1,223 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.quadtree.FSQuadTreeWriter;
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.quadtree.QuadTree;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * QuadTreeBuild builds a quad tree with a MapReduce job, the build scales with the number of reducers.
+ * The input is sampled to divide the root into partitions of about the same number of points, each reducer builds
+ * the quad trees of some partitions and the quad trees are stitched under the top levels into a single index.
+ * <p/>
+ * The root does not grow as with FSQuadTreeWriter, it is the square at the lower left of the extent
+ * and the points outside of it are kept in the header, so the extent must hold (nearly) all the points.
+ * Set the input, the mapper (a QuadTreeBuildMapper) and the number of reducers of the job before building.
+ */
+public class QuadTreeBuild
+{
+    public static final String BUCKET_SIZE = "fsspatialindex.build.bucket.size";
+    public static final String MINIMUM_LEVEL = "fsspatialindex.build.minimum.level";
+    public static final String FORMAT = "fsspatialindex.build.format";
+
+    public static final int DEFAULT_SAMPLE_SIZE = 100000;
+
+    /**
+     * The number of partitions per reducer, more partitions even out the work of the reducers
+     */
+    private static final int PARTITIONS_PER_REDUCER = 4;
+
+    private final Job m_job;
+    private final Extent m_extent;
+    private final int m_bucketSize;
+    private final int m_format;
+    private int m_sampleSize = DEFAULT_SAMPLE_SIZE;
+
+    /**
+     * Create a QuadTreeBuild
+     *
+     * @param job        the job, with its input and its mapper set
+     * @param extent     the extent of the points
+     * @param bucketSize the bucket size
+     * @param format     QuadTree.FORMAT_ROWS or QuadTree.FORMAT_COLUMNS
+     */
+    public QuadTreeBuild(
+            final Job job,
+            final Extent extent,
+            final int bucketSize,
+            final int format)
+    {
+        m_job = job;
+        m_extent = extent;
+        m_bucketSize = bucketSize;
+        m_format = format;
+    }
+
+    /**
+     * Sets the number of sampled points, taken from the start of each input split
+     *
+     * @param sampleSize the number of points
+     */
+    public void setSampleSize(final int sampleSize)
+    {
+        m_sampleSize = sampleSize;
+    }
+
+    /**
+     * Samples the input, runs the job and writes the quad tree
+     *
+     * @param workPath the output directory of the job, deleted once the quad tree is written
+     * @param stream   the quad tree output stream, closed when done
+     * @return false if the job failed, in which case nothing is written
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ClassNotFoundException
+     */
+    public boolean build(
+            final Path workPath,
+            final FSDataOutputStream stream) throws IOException, InterruptedException, ClassNotFoundException
+    {
+        final Configuration configuration = m_job.getConfiguration();
+        final double rootWidth = Math.max(m_extent.width(), m_extent.height());
+        final int rootLevel = FSQuadTreeWriter.START_LEVEL;
+        final int partitions = PARTITIONS_PER_REDUCER * Math.max(1, m_job.getNumReduceTasks());
+        final QuadTreePartitioning partitioning = QuadTreePartitioning.create(sample(), m_extent.xmin, m_extent.ymin,
+                rootWidth, rootLevel, FSQuadTreeWriter.MINIMUM_LEVEL, partitions);
+        partitioning.write(configuration);
+        configuration.setInt(BUCKET_SIZE, m_bucketSize);
+        configuration.setInt(MINIMUM_LEVEL, FSQuadTreeWriter.MINIMUM_LEVEL);
+        configuration.setInt(FORMAT, m_format);
+
+        m_job.setMapOutputKeyClass(IntWritable.class);
+        m_job.setMapOutputValueClass(PointData.class);
+        m_job.setReducerClass(QuadTreeBuildReducer.class);
+        m_job.setOutputKeyClass(NullWritable.class);
+        m_job.setOutputValueClass(NullWritable.class);
+        m_job.setOutputFormatClass(TextOutputFormat.class);
+        FileOutputFormat.setOutputPath(m_job, workPath);
+        if (!m_job.waitForCompletion(false))
+        {
+            return false;
+        }
+
+        final FileSystem fileSystem = workPath.getFileSystem(configuration);
+        // the root does not grow, the maximum level is the root level
+        final QuadTree quadTree = new QuadTree(m_bucketSize, rootLevel, FSQuadTreeWriter.MINIMUM_LEVEL, rootLevel,
+                rootWidth, new Point2D.Double(m_extent.xmin, m_extent.ymin));
+        quadTree.setFormat(m_format);
+        try
+        {
+            final Path[] subtrees = new Path[partitioning.count()];
+            for (int i = 0; i <= partitioning.count(); i++)
+            {
+                final Path overflow = new Path(workPath, QuadTreeBuildReducer.OVERFLOW + i);
+                if (fileSystem.exists(overflow))
+                {
+                    readOverflow(fileSystem, overflow, quadTree);
+                }
+                final Path subtree = new Path(workPath, QuadTreeBuildReducer.SUBTREE + i);
+                if (i < subtrees.length && fileSystem.exists(subtree))
+                {
+                    subtrees[i] = subtree;
+                }
+            }
+            quadTree.stitch(stream, partitioning.shape(), fileSystem, subtrees);
+        }
+        finally
+        {
+            quadTree.release();
+            stream.close();
+        }
+        fileSystem.delete(workPath, true);
+        return true;
+    }
+
+    /**
+     * Adds the points of an overflow file to the quad tree, they are outside of its root
+     */
+    private static void readOverflow(
+            final FileSystem fileSystem,
+            final Path path,
+            final QuadTree quadTree) throws IOException
+    {
+        final long count = fileSystem.getFileStatus(path).getLen() / 24L;
+        final FSDataInputStream stream = fileSystem.open(path);
+        try
+        {
+            for (long i = 0; i < count; i++)
+            {
+                final PointData pointData = new PointData();
+                pointData.readFields(stream);
+                quadTree.overflow().add(pointData);
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Samples the first points of each input split, with the record reader of the input and the mapper of the job
+     */
+    @SuppressWarnings("unchecked")
+    private List<PointData> sample() throws IOException, InterruptedException, ClassNotFoundException
+    {
+        final Configuration configuration = m_job.getConfiguration();
+        if (!QuadTreeBuildMapper.class.isAssignableFrom(m_job.getMapperClass()))
+        {
+            throw new IllegalArgumentException("The mapper must be a QuadTreeBuildMapper");
+        }
+        final QuadTreeBuildMapper<Object, Object> mapper =
+                (QuadTreeBuildMapper<Object, Object>) ReflectionUtils.newInstance(m_job.getMapperClass(), configuration);
+        final InputFormat<Object, Object> inputFormat =
+                (InputFormat<Object, Object>) ReflectionUtils.newInstance(m_job.getInputFormatClass(), configuration);
+        final List<InputSplit> splits = inputFormat.getSplits(m_job);
+        final List<PointData> sample = new ArrayList<PointData>();
+        final int perSplit = Math.max(1, m_sampleSize / Math.max(1, splits.size()));
+        for (final InputSplit split : splits)
+        {
+            final TaskAttemptContextImpl context = new TaskAttemptContextImpl(configuration, new TaskAttemptID());
+            final RecordReader<Object, Object> reader = inputFormat.createRecordReader(split, context);
+            try
+            {
+                reader.initialize(split, context);
+                for (int n = 0; n < perSplit && reader.nextKeyValue(); )
+                {
+                    final PointData pointData = mapper.toPointData(reader.getCurrentKey(), reader.getCurrentValue());
+                    if (pointData != null)
+                    {
+                        sample.add(new PointData(pointData.x, pointData.y, pointData.address));
+                        n++;
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        return sample;
+    }
+}
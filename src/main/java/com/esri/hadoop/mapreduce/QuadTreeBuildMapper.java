@@ -0,0 +1,51 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.quadtree.PointData;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * QuadTreeBuildMapper sends each point to the reducer building the quad tree of its partition.
+ * Extend it to turn your input records into points, the address of a point being the position of its record
+ * in the data file (the key of a TextInputFormat).
+ */
+public abstract class QuadTreeBuildMapper<KEYIN, VALUEIN> extends Mapper<KEYIN, VALUEIN, IntWritable, PointData>
+{
+    private final IntWritable m_partition = new IntWritable();
+    private QuadTreePartitioning m_partitioning;
+
+    /**
+     * Turns an input record into a point, also used to sample the input
+     *
+     * @param key   the input key
+     * @param value the input value
+     * @return the point, null to skip the record
+     */
+    public abstract PointData toPointData(
+            final KEYIN key,
+            final VALUEIN value);
+
+    @Override
+    protected void setup(final Context context)
+    {
+        m_partitioning = QuadTreePartitioning.read(context.getConfiguration());
+    }
+
+    @Override
+    protected void map(
+            final KEYIN key,
+            final VALUEIN value,
+            final Context context) throws IOException, InterruptedException
+    {
+        final PointData pointData = toPointData(key, value);
+        if (pointData != null)
+        {
+            final int partition = m_partitioning.partition(pointData.x, pointData.y);
+            // the points outside of the root go with the partition after the last one
+            m_partition.set(partition < 0 ? m_partitioning.count() : partition);
+            context.write(m_partition, pointData);
+        }
+    }
+}
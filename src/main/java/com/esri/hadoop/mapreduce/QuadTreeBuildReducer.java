@@ -0,0 +1,111 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.quadtree.QuadTree;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+
+/**
+ * QuadTreeBuildReducer builds the quad tree of a partition, rooted at the cell of the partition,
+ * and writes its nodes to the file subtree-partition of the job output.
+ * The points outside of the root are written to the file overflow-partition.
+ */
+public class QuadTreeBuildReducer extends Reducer<IntWritable, PointData, NullWritable, NullWritable>
+{
+    public static final String SUBTREE = "subtree-";
+    public static final String OVERFLOW = "overflow-";
+
+    private QuadTreePartitioning m_partitioning;
+    private int m_bucketSize;
+    private int m_minimumLevel;
+    private int m_format;
+
+    @Override
+    protected void setup(final Context context)
+    {
+        final Configuration configuration = context.getConfiguration();
+        m_partitioning = QuadTreePartitioning.read(configuration);
+        m_bucketSize = configuration.getInt(QuadTreeBuild.BUCKET_SIZE, 0);
+        m_minimumLevel = configuration.getInt(QuadTreeBuild.MINIMUM_LEVEL, 0);
+        m_format = configuration.getInt(QuadTreeBuild.FORMAT, QuadTree.FORMAT_ROWS);
+    }
+
+    @Override
+    protected void reduce(
+            final IntWritable key,
+            final Iterable<PointData> values,
+            final Context context) throws IOException, InterruptedException
+    {
+        final int partition = key.get();
+        final Path directory = FileOutputFormat.getWorkOutputPath(context);
+        final FileSystem fileSystem = directory.getFileSystem(context.getConfiguration());
+        if (partition == m_partitioning.count())
+        {
+            final FSDataOutputStream stream = fileSystem.create(new Path(directory, OVERFLOW + partition), true);
+            try
+            {
+                for (final PointData pointData : values)
+                {
+                    pointData.write(stream);
+                }
+            }
+            finally
+            {
+                stream.close();
+            }
+            return;
+        }
+        final double[] cell = m_partitioning.cell(partition);
+        final int level = m_partitioning.level(partition);
+        // the root of the partition does not grow, the maximum level is the root level
+        final QuadTree quadTree = new QuadTree(m_bucketSize, level, m_minimumLevel, level, cell[2],
+                new Point2D.Double(cell[0], cell[1]));
+        quadTree.setFormat(m_format);
+        try
+        {
+            for (final PointData pointData : values)
+            {
+                // the values are reused by the framework
+                quadTree.addPointData(new PointData(pointData.x, pointData.y, pointData.address));
+            }
+            final FSDataOutputStream stream = fileSystem.create(new Path(directory, SUBTREE + partition), true);
+            try
+            {
+                quadTree.writeSubtree(stream);
+            }
+            finally
+            {
+                stream.close();
+            }
+            // a point on the edge of the cell lost to rounding
+            if (!quadTree.overflow().isEmpty())
+            {
+                final FSDataOutputStream overflow = fileSystem.create(new Path(directory, OVERFLOW + partition), true);
+                try
+                {
+                    for (final PointData pointData : quadTree.overflow())
+                    {
+                        pointData.write(overflow);
+                    }
+                }
+                finally
+                {
+                    overflow.close();
+                }
+            }
+        }
+        finally
+        {
+            quadTree.release();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.AddressRange;
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.quadtree.QuadTree;
+import com.esri.hadoop.quadtree.QuadTreeNode;
+import com.esri.hadoop.quadtree.SearchIterator;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * QuadTreeInputFormat splits a quad tree by subtree, the size of a subtree is read from its parent node.
+ * The points outside of the quad tree root are searched by the first split.
+ */
+public class QuadTreeInputFormat extends IndexInputFormat
+{
+    /**
+     * The size of an empty leaf, no point and no children
+     */
+    private static final long EMPTY_LEAF_SIZE = 5L;
+
+    @Override
+    protected List<Subtree> partition(
+            final FSDataInputStream index,
+            final long indexLength,
+            final Extent extent,
+            final long splitSize) throws IOException
+    {
+        final QuadTree quadTree = new QuadTree(index);
+        final List<Subtree> subtrees = new ArrayList<Subtree>();
+        // the largest subtree is split first
+        final PriorityQueue<Subtree> queue = new PriorityQueue<Subtree>(16, new Comparator<Subtree>()
+        {
+            @Override
+            public int compare(
+                    final Subtree a,
+                    final Subtree b)
+            {
+                return a.size > b.size ? -1 : (a.size == b.size ? 0 : 1);
+            }
+        });
+        final Subtree root = new Subtree(quadTree.rootPosition(), quadTree.rootMin().x, quadTree.rootMin().y,
+                quadTree.rootWidth(), indexLength - quadTree.rootPosition());
+        if (intersects(extent, root))
+        {
+            queue.add(root);
+        }
+        while (!queue.isEmpty())
+        {
+            final Subtree subtree = queue.poll();
+            if (subtree.size <= splitSize)
+            {
+                subtrees.add(subtree);
+                continue;
+            }
+            final QuadTreeNode node = readNode(index, quadTree, subtree);
+            if (!node.hasChildren())
+            {
+                subtrees.add(new Subtree(subtree.position, subtree.x, subtree.y, subtree.width, node.recordSize()));
+                continue;
+            }
+            final double ww = subtree.width * 0.5;
+            for (int i = 0; i < 4; i++)
+            {
+                final Subtree child = new Subtree(node.childPosition(i),
+                        i < 2 ? subtree.x : subtree.x + ww, (i & 1) == 0 ? subtree.y : subtree.y + ww, ww,
+                        node.childSize(i));
+                if (child.size > EMPTY_LEAF_SIZE && intersects(extent, child))
+                {
+                    queue.add(child);
+                }
+            }
+        }
+        return subtrees;
+    }
+
+    private static boolean intersects(
+            final Extent extent,
+            final Subtree subtree)
+    {
+        return extent.xmin < subtree.x + subtree.width && extent.xmax >= subtree.x &&
+                extent.ymax >= subtree.y && extent.ymin < subtree.y + subtree.width;
+    }
+
+    private static QuadTreeNode readNode(
+            final FSDataInputStream index,
+            final QuadTree quadTree,
+            final Subtree subtree) throws IOException
+    {
+        final QuadTreeNode node = new QuadTreeNode();
+        node.read(index, subtree.position, quadTree.format(), quadTree.layout(), subtree.x, subtree.y, subtree.width);
+        return node;
+    }
+
+    @Override
+    protected boolean hasOverflow(final FSDataInputStream index) throws IOException
+    {
+        return !new QuadTree(index).overflow().isEmpty();
+    }
+
+    @Override
+    protected void locate(
+            final FSDataInputStream index,
+            final List<Subtree> subtrees) throws IOException
+    {
+        final QuadTree quadTree = new QuadTree(index);
+        for (final Subtree subtree : subtrees)
+        {
+            subtree.firstAddress = firstAddress(index, quadTree, subtree);
+        }
+    }
+
+    private static long firstAddress(
+            final FSDataInputStream index,
+            final QuadTree quadTree,
+            final Subtree subtree) throws IOException
+    {
+        QuadTreeNode node = readNode(index, quadTree, subtree);
+        while (node.getData().isEmpty())
+        {
+            final QuadTreeNode[] children = node.loadChildren(index);
+            if (children == null)
+            {
+                return -1L;
+            }
+            QuadTreeNode next = null;
+            for (int i = 0; i < 4 && next == null; i++)
+            {
+                if (node.childSize(i) > EMPTY_LEAF_SIZE)
+                {
+                    next = children[i];
+                }
+            }
+            if (next == null)
+            {
+                return -1L;
+            }
+            node = next;
+        }
+        return node.getData().get(0).address;
+    }
+
+    @Override
+    protected long[] searchAddresses(
+            final FSDataInputStream index,
+            final IndexSplit split,
+            final Extent extent) throws IOException
+    {
+        final QuadTree quadTree = new QuadTree(index);
+        final SearchIterator iterator = new SearchIterator(index, extent);
+        if (split.overflow())
+        {
+            for (final PointData pt : quadTree.overflow())
+            {
+                if (extent.containsPoint(pt.x, pt.y))
+                {
+                    iterator.addPoint(pt);
+                }
+            }
+        }
+        final long[] positions = split.positions();
+        final double[] cells = split.cells();
+        for (int i = 0; i < positions.length; i++)
+        {
+            final Subtree subtree = new Subtree(positions[i], cells[3 * i], cells[3 * i + 1], cells[3 * i + 2], 0L);
+            iterator.addChild(readNode(index, quadTree, subtree), subtree.x, subtree.y, subtree.width);
+        }
+        long[] addresses = new long[64];
+        int count = 0;
+        while (iterator.hasNext())
+        {
+            if (count == addresses.length)
+            {
+                addresses = Arrays.copyOf(addresses, count * 2);
+            }
+            addresses[count++] = iterator.next().address;
+        }
+        return AddressRange.sortDistinct(addresses, count);
+    }
+}
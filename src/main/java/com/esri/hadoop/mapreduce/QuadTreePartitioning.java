@@ -0,0 +1,275 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.quadtree.PointData;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * QuadTreePartitioning is the top levels of a quad tree, computed from a sample of the points.
+ * A cell is divided while it holds more than its share of the sample, each leaf cell is a partition and
+ * the quad tree of its points is built by a reducer. The top levels are a shape, the nodes in depth first order,
+ * '1' for an inner node and '0' for a leaf, the partitions are numbered in that order.
+ */
+public class QuadTreePartitioning
+{
+    public static final String SHAPE = "fsspatialindex.build.shape";
+    public static final String ROOT = "fsspatialindex.build.root";
+
+    private final String m_shape;
+    private final double m_rootX;
+    private final double m_rootY;
+    private final double m_rootWidth;
+    private final int m_rootLevel;
+    private final int[] m_children;
+    private final int[] m_leaves;
+    private final double[] m_cells;
+    private final int[] m_levels;
+    private final int m_count;
+
+    /**
+     * Create a QuadTreePartitioning
+     *
+     * @param shape     the top levels
+     * @param rootX     the root minx
+     * @param rootY     the root miny
+     * @param rootWidth the root width
+     * @param rootLevel the root level
+     */
+    public QuadTreePartitioning(
+            final String shape,
+            final double rootX,
+            final double rootY,
+            final double rootWidth,
+            final int rootLevel)
+    {
+        m_shape = shape;
+        m_rootX = rootX;
+        m_rootY = rootY;
+        m_rootWidth = rootWidth;
+        m_rootLevel = rootLevel;
+        m_children = new int[4 * shape.length()];
+        m_leaves = new int[shape.length()];
+        int count = 0;
+        for (int i = 0; i < shape.length(); i++)
+        {
+            if (shape.charAt(i) == '0')
+            {
+                count++;
+            }
+        }
+        m_count = count;
+        m_cells = new double[3 * count];
+        m_levels = new int[count];
+        final int[] next = {0, 0};
+        if (parse(0, rootX, rootY, rootWidth, rootLevel, next) != shape.length())
+        {
+            throw new IllegalArgumentException("Invalid shape " + shape);
+        }
+    }
+
+    /**
+     * Records the children, the leaf numbers and the cells of the node at an index, returns the index after its subtree
+     */
+    private int parse(
+            final int index,
+            final double x,
+            final double y,
+            final double width,
+            final int level,
+            final int[] next)
+    {
+        if (index >= m_shape.length())
+        {
+            throw new IllegalArgumentException("Invalid shape " + m_shape);
+        }
+        if (m_shape.charAt(index) == '0')
+        {
+            final int leaf = next[0]++;
+            m_leaves[index] = leaf;
+            m_cells[3 * leaf] = x;
+            m_cells[3 * leaf + 1] = y;
+            m_cells[3 * leaf + 2] = width;
+            m_levels[leaf] = level;
+            return index + 1;
+        }
+        final double ww = width * 0.5;
+        int child = index + 1;
+        m_children[4 * index] = child;
+        child = parse(child, x, y, ww, level - 1, next);
+        m_children[4 * index + 1] = child;
+        child = parse(child, x, y + ww, ww, level - 1, next);
+        m_children[4 * index + 2] = child;
+        child = parse(child, x + ww, y, ww, level - 1, next);
+        m_children[4 * index + 3] = child;
+        return parse(child, x + ww, y + ww, ww, level - 1, next);
+    }
+
+    /**
+     * Computes the partitioning of a sample, a cell is divided while it holds more than its share of the sample
+     * and its level is above the minimum level
+     *
+     * @param sample       the sample
+     * @param rootX        the root minx
+     * @param rootY        the root miny
+     * @param rootWidth    the root width
+     * @param rootLevel    the root level
+     * @param minimumLevel the minimum level
+     * @param partitions   the expected number of partitions
+     * @return the partitioning
+     */
+    public static QuadTreePartitioning create(
+            final List<PointData> sample,
+            final double rootX,
+            final double rootY,
+            final double rootWidth,
+            final int rootLevel,
+            final int minimumLevel,
+            final int partitions)
+    {
+        final StringBuilder shape = new StringBuilder();
+        divide(sample, rootX, rootY, rootWidth, rootLevel, minimumLevel, Math.max(1, sample.size() / partitions), shape);
+        return new QuadTreePartitioning(shape.toString(), rootX, rootY, rootWidth, rootLevel);
+    }
+
+    private static void divide(
+            final List<PointData> points,
+            final double x,
+            final double y,
+            final double width,
+            final int level,
+            final int minimumLevel,
+            final int share,
+            final StringBuilder shape)
+    {
+        if (points.size() <= share || level <= minimumLevel)
+        {
+            shape.append('0');
+            return;
+        }
+        shape.append('1');
+        final double ww = width * 0.5;
+        final double xx = x + ww;
+        final double yy = y + ww;
+        final List<List<PointData>> quadrants = new ArrayList<List<PointData>>(4);
+        for (int i = 0; i < 4; i++)
+        {
+            quadrants.add(new ArrayList<PointData>());
+        }
+        for (final PointData pt : points)
+        {
+            quadrants.get((pt.x < xx ? 0 : 2) + (pt.y < yy ? 0 : 1)).add(pt);
+        }
+        divide(quadrants.get(0), x, y, ww, level - 1, minimumLevel, share, shape);
+        divide(quadrants.get(1), x, yy, ww, level - 1, minimumLevel, share, shape);
+        divide(quadrants.get(2), xx, y, ww, level - 1, minimumLevel, share, shape);
+        divide(quadrants.get(3), xx, yy, ww, level - 1, minimumLevel, share, shape);
+    }
+
+    /**
+     * Finds the partition of a location
+     *
+     * @param x the location x
+     * @param y the location y
+     * @return the partition, -1 if the location is outside of the root
+     */
+    public int partition(
+            final double x,
+            final double y)
+    {
+        if (x < m_rootX || y < m_rootY || x > m_rootX + m_rootWidth || y > m_rootY + m_rootWidth)
+        {
+            return -1;
+        }
+        int index = 0;
+        double cx = m_rootX;
+        double cy = m_rootY;
+        double width = m_rootWidth;
+        while (m_shape.charAt(index) == '1')
+        {
+            width *= 0.5;
+            final double xx = cx + width;
+            final double yy = cy + width;
+            int quadrant = 0;
+            if (x >= xx)
+            {
+                quadrant += 2;
+                cx = xx;
+            }
+            if (y >= yy)
+            {
+                quadrant += 1;
+                cy = yy;
+            }
+            index = m_children[4 * index + quadrant];
+        }
+        return m_leaves[index];
+    }
+
+    /**
+     * The number of partitions
+     *
+     * @return
+     */
+    public int count()
+    {
+        return m_count;
+    }
+
+    /**
+     * The top levels
+     *
+     * @return
+     */
+    public String shape()
+    {
+        return m_shape;
+    }
+
+    /**
+     * The cell of a partition, minx, miny and width
+     *
+     * @param partition the partition
+     * @return the cell
+     */
+    public double[] cell(final int partition)
+    {
+        return new double[]{m_cells[3 * partition], m_cells[3 * partition + 1], m_cells[3 * partition + 2]};
+    }
+
+    /**
+     * The level of a partition
+     *
+     * @param partition the partition
+     * @return the level of the root of the partition quad tree
+     */
+    public int level(final int partition)
+    {
+        return m_levels[partition];
+    }
+
+    /**
+     * Writes the partitioning to a job configuration
+     *
+     * @param configuration the configuration
+     */
+    public void write(final Configuration configuration)
+    {
+        configuration.set(SHAPE, m_shape);
+        configuration.set(ROOT, m_rootX + "," + m_rootY + "," + m_rootWidth + "," + m_rootLevel);
+    }
+
+    /**
+     * Reads the partitioning from a job configuration
+     *
+     * @param configuration the configuration
+     * @return the partitioning
+     */
+    public static QuadTreePartitioning read(final Configuration configuration)
+    {
+        final String[] root = configuration.get(ROOT).split(",");
+        return new QuadTreePartitioning(configuration.get(SHAPE), Double.parseDouble(root[0]),
+                Double.parseDouble(root[1]), Double.parseDouble(root[2]), Integer.parseInt(root[3]));
+    }
+}
@@ -0,0 +1,119 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.AddressRange;
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.rtree.PackedNode;
+import com.esri.hadoop.rtree.RTree;
+import com.esri.hadoop.rtree.RTreeIterator;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * RTreeInputFormat splits a rtree by subtree. The rtree does not record the size of a subtree,
+ * the size of a node is shared evenly by its entries, a fair estimate for a bulk loaded rtree with full nodes.
+ */
+public class RTreeInputFormat extends IndexInputFormat
+{
+    @Override
+    protected List<Subtree> partition(
+            final FSDataInputStream index,
+            final long indexLength,
+            final Extent extent,
+            final long splitSize) throws IOException
+    {
+        final RTree rTree = new RTree(index);
+        final List<Subtree> subtrees = new ArrayList<Subtree>();
+        // the largest subtree is split first
+        final PriorityQueue<Subtree> queue = new PriorityQueue<Subtree>(16, new Comparator<Subtree>()
+        {
+            @Override
+            public int compare(
+                    final Subtree a,
+                    final Subtree b)
+            {
+                return a.size > b.size ? -1 : (a.size == b.size ? 0 : 1);
+            }
+        });
+        queue.add(new Subtree(rTree.getRootHandle(), 0.0, 0.0, 0.0, indexLength - rTree.getRootHandle()));
+        while (!queue.isEmpty())
+        {
+            final Subtree subtree = queue.poll();
+            if (subtree.size <= splitSize)
+            {
+                subtrees.add(subtree);
+                continue;
+            }
+            final PackedNode node = rTree.readNode(index, subtree.position);
+            if (node.isLeaf)
+            {
+                // the leaf record, the leaf flag, the entry count and the entries
+                subtrees.add(new Subtree(subtree.position, 0.0, 0.0, 0.0, 5L + 40L * node.size));
+                continue;
+            }
+            final double[] extents = node.extents;
+            for (int i = 0, c = 0; i < node.size; i++, c += 4)
+            {
+                if (extent.xmax >= extents[c] && extent.xmin <= extents[c + 2] &&
+                        extent.ymax >= extents[c + 1] && extent.ymin <= extents[c + 3])
+                {
+                    queue.add(new Subtree(node.handles[i], 0.0, 0.0, 0.0, subtree.size / node.size));
+                }
+            }
+        }
+        return subtrees;
+    }
+
+    @Override
+    protected boolean hasOverflow(final FSDataInputStream index)
+    {
+        return false;
+    }
+
+    @Override
+    protected void locate(
+            final FSDataInputStream index,
+            final List<Subtree> subtrees) throws IOException
+    {
+        final RTree rTree = new RTree(index);
+        for (final Subtree subtree : subtrees)
+        {
+            PackedNode node = rTree.readNode(index, subtree.position);
+            while (!node.isLeaf && node.size > 0)
+            {
+                node = rTree.readNode(index, node.handles[0]);
+            }
+            subtree.firstAddress = node.size > 0 ? node.handles[0] : -1L;
+        }
+    }
+
+    @Override
+    protected long[] searchAddresses(
+            final FSDataInputStream index,
+            final IndexSplit split,
+            final Extent extent) throws IOException
+    {
+        final RTree rTree = new RTree(index);
+        final RTreeIterator iterator = new RTreeIterator(rTree, index, extent);
+        for (final long position : split.positions())
+        {
+            iterator.addNodeHandle(position);
+        }
+        long[] addresses = new long[64];
+        int count = 0;
+        while (iterator.hasNext())
+        {
+            if (count == addresses.length)
+            {
+                addresses = Arrays.copyOf(addresses, count * 2);
+            }
+            addresses[count++] = iterator.next().handle;
+        }
+        return AddressRange.sortDistinct(addresses, count);
+    }
+}
@@ -0,0 +1,43 @@
+package com.esri.hadoop.mapreduce;
+
+/**
+ * A subtree of an index, the unit of work of a split
+ */
+final class Subtree
+{
+    /**
+     * The position of the root node of the subtree in the index
+     */
+    final long position;
+
+    /**
+     * The cell of a quad tree node, minx, miny and width
+     */
+    final double x;
+    final double y;
+    final double width;
+
+    /**
+     * The (estimated) size of the subtree in the index
+     */
+    final long size;
+
+    /**
+     * An address of the data file pointed to by the subtree, -1 if unknown
+     */
+    long firstAddress = -1L;
+
+    Subtree(
+            final long position,
+            final double x,
+            final double y,
+            final double width,
+            final long size)
+    {
+        this.position = position;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.size = size;
+    }
+}
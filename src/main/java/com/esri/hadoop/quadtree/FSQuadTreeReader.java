@@ -1,14 +1,19 @@
 package com.esri.hadoop.quadtree;
 
+import com.esri.hadoop.AddressRange;
 import com.esri.hadoop.Extent;
 import org.apache.hadoop.fs.FSDataInputStream;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * FSQuadTreeReader allows you to search over a stream, create one, search as many times
  * as you like and release when done.
+ * Nodes are read with positional reads and the in memory nodes are never modified by a search,
+ * so one reader can be searched by many threads at once.
  */
 public class FSQuadTreeReader
 {
@@ -26,6 +31,58 @@ public class FSQuadTreeReader
         m_quadTree = new QuadTree(dataInputStream);
     }
 
+    /**
+     * Create a FSQuadTreeReader that keeps the upper levels of the tree in memory.
+     * These nodes are read once and reused by all the searches.
+     *
+     * @param dataInputStream the input data stream.
+     * @param pinnedLevels    the number of levels to keep in memory, the root level included
+     */
+    public FSQuadTreeReader(
+            final FSDataInputStream dataInputStream,
+            final int pinnedLevels) throws IOException
+    {
+        this(dataInputStream, pinnedLevels, Long.MAX_VALUE);
+    }
+
+    /**
+     * Create a FSQuadTreeReader that keeps the upper levels of the tree in memory within a byte budget.
+     * These nodes are read once and reused by all the searches.
+     *
+     * @param dataInputStream the input data stream.
+     * @param pinnedLevels    the maximum number of levels to keep in memory, the root level included
+     * @param maxPinnedBytes  the maximum (approximate) heap size of the pinned nodes
+     */
+    public FSQuadTreeReader(
+            final FSDataInputStream dataInputStream,
+            final int pinnedLevels,
+            final long maxPinnedBytes) throws IOException
+    {
+        m_dataInputStream = dataInputStream;
+        m_quadTree = new QuadTree(dataInputStream);
+        m_quadTree.pin(dataInputStream, pinnedLevels, maxPinnedBytes);
+    }
+
+    /**
+     * Retrieves the quad tree
+     *
+     * @return the quad tree read from the stream header
+     */
+    public QuadTree getQuadTree()
+    {
+        return m_quadTree;
+    }
+
+    /**
+     * Retrieves the input stream
+     *
+     * @return the input data stream
+     */
+    public FSDataInputStream getDataInputStream()
+    {
+        return m_dataInputStream;
+    }
+
     /**
      * Performs a extent search over the entire quad tree and then executes the method
      * evaluateFunction(PointData) on all data in the extent (contained or touch)
@@ -42,6 +99,82 @@ public class FSQuadTreeReader
         return m_quadTree.search(m_dataInputStream, extent);
     }
 
+    /**
+     * Performs a extent search over the entire quad tree and returns the addresses of the points in the extent
+     * (contained or touch) sorted and without duplicates, so the data file can be read in one forward pass.
+     *
+     * @param extent the extent
+     * @return the sorted distinct addresses
+     * @throws IOException
+     */
+    public long[] searchAddresses(final Extent extent) throws IOException
+    {
+        long[] addresses = new long[64];
+        int count = 0;
+        final Iterator<PointData> iterator = search(extent);
+        while (iterator.hasNext())
+        {
+            if (count == addresses.length)
+            {
+                addresses = Arrays.copyOf(addresses, count * 2);
+            }
+            addresses[count++] = iterator.next().address;
+        }
+        return AddressRange.sortDistinct(addresses, count);
+    }
+
+    /**
+     * Performs a extent search over the entire quad tree and groups the sorted addresses of the points
+     * in the extent into ranges of the data file, each range is read with AddressRange.read
+     *
+     * @param extent        the extent
+     * @param maxGap        the largest number of unused bytes read between two records of a range
+     * @param maxRecordSize the maximum size of a record of the data file
+     * @param maxRangeSize  the maximum size of a range, at least maxRecordSize
+     * @return the ranges, in address order
+     * @throws IOException
+     */
+    public List<AddressRange> searchRanges(
+            final Extent extent,
+            final long maxGap,
+            final int maxRecordSize,
+            final int maxRangeSize) throws IOException
+    {
+        return AddressRange.group(searchAddresses(extent), maxGap, maxRecordSize, maxRangeSize);
+    }
+
+    /**
+     * Searches many extents at once, the tree is traversed once and a node is only read
+     * if it intersects at least one of the extents.
+     * Executes evaluateFunction(query, PointData) on all data in each extent (contained or touch)
+     *
+     * @param extents          the extents
+     * @param evaluateFunction the callback, with the index of the extent in the list
+     */
+    public void search(
+            final List<Extent> extents,
+            final IBatchEvaluateFunction evaluateFunction) throws IOException
+    {
+        m_quadTree.search(m_dataInputStream, extents, evaluateFunction);
+    }
+
+    /**
+     * Searches the points nearest to a location, the iterator returns the nearest first
+     * and only reads the nodes needed to return the next point.
+     *
+     * @param x the location x
+     * @param y the location y
+     * @param k the maximum number of points to return
+     * @return the iterator
+     */
+    public Iterator<PointData> nearest(
+            final double x,
+            final double y,
+            final int k)
+    {
+        return m_quadTree.nearest(m_dataInputStream, x, y, k);
+    }
+
     /**
      * Depth first search
      *
@@ -53,4 +186,15 @@ public class FSQuadTreeReader
         m_quadTree.depthSearchFirst(m_dataInputStream, nodeFunction);
     }
 
+    /**
+     * Reads the whole index and checks it against its checksums.
+     * The header and the presence of the whole index are checked when the reader is created.
+     *
+     * @return false if the index was written without checksums
+     * @throws org.apache.hadoop.fs.ChecksumException if the index is corrupt
+     */
+    public boolean verify() throws IOException
+    {
+        return m_quadTree.verify(m_dataInputStream);
+    }
 }
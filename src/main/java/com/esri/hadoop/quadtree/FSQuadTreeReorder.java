@@ -0,0 +1,94 @@
+package com.esri.hadoop.quadtree;
+
+import com.esri.hadoop.IRecordReader;
+import com.esri.hadoop.RecordCopier;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+
+import java.io.IOException;
+
+/**
+ * FSQuadTreeReorder rewrites a data file in the order of the leaves of its quad tree, and writes the quad tree of
+ * the new data file. The leaves are in Z order, so the points of a search are then close together in the data file
+ * and are read with a few near sequential reads rather than seeks all over a time ordered file.
+ */
+public class FSQuadTreeReorder
+{
+    private final FSQuadTreeReader m_reader;
+    private final FSDataInputStream m_dataInputStream;
+    private final IRecordReader m_recordReader;
+
+    /**
+     * Create a FSQuadTreeReorder
+     *
+     * @param reader          the quad tree of the data file
+     * @param dataInputStream the data file
+     * @param recordReader    the reader of the records of the data file
+     */
+    public FSQuadTreeReorder(
+            final FSQuadTreeReader reader,
+            final FSDataInputStream dataInputStream,
+            final IRecordReader recordReader)
+    {
+        m_reader = reader;
+        m_dataInputStream = dataInputStream;
+        m_recordReader = recordReader;
+    }
+
+    /**
+     * Copies the records to the new data file in leaf order then the records of the points outside of the root,
+     * and writes the quad tree with the new addresses, with the same root, levels, bucket size and format.
+     * The index stream is closed, the data stream is not.
+     *
+     * @param dataOutputStream  the new data file
+     * @param indexOutputStream the new quad tree
+     * @throws IOException
+     */
+    public void reorder(
+            final FSDataOutputStream dataOutputStream,
+            final FSDataOutputStream indexOutputStream) throws IOException
+    {
+        final QuadTree source = m_reader.getQuadTree();
+        final QuadTree quadTree = new QuadTree(source.bucketSize(), source.rootLevel(), source.minimumLevel(),
+                source.maximumLevel(), source.rootWidth(), source.rootMin());
+        quadTree.setFormat(source.format());
+        quadTree.setLayout(source.layout());
+        try
+        {
+            final RecordCopier copier = new RecordCopier(m_dataInputStream, m_recordReader, dataOutputStream);
+            reorder(source.root(), copier, quadTree);
+            for (final PointData pt : source.overflow())
+            {
+                quadTree.addPointData(new PointData(pt.x, pt.y, copier.copy(pt.address)));
+            }
+            quadTree.write(indexOutputStream);
+        }
+        finally
+        {
+            quadTree.release();
+            indexOutputStream.close();
+        }
+    }
+
+    private void reorder(
+            final QuadTreeNode node,
+            final RecordCopier copier,
+            final QuadTree quadTree) throws IOException
+    {
+        final QuadTreeNode[] children = node.loadChildren(m_reader.getDataInputStream());
+        if (children == null)
+        {
+            for (final PointData pt : node.getData())
+            {
+                quadTree.addPointData(new PointData(pt.x, pt.y, copier.copy(pt.address)));
+            }
+        }
+        else
+        {
+            for (final QuadTreeNode child : children)
+            {
+                reorder(child, copier, quadTree);
+            }
+        }
+    }
+}
@@ -5,6 +5,9 @@ import org.apache.hadoop.fs.FSDataOutputStream;
 
 import java.awt.geom.Point2D;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * FSQuadTreeWriter allows you to write a quad tree to a stream, thus enabling you to spatially index.
@@ -30,10 +33,52 @@ public class FSQuadTreeWriter
             final FSDataOutputStream stream,
             final int bucketSize,
             final Extent fullExtent)
+    {
+        this(stream, bucketSize, fullExtent, QuadTree.FORMAT_ROWS);
+    }
+
+    /**
+     * Create a FSQuadTreeWriter that writes the nodes in a given format.
+     * QuadTree.FORMAT_COLUMNS makes a much smaller index, the coordinates of the points read back are then
+     * within a 2^-33 fraction of the width of their leaf cell of the original coordinates.
+     *
+     * @param stream     the output stream
+     * @param bucketSize the bucket size (suggested value 32 for now)
+     * @param fullExtent the best extent you can figure out (it will automatically widen)
+     * @param format     QuadTree.FORMAT_ROWS or QuadTree.FORMAT_COLUMNS
+     */
+    public FSQuadTreeWriter(
+            final FSDataOutputStream stream,
+            final int bucketSize,
+            final Extent fullExtent,
+            final int format)
+    {
+        this(stream, bucketSize, fullExtent, format, QuadTree.LAYOUT_DEPTH_FIRST);
+    }
+
+    /**
+     * Create a FSQuadTreeWriter that writes the nodes in a given format and layout.
+     * QuadTree.LAYOUT_Z_ORDER writes all the leaves contiguously in Z-order after the inner nodes,
+     * so the leaves of a subtree in a searched extent are read with a single large read.
+     *
+     * @param stream     the output stream
+     * @param bucketSize the bucket size (suggested value 32 for now)
+     * @param fullExtent the best extent you can figure out (it will automatically widen)
+     * @param format     QuadTree.FORMAT_ROWS or QuadTree.FORMAT_COLUMNS
+     * @param layout     QuadTree.LAYOUT_DEPTH_FIRST or QuadTree.LAYOUT_Z_ORDER
+     */
+    public FSQuadTreeWriter(
+            final FSDataOutputStream stream,
+            final int bucketSize,
+            final Extent fullExtent,
+            final int format,
+            final int layout)
     {
         m_stream = stream;
         m_quadTree = new QuadTree(bucketSize, START_LEVEL, MINIMUM_LEVEL, MAXIMUM_LEVEL,
                 fullExtent.width(), new Point2D.Double(fullExtent.xmin, fullExtent.ymin));
+        m_quadTree.setFormat(format);
+        m_quadTree.setLayout(layout);
     }
 
     /**
@@ -46,6 +91,30 @@ public class FSQuadTreeWriter
         m_quadTree.addPointData(pointData);
     }
 
+    /**
+     * Add a list of points, the subtrees are built by a number of threads.
+     * The index is the same as the one written after adding the points one at a time in the list order.
+     *
+     * @param list    the points
+     * @param threads the number of threads
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public void addPointData(
+            final List<PointData> list,
+            final int threads) throws InterruptedException
+    {
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try
+        {
+            // many more tasks than threads even out the skew of the points
+            m_quadTree.addPointData(list, executorService, list.size() / (16 * threads));
+        }
+        finally
+        {
+            executorService.shutdownNow();
+        }
+    }
+
     /**
      * Done adding points; write then, shut down and release
      */
@@ -0,0 +1,97 @@
+package com.esri.hadoop.quadtree;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.MappedInputStream;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * MappedQuadTreeReader searches a quad tree file on the local file system mapped in memory.
+ * The nodes are decoded straight from the mapped pages, there is no stream, no copy and no decoded node.
+ * One reader can be searched by many threads at once.
+ */
+public class MappedQuadTreeReader
+{
+    private final MappedInputStream m_input;
+    private final QuadTree m_quadTree;
+
+    /**
+     * Create a MappedQuadTreeReader
+     *
+     * @param file the local quad tree file
+     */
+    public MappedQuadTreeReader(final File file) throws IOException
+    {
+        this(new MappedInputStream(file));
+    }
+
+    /**
+     * Create a MappedQuadTreeReader
+     *
+     * @param input the mapped quad tree file
+     */
+    public MappedQuadTreeReader(final MappedInputStream input) throws IOException
+    {
+        m_input = input;
+        m_quadTree = new QuadTree(new FSDataInputStream(input));
+    }
+
+    /**
+     * Performs a extent search over the entire quad tree and then executes the method
+     * evaluateFunction(PointData) on all data in the extent (contained or touch)
+     */
+    public void search(
+            final Extent extent,
+            final IEvaluateFunction evaluateFunction)
+    {
+        final Iterator<PointData> iterator = search(extent);
+        while (iterator.hasNext())
+        {
+            evaluateFunction.evaluate(iterator.next());
+        }
+    }
+
+    public Iterator<PointData> search(final Extent extent)
+    {
+        final MappedSearchIterator iterator = new MappedSearchIterator(m_input, extent, searchOverflow(extent),
+                m_quadTree.format(), m_quadTree.layout());
+        iterator.addChild(m_quadTree.rootPosition(), m_quadTree.rootMin().x, m_quadTree.rootMin().y, m_quadTree.rootWidth());
+        return iterator;
+    }
+
+    private List<PointData> searchOverflow(final Extent extent)
+    {
+        final List<PointData> overflow = m_quadTree.overflow();
+        if (overflow.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        final List<PointData> list = new ArrayList<PointData>();
+        for (final PointData pt : overflow)
+        {
+            if (extent.containsPoint(pt.x, pt.y))
+            {
+                list.add(pt);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Reads the whole index and checks it against its checksums.
+     * The header and the presence of the whole index are checked when the reader is created.
+     *
+     * @return false if the index was written without checksums
+     * @throws org.apache.hadoop.fs.ChecksumException if the index is corrupt
+     */
+    public boolean verify() throws IOException
+    {
+        return m_quadTree.verify(m_input);
+    }
+}
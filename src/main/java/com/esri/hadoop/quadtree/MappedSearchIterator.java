@@ -0,0 +1,269 @@
+package com.esri.hadoop.quadtree;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.MappedInputStream;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Searches a memory mapped quad tree.
+ * The nodes are decoded straight from the mapped file and the pending nodes are kept in primitive arrays,
+ * the only allocation is the PointData returned by next().
+ */
+public class MappedSearchIterator implements Iterator<PointData>
+{
+    private final MappedInputStream m_input;
+    private final Extent m_extent;
+    private final boolean m_columns;
+    private final boolean m_zOrder;
+    private final List<PointData> m_overflow;
+    private int m_overflowIndex;
+
+    //the pending nodes
+    private long[] m_positions = new long[64];
+    private double[] m_xs = new double[64];
+    private double[] m_ys = new double[64];
+    private double[] m_widths = new double[64];
+    private int m_size;
+
+    //the positions of the children of the inner node being visited
+    private final long[] m_children = new long[4];
+
+    //the leaf being scanned
+    private long m_leafPosition;
+    private int m_leafSize;
+    private int m_leafIndex;
+    private boolean m_leafContained;
+
+    //the cell of the leaf being scanned and the address cursor, for the columnar format
+    private double m_leafX;
+    private double m_leafY;
+    private double m_leafWidth;
+    private long m_addressPosition;
+    private long m_leafAddress;
+
+    //the next point
+    private boolean m_ready;
+    private double m_x;
+    private double m_y;
+    private long m_address;
+
+    /**
+     * Construct a search iterator
+     *
+     * @param input    the mapped quad tree file
+     * @param extent   the extent being searched
+     * @param overflow the overflow points in the extent
+     * @param format   the format of the nodes, QuadTree.FORMAT_ROWS or QuadTree.FORMAT_COLUMNS
+     */
+    public MappedSearchIterator(
+            final MappedInputStream input,
+            final Extent extent,
+            final List<PointData> overflow,
+            final int format)
+    {
+        this(input, extent, overflow, format, QuadTree.LAYOUT_DEPTH_FIRST);
+    }
+
+    /**
+     * Construct a search iterator
+     *
+     * @param input    the mapped quad tree file
+     * @param extent   the extent being searched
+     * @param overflow the overflow points in the extent
+     * @param format   the format of the nodes, QuadTree.FORMAT_ROWS or QuadTree.FORMAT_COLUMNS
+     * @param layout   the layout of the nodes, QuadTree.LAYOUT_DEPTH_FIRST or QuadTree.LAYOUT_Z_ORDER
+     */
+    public MappedSearchIterator(
+            final MappedInputStream input,
+            final Extent extent,
+            final List<PointData> overflow,
+            final int format,
+            final int layout)
+    {
+        m_input = input;
+        m_extent = extent;
+        m_columns = format == QuadTree.FORMAT_COLUMNS;
+        m_zOrder = layout == QuadTree.LAYOUT_Z_ORDER;
+        m_overflow = overflow;
+    }
+
+    /**
+     * Add a node to the iterator
+     *
+     * @param position the position of the node in the file
+     * @param x        the node minx
+     * @param y        the node miny
+     * @param width    the node width
+     */
+    public void addChild(
+            final long position,
+            final double x,
+            final double y,
+            final double width)
+    {
+        if (m_size == m_positions.length)
+        {
+            final int length = m_size * 2;
+            m_positions = Arrays.copyOf(m_positions, length);
+            m_xs = Arrays.copyOf(m_xs, length);
+            m_ys = Arrays.copyOf(m_ys, length);
+            m_widths = Arrays.copyOf(m_widths, length);
+        }
+        m_positions[m_size] = position;
+        m_xs[m_size] = x;
+        m_ys[m_size] = y;
+        m_widths[m_size] = width;
+        m_size++;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (m_ready || m_overflowIndex < m_overflow.size())
+        {
+            return true;
+        }
+        while (true)
+        {
+            while (m_leafIndex < m_leafSize)
+            {
+                final double x;
+                final double y;
+                final long address;
+                if (m_columns)
+                {
+                    final long position = m_leafPosition + 4L * m_leafIndex++;
+                    x = QuadTreeNode.dequantize(m_input.getInt(position), m_leafX, m_leafWidth);
+                    y = QuadTreeNode.dequantize(m_input.getInt(position + 4L * m_leafSize), m_leafY, m_leafWidth);
+                    address = m_leafAddress += readVarLong();
+                }
+                else
+                {
+                    final long position = m_leafPosition + 24L * m_leafIndex++;
+                    x = m_input.getDouble(position);
+                    y = m_input.getDouble(position + 8);
+                    address = m_input.getLong(position + 16);
+                }
+                if (m_leafContained || m_extent.containsPoint(x, y))
+                {
+                    m_x = x;
+                    m_y = y;
+                    m_address = address;
+                    m_ready = true;
+                    return true;
+                }
+            }
+            if (m_size == 0)
+            {
+                return false;
+            }
+            m_size--;
+            visit(m_positions[m_size], m_xs[m_size], m_ys[m_size], m_widths[m_size]);
+        }
+    }
+
+    /**
+     * Visits a node, a leaf becomes the leaf being scanned and the children of an inner node are pushed.
+     * Nodes are laid out as the int data size, the data, the has children flag and the subtree sizes
+     * of the children, each child is immediately followed by its own subtree.
+     * In the Z-order layout the flag is followed by the position of the first leaf, the directory sizes
+     * and the leaf sizes of the children, the inner children are in the directory and the leaves after it.
+     */
+    private void visit(
+            final long position,
+            final double x,
+            final double y,
+            final double width)
+    {
+        final Extent extent = m_extent;
+        if (extent.xmin < x + width && extent.xmax >= x && extent.ymax >= y && extent.ymin < y + width)
+        {
+            final int dataSize = m_input.getInt(position);
+            final boolean columns = m_columns && dataSize > 0;
+            final long flagPosition = columns ? position + 8 + m_input.getInt(position + 4) : position + 4 + 24L * dataSize;
+            if (m_input.get(flagPosition) != 0 && m_zOrder)
+            {
+                final long end = flagPosition + QuadTreeNode.DIRECTORY_RECORD_SIZE - 4;
+                long directory = end;
+                long leaf = end + m_input.getLong(flagPosition + 1);
+                final double ww = width * 0.5;
+                for (int i = 0; i < 4; i++)
+                {
+                    final long directorySize = m_input.getLong(flagPosition + 9 + 8 * i);
+                    m_children[i] = directorySize == 0 ? leaf : directory;
+                    directory += directorySize;
+                    leaf += m_input.getLong(flagPosition + 41 + 8 * i);
+                }
+                addChild(m_children[3], x + ww, y + ww, ww);
+                addChild(m_children[2], x + ww, y, ww);
+                addChild(m_children[1], x, y + ww, ww);
+                addChild(m_children[0], x, y, ww);
+            }
+            else if (m_input.get(flagPosition) != 0)
+            {
+                final long child0 = flagPosition + 33;
+                final long child1 = child0 + m_input.getLong(flagPosition + 1);
+                final long child2 = child1 + m_input.getLong(flagPosition + 9);
+                final long child3 = child2 + m_input.getLong(flagPosition + 17);
+                final double ww = width * 0.5;
+                addChild(child3, x + ww, y + ww, ww);
+                addChild(child2, x + ww, y, ww);
+                addChild(child1, x, y + ww, ww);
+                addChild(child0, x, y, ww);
+            }
+            else
+            {
+                // the x column then the y column then the address deltas for the columnar format
+                m_leafPosition = columns ? position + 8 : position + 4;
+                m_leafX = x;
+                m_leafY = y;
+                m_leafWidth = width;
+                m_addressPosition = m_leafPosition + 8L * dataSize;
+                m_leafAddress = 0L;
+                m_leafSize = dataSize;
+                m_leafIndex = 0;
+                m_leafContained = extent.xmin <= x && extent.ymin <= y && extent.xmax > x + width && extent.ymax > y + width;
+            }
+        }
+    }
+
+    private long readVarLong()
+    {
+        long value = 0L;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = m_input.get(m_addressPosition++);
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+        return value;
+    }
+
+    @Override
+    public PointData next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        if (m_overflowIndex < m_overflow.size())
+        {
+            return m_overflow.get(m_overflowIndex++);
+        }
+        m_ready = false;
+        return new PointData(m_x, m_y, m_address);
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("remove");
+    }
+}
@@ -0,0 +1,161 @@
+package com.esri.hadoop.quadtree;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * NearestIterator returns the points nearest to a location first.
+ * This is a best first search, the nodes and the points are kept in a priority queue ordered by their distance
+ * to the location, a node is only read when it is closer than all the pending points.
+ * A node that cannot be read makes hasNext throw a RuntimeException caused by the IOException.
+ */
+public class NearestIterator implements Iterator<PointData>
+{
+    private final FSDataInputStream m_dataInputStream;
+    private final double m_x;
+    private final double m_y;
+    private final PriorityQueue<Entry> m_queue;
+    private int m_remaining;
+
+    /**
+     * Construct a nearest iterator
+     *
+     * @param dataInputStream the input dataInputStream
+     * @param x               the location x
+     * @param y               the location y
+     * @param k               the maximum number of points to return
+     */
+    public NearestIterator(
+            final FSDataInputStream dataInputStream,
+            final double x,
+            final double y,
+            final int k)
+    {
+        m_dataInputStream = dataInputStream;
+        m_x = x;
+        m_y = y;
+        m_remaining = k;
+        m_queue = new PriorityQueue<Entry>();
+    }
+
+    /**
+     * Add a point to the iterator
+     *
+     * @param point the point
+     */
+    public void addPoint(final PointData point)
+    {
+        final double dx = point.x - m_x;
+        final double dy = point.y - m_y;
+        m_queue.add(new Entry(dx * dx + dy * dy, point, null, 0.0, 0.0, 0.0));
+    }
+
+    /**
+     * Add a node to the iterator
+     *
+     * @param node  the quad tree node
+     * @param x     the node minx
+     * @param y     the node miny
+     * @param width the node width
+     */
+    public void addChild(
+            final QuadTreeNode node,
+            final double x,
+            final double y,
+            final double width)
+    {
+        final double dx = Math.max(0.0, Math.max(x - m_x, m_x - x - width));
+        final double dy = Math.max(0.0, Math.max(y - m_y, m_y - y - width));
+        m_queue.add(new Entry(dx * dx + dy * dy, null, node, x, y, width));
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (m_remaining <= 0)
+        {
+            return false;
+        }
+        while (!m_queue.isEmpty() && m_queue.peek().point == null)
+        {
+            final Entry entry = m_queue.poll();
+            try
+            {
+                final QuadTreeNode[] children = entry.node.loadChildren(m_dataInputStream);
+                for (final PointData pt : entry.node.getData())
+                {
+                    addPoint(pt);
+                }
+                if (children != null)
+                {
+                    final double ww = entry.width * 0.5;
+                    addChild(children[0], entry.x, entry.y, ww);
+                    addChild(children[1], entry.x, entry.y + ww, ww);
+                    addChild(children[2], entry.x + ww, entry.y, ww);
+                    addChild(children[3], entry.x + ww, entry.y + ww, ww);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+        return !m_queue.isEmpty();
+    }
+
+    @Override
+    public PointData next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        m_remaining--;
+        return m_queue.poll().point;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * A point or a node, with its squared distance to the location
+     */
+    private static final class Entry implements Comparable<Entry>
+    {
+        private final double distance;
+        private final PointData point;
+        private final QuadTreeNode node;
+        private final double x;
+        private final double y;
+        private final double width;
+
+        private Entry(
+                final double distance,
+                final PointData point,
+                final QuadTreeNode node,
+                final double x,
+                final double y,
+                final double width)
+        {
+            this.distance = distance;
+            this.point = point;
+            this.node = node;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+        }
+
+        @Override
+        public int compareTo(final Entry that)
+        {
+            return Double.compare(distance, that.distance);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.esri.hadoop.quadtree;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * PointDataList holds the points of a quad tree node in growable primitive arrays rather than in point objects.
+ * A point takes 24 bytes instead of a point object and its reference, the arrays grow by half their size.
+ * The points returned by get are new copies, a change to them is not reflected in the list, use set instead.
+ */
+public class PointDataList extends AbstractList<PointData> implements RandomAccess
+{
+    private static final double[] EMPTY_XY = new double[0];
+    private static final long[] EMPTY_ADDRESSES = new long[0];
+
+    private double[] m_xy = EMPTY_XY;
+    private long[] m_addresses = EMPTY_ADDRESSES;
+    private int m_size;
+
+    /**
+     * Creates an empty list
+     */
+    public PointDataList()
+    {
+    }
+
+    /**
+     * Creates a list with the points of a collection
+     *
+     * @param collection the points
+     */
+    public PointDataList(final Collection<PointData> collection)
+    {
+        ensureCapacity(collection.size());
+        for (final PointData pointData : collection)
+        {
+            add(pointData.x, pointData.y, pointData.address);
+        }
+    }
+
+    private void ensureCapacity(final int capacity)
+    {
+        if (capacity > m_addresses.length)
+        {
+            final int length = Math.max(capacity, Math.max(4, m_addresses.length + (m_addresses.length >> 1)));
+            m_xy = Arrays.copyOf(m_xy, 2 * length);
+            m_addresses = Arrays.copyOf(m_addresses, length);
+        }
+    }
+
+    /**
+     * Appends a point
+     *
+     * @param x       the x value
+     * @param y       the y value
+     * @param address the handle
+     */
+    public void add(
+            final double x,
+            final double y,
+            final long address)
+    {
+        ensureCapacity(m_size + 1);
+        m_xy[2 * m_size] = x;
+        m_xy[2 * m_size + 1] = y;
+        m_addresses[m_size] = address;
+        m_size++;
+        modCount++;
+    }
+
+    @Override
+    public boolean add(final PointData pointData)
+    {
+        add(pointData.x, pointData.y, pointData.address);
+        return true;
+    }
+
+    /**
+     * The x value of a point
+     */
+    public double x(final int index)
+    {
+        return m_xy[2 * checkIndex(index)];
+    }
+
+    /**
+     * The y value of a point
+     */
+    public double y(final int index)
+    {
+        return m_xy[2 * checkIndex(index) + 1];
+    }
+
+    /**
+     * The handle of a point
+     */
+    public long address(final int index)
+    {
+        return m_addresses[checkIndex(index)];
+    }
+
+    private int checkIndex(final int index)
+    {
+        if (index < 0 || index >= m_size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + m_size);
+        }
+        return index;
+    }
+
+    @Override
+    public PointData get(final int index)
+    {
+        checkIndex(index);
+        return new PointData(m_xy[2 * index], m_xy[2 * index + 1], m_addresses[index]);
+    }
+
+    @Override
+    public PointData set(
+            final int index,
+            final PointData pointData)
+    {
+        final PointData previous = get(index);
+        m_xy[2 * index] = pointData.x;
+        m_xy[2 * index + 1] = pointData.y;
+        m_addresses[index] = pointData.address;
+        return previous;
+    }
+
+    @Override
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Sorts the points by address on the primitive arrays, without point objects.
+     * The sort is stable, points with the same address keep their order.
+     */
+    public void sortByAddress()
+    {
+        final int[] order = new int[m_size];
+        for (int i = 0; i < m_size; i++)
+        {
+            order[i] = i;
+        }
+        mergeSort(order, new int[m_size], 0, m_size);
+        final double[] xy = new double[m_xy.length];
+        final long[] addresses = new long[m_addresses.length];
+        for (int i = 0; i < m_size; i++)
+        {
+            xy[2 * i] = m_xy[2 * order[i]];
+            xy[2 * i + 1] = m_xy[2 * order[i] + 1];
+            addresses[i] = m_addresses[order[i]];
+        }
+        m_xy = xy;
+        m_addresses = addresses;
+        modCount++;
+    }
+
+    /**
+     * Sorts a range of point indexes by address
+     */
+    private void mergeSort(
+            final int[] order,
+            final int[] buffer,
+            final int from,
+            final int to)
+    {
+        if (to - from < 2)
+        {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        mergeSort(order, buffer, from, middle);
+        mergeSort(order, buffer, middle, to);
+        if (m_addresses[order[middle - 1]] <= m_addresses[order[middle]])
+        {
+            // already in order, the usual case of points added by ascending address
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        for (int i = from, a = from, b = middle; i < to; i++)
+        {
+            if (b == to || (a < middle && m_addresses[buffer[a]] <= m_addresses[buffer[b]]))
+            {
+                order[i] = buffer[a++];
+            }
+            else
+            {
+                order[i] = buffer[b++];
+            }
+        }
+    }
+
+    /**
+     * Removes all the points and releases the arrays
+     */
+    @Override
+    public void clear()
+    {
+        m_xy = EMPTY_XY;
+        m_addresses = EMPTY_ADDRESSES;
+        m_size = 0;
+        modCount++;
+    }
+}
@@ -1,20 +1,74 @@
 package com.esri.hadoop.quadtree;
 
+import com.esri.hadoop.ChecksumOutputStream;
+import com.esri.hadoop.Checksums;
 import com.esri.hadoop.Extent;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PositionedReadable;
 
 import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Quad tree that can grow up and down.
  */
 public class QuadTree
 {
+    /**
+     * The first int of a versioned quad tree file, the first int of the original format is the bucket size
+     */
+    public static final int MAGIC = 0x46535154;
+
+    /**
+     * The version of the header written by this implementation, it follows the magic number and is followed by
+     * the format of the nodes, then the original header, the body length, the block size and the header checksum.
+     * The body is followed by the block checksums, see Checksums.
+     * Version 2 is FORMAT_COLUMNS without checksums, files without magic number are FORMAT_ROWS without checksums.
+     */
+    public static final int VERSION = 3;
+
+    /**
+     * The version of the header of a quad tree written in a layout other than LAYOUT_DEPTH_FIRST,
+     * it is the version 3 header with the layout following the format.
+     */
+    public static final int VERSION_LAYOUT = 4;
+
+    /**
+     * The original node format, each point is written as x, y and address
+     */
+    public static final int FORMAT_ROWS = 1;
+
+    /**
+     * Points are written in columns, the x and y are quantized to 32 bits within the cell of their node
+     * and the addresses are sorted and written as variable length deltas
+     */
+    public static final int FORMAT_COLUMNS = 2;
+
+    /**
+     * The original node layout, each node is followed by the subtrees of its children
+     */
+    public static final int LAYOUT_DEPTH_FIRST = 1;
+
+    /**
+     * The inner nodes are written first in depth first order, then all the leaves in Z-order.
+     * An inner node has the position of its first leaf and the directory and leaf sizes of its children,
+     * so the leaves of a subtree are one contiguous range that is read with a single large read.
+     */
+    public static final int LAYOUT_Z_ORDER = 2;
+
     //the root node
     private QuadTreeNode m_root;
 
@@ -42,6 +96,22 @@ public class QuadTree
     //the overflow
     private List<PointData> m_overflow = new ArrayList<PointData>();
 
+    //the position of the root node in the stream
+    private long m_rootPosition;
+
+    //the format of the nodes
+    private int m_format = FORMAT_ROWS;
+
+    //the layout of the nodes
+    private int m_layout = LAYOUT_DEPTH_FIRST;
+
+    //the sizes of the nodes are calculated by the tasks of a parallel add, they are not calculated again on write
+    private boolean m_sized;
+
+    //the body length and block size of a checksummed file, the block size is 0 without checksums
+    private long m_bodyLength;
+    private int m_blockSize;
+
     public void release()
     {
         m_root.clear();
@@ -56,7 +126,34 @@ public class QuadTree
      */
     public QuadTree(final FSDataInputStream dataInputStream) throws IOException
     {
-        m_bucketSize = dataInputStream.readInt();
+        final long start = dataInputStream.getPos();
+        final int first = dataInputStream.readInt();
+        int version = 0;
+        if (first == MAGIC)
+        {
+            version = dataInputStream.readInt();
+            if (version == VERSION || version == VERSION_LAYOUT)
+            {
+                m_format = dataInputStream.readInt();
+                if (version == VERSION_LAYOUT)
+                {
+                    m_layout = dataInputStream.readInt();
+                }
+            }
+            else if (version == FORMAT_COLUMNS)
+            {
+                m_format = FORMAT_COLUMNS;
+            }
+            else
+            {
+                throw new IOException("Unsupported quad tree version " + version);
+            }
+            m_bucketSize = dataInputStream.readInt();
+        }
+        else
+        {
+            m_bucketSize = first;
+        }
         m_rootLevel = dataInputStream.readInt();
         m_maximumLevel = dataInputStream.readInt();
         m_minimumLevel = dataInputStream.readInt();
@@ -79,8 +176,71 @@ public class QuadTree
             m_overflow.add(new PointData(x, y, address));
         }
 
+        if (version == VERSION || version == VERSION_LAYOUT)
+        {
+            m_bodyLength = dataInputStream.readLong();
+            m_blockSize = dataInputStream.readInt();
+            Checksums.verifyHeader(dataInputStream, start);
+        }
+        m_rootPosition = dataInputStream.getPos();
+        if (m_blockSize > 0)
+        {
+            Checksums.readTrailer(dataInputStream, m_rootPosition, m_bodyLength, m_blockSize);
+        }
         m_root = new QuadTreeNode();
-        m_root.read(dataInputStream);
+        m_root.read(dataInputStream, m_rootPosition, m_format, m_layout, m_rootMin.x, m_rootMin.y, m_rootWidth);
+    }
+
+    /**
+     * Reads and keeps in memory the upper levels of the tree, so searches do not read them again.
+     * The levels are loaded breadth first, the four children of a node are pinned all together or not at all.
+     * This must be done before searching, as pinning modifies the shared nodes.
+     *
+     * @param stream   the input stream
+     * @param levels   the number of levels to pin, the root level included
+     * @param maxBytes the maximum (approximate) heap size of the pinned nodes
+     * @return the approximate heap size of the pinned nodes
+     * @throws IOException
+     */
+    public long pin(
+            final FSDataInputStream stream,
+            final int levels,
+            final long maxBytes) throws IOException
+    {
+        long bytes = m_root.heapSize();
+        List<QuadTreeNode> level = new ArrayList<QuadTreeNode>();
+        level.add(m_root);
+        for (int l = 1; l < levels && !level.isEmpty(); l++)
+        {
+            final List<QuadTreeNode> next = new ArrayList<QuadTreeNode>();
+            for (final QuadTreeNode node : level)
+            {
+                if (!node.hasChildren())
+                {
+                    continue;
+                }
+                final QuadTreeNode[] children = node.loadChildren(stream);
+                long childBytes = 0;
+                for (final QuadTreeNode child : children)
+                {
+                    childBytes += child.heapSize();
+                }
+                if (bytes + childBytes > maxBytes)
+                {
+                    return bytes;
+                }
+                bytes += childBytes;
+                // a pinned node must not keep a whole batch read region reachable
+                for (final QuadTreeNode child : children)
+                {
+                    child.releaseReadBuffers();
+                }
+                node.setChildren(children);
+                next.addAll(Arrays.asList(children));
+            }
+            level = next;
+        }
+        return bytes;
     }
 
     /**
@@ -91,31 +251,225 @@ public class QuadTree
      */
     public void write(final FSDataOutputStream dataOutputStream) throws IOException
     {
-        m_root.calculateTotalRecordSize();
+        if (!m_sized)
+        {
+            m_root.calculateTotalRecordSize(m_format);
+        }
+        final long directorySize = m_root.directorySize();
+        writeHeader(dataOutputStream, m_layout, m_layout == LAYOUT_Z_ORDER ?
+                directorySize + m_root.leafSize() : m_root.totalRecordSize());
+
+        //root node
 
-        dataOutputStream.writeInt(m_bucketSize);
-        dataOutputStream.writeInt(m_rootLevel);
-        dataOutputStream.writeInt(m_maximumLevel);
-        dataOutputStream.writeInt(m_minimumLevel);
-        dataOutputStream.writeDouble(m_rootWidth);
+        final ChecksumOutputStream body = new ChecksumOutputStream(dataOutputStream, Checksums.BLOCK_SIZE);
+        final FSDataOutputStream output = new FSDataOutputStream(body, null, dataOutputStream.getPos());
+        if (m_layout == LAYOUT_Z_ORDER)
+        {
+            m_root.writeDirectory(output, 0L, directorySize);
+            m_root.writeLeaves(output, m_rootMin.x, m_rootMin.y, m_rootWidth);
+        }
+        else
+        {
+            m_root.write(output, m_rootMin.x, m_rootMin.y, m_rootWidth);
+        }
+        body.finish();
+    }
+
+    /**
+     * Writes the header, the body follows
+     */
+    private void writeHeader(
+            final FSDataOutputStream dataOutputStream,
+            final int layout,
+            final long bodyLength) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(layout == LAYOUT_DEPTH_FIRST ? VERSION : VERSION_LAYOUT);
+        header.writeInt(m_format);
+        if (layout != LAYOUT_DEPTH_FIRST)
+        {
+            header.writeInt(layout);
+        }
+        header.writeInt(m_bucketSize);
+        header.writeInt(m_rootLevel);
+        header.writeInt(m_maximumLevel);
+        header.writeInt(m_minimumLevel);
+        header.writeDouble(m_rootWidth);
 
-        dataOutputStream.writeDouble(m_rootMin.x);
-        dataOutputStream.writeDouble(m_rootMin.y);
-        dataOutputStream.writeDouble(m_rootMax.x);
-        dataOutputStream.writeDouble(m_rootMax.y);
+        header.writeDouble(m_rootMin.x);
+        header.writeDouble(m_rootMin.y);
+        header.writeDouble(m_rootMax.x);
+        header.writeDouble(m_rootMax.y);
 
         //overflow
-        dataOutputStream.writeInt(m_overflow.size());
+        header.writeInt(m_overflow.size());
         for (PointData pt : m_overflow)
         {
-            dataOutputStream.writeDouble(pt.x);
-            dataOutputStream.writeDouble(pt.y);
-            dataOutputStream.writeLong(pt.address);
+            header.writeDouble(pt.x);
+            header.writeDouble(pt.y);
+            header.writeLong(pt.address);
         }
 
-        //root node
+        header.writeLong(bodyLength);
+        header.writeInt(Checksums.BLOCK_SIZE);
+        Checksums.writeHeader(dataOutputStream, bytes.toByteArray());
+    }
+
+    /**
+     * Writes the nodes only in the depth first layout, no header and no checksums, the root node first.
+     * The sizes of the subtrees are relative, so the bytes are the same wherever they are in a file
+     * and a quad tree rooted at a cell of a larger quad tree can be stitched into it.
+     *
+     * @param dataOutputStream the output stream
+     * @throws IOException
+     */
+    public void writeSubtree(final FSDataOutputStream dataOutputStream) throws IOException
+    {
+        m_root.calculateTotalRecordSize(m_format);
+        m_root.write(dataOutputStream, m_rootMin.x, m_rootMin.y, m_rootWidth);
+    }
+
+    /**
+     * Writes a quad tree made of top levels and of subtrees written by writeSubtree, with the header of this
+     * quad tree (its root, levels, bucket size, format and overflow points), in the depth first layout.
+     * The top levels are a shape, the inner nodes and the leaves in depth first order, '1' for an inner node
+     * and '0' for a leaf, a leaf being replaced by a subtree rooted at its cell.
+     *
+     * @param dataOutputStream the output stream
+     * @param shape            the top levels
+     * @param fileSystem       the file system of the subtrees
+     * @param subtrees         the subtree of each leaf of the shape in order, null for an empty leaf
+     * @throws IOException
+     */
+    public void stitch(
+            final FSDataOutputStream dataOutputStream,
+            final String shape,
+            final FileSystem fileSystem,
+            final Path[] subtrees) throws IOException
+    {
+        // the size of each node of the shape and of the nodes beneath
+        final long[] sizes = new long[shape.length()];
+        final int[] leaf = {0};
+        if (size(shape, 0, sizes, fileSystem, subtrees, leaf) != shape.length() || leaf[0] != subtrees.length)
+        {
+            throw new IllegalArgumentException("The shape " + shape + " does not match " + subtrees.length + " subtrees");
+        }
+        writeHeader(dataOutputStream, LAYOUT_DEPTH_FIRST, sizes[0]);
+
+        final ChecksumOutputStream body = new ChecksumOutputStream(dataOutputStream, Checksums.BLOCK_SIZE);
+        final DataOutputStream output = new DataOutputStream(body);
+        final byte[] buffer = new byte[64 * 1024];
+        for (int i = 0, l = 0; i < shape.length(); i++)
+        {
+            if (shape.charAt(i) == '1')
+            {
+                output.writeInt(0);
+                output.writeBoolean(true);
+                // the children of a node are the four subtrees following it
+                for (int c = 0, child = i + 1; c < 4; c++)
+                {
+                    output.writeLong(sizes[child]);
+                    child = skip(shape, child);
+                }
+            }
+            else if (subtrees[l] == null)
+            {
+                l++;
+                output.writeInt(0);
+                output.writeBoolean(false);
+            }
+            else
+            {
+                final InputStream input = fileSystem.open(subtrees[l++]);
+                try
+                {
+                    int n;
+                    while ((n = input.read(buffer)) > 0)
+                    {
+                        output.write(buffer, 0, n);
+                    }
+                }
+                finally
+                {
+                    input.close();
+                }
+            }
+        }
+        output.flush();
+        body.finish();
+    }
+
+    /**
+     * Calculates the size of the node of the shape at an index, returns the index after its subtree
+     */
+    private static int size(
+            final String shape,
+            final int index,
+            final long[] sizes,
+            final FileSystem fileSystem,
+            final Path[] subtrees,
+            final int[] leaf) throws IOException
+    {
+        if (index >= shape.length())
+        {
+            throw new IllegalArgumentException("The shape " + shape + " is truncated");
+        }
+        if (shape.charAt(index) == '1')
+        {
+            long size = QuadTreeNode.INNER_RECORD_SIZE;
+            int child = index + 1;
+            for (int c = 0; c < 4; c++)
+            {
+                final int next = size(shape, child, sizes, fileSystem, subtrees, leaf);
+                size += sizes[child];
+                child = next;
+            }
+            sizes[index] = size;
+            return child;
+        }
+        if (leaf[0] >= subtrees.length)
+        {
+            throw new IllegalArgumentException("The shape " + shape + " has more leaves than subtrees");
+        }
+        final Path subtree = subtrees[leaf[0]++];
+        // an empty leaf, no point and no children
+        sizes[index] = subtree == null ? 5L : fileSystem.getFileStatus(subtree).getLen();
+        return index + 1;
+    }
+
+    /**
+     * Returns the index of the shape after the subtree at an index
+     */
+    private static int skip(
+            final String shape,
+            final int index)
+    {
+        int pending = 1;
+        int i = index;
+        while (pending > 0)
+        {
+            pending += shape.charAt(i++) == '1' ? 3 : -1;
+        }
+        return i;
+    }
 
-        m_root.write(dataOutputStream);
+    /**
+     * Reads the whole body of the quad tree and checks it against its block checksums
+     *
+     * @param stream the input stream
+     * @return false if the quad tree was written without checksums
+     * @throws IOException
+     */
+    public boolean verify(final PositionedReadable stream) throws IOException
+    {
+        if (m_blockSize == 0)
+        {
+            return false;
+        }
+        Checksums.verifyBody(stream, m_rootPosition, m_bodyLength, m_blockSize);
+        return true;
     }
 
     /**
@@ -167,6 +521,75 @@ public class QuadTree
         return m_bucketSize;
     }
 
+    /**
+     * The format of the nodes
+     *
+     * @return FORMAT_ROWS or FORMAT_COLUMNS
+     */
+    public int format()
+    {
+        return m_format;
+    }
+
+    /**
+     * Sets the format the nodes are written in
+     *
+     * @param format FORMAT_ROWS or FORMAT_COLUMNS
+     */
+    public void setFormat(final int format)
+    {
+        if (format != FORMAT_ROWS && format != FORMAT_COLUMNS)
+        {
+            throw new IllegalArgumentException("Unsupported quad tree format " + format);
+        }
+        m_format = format;
+        m_sized = false;
+    }
+
+    /**
+     * The layout of the nodes
+     *
+     * @return LAYOUT_DEPTH_FIRST or LAYOUT_Z_ORDER
+     */
+    public int layout()
+    {
+        return m_layout;
+    }
+
+    /**
+     * Sets the layout the nodes are written in
+     *
+     * @param layout LAYOUT_DEPTH_FIRST or LAYOUT_Z_ORDER
+     */
+    public void setLayout(final int layout)
+    {
+        if (layout != LAYOUT_DEPTH_FIRST && layout != LAYOUT_Z_ORDER)
+        {
+            throw new IllegalArgumentException("Unsupported quad tree layout " + layout);
+        }
+        m_layout = layout;
+    }
+
+    /**
+     * The level of the root node
+     *
+     * @return
+     */
+    public int rootLevel()
+    {
+        return m_rootLevel;
+    }
+
+    /**
+     * The maximum level
+     *
+     * @return
+     */
+    public int maximumLevel()
+    {
+        return m_maximumLevel;
+    }
+
     /**
      * The minimum level
      *
@@ -177,11 +600,72 @@ public class QuadTree
         return m_minimumLevel;
     }
 
+    /**
+     * The position of the root node in the stream the quad tree was read from
+     *
+     * @return
+     */
+    public long rootPosition()
+    {
+        return m_rootPosition;
+    }
+
+    /**
+     * The root node
+     *
+     * @return
+     */
+    public QuadTreeNode root()
+    {
+        return m_root;
+    }
+
+    /**
+     * The root node's width
+     *
+     * @return
+     */
+    public double rootWidth()
+    {
+        return m_rootWidth;
+    }
+
+    /**
+     * The root node's minx,miny
+     *
+     * @return
+     */
+    public Point2D.Double rootMin()
+    {
+        return m_rootMin;
+    }
+
+    /**
+     * The root node's maxx,maxy
+     *
+     * @return
+     */
+    public Point2D.Double rootMax()
+    {
+        return m_rootMax;
+    }
+
+    /**
+     * The points outside of the root node
+     *
+     * @return
+     */
+    public List<PointData> overflow()
+    {
+        return m_overflow;
+    }
+
     /**
      * Adds a point into the quad tree.
      */
     public void addPointData(final PointData pointData)
     {
+        m_sized = false;
         if (m_maximumLevel == m_rootLevel)
         {//all done growing out..just add to overflow
             if (pointData.x < m_rootMin.x || pointData.y < m_rootMin.y || pointData.x > m_rootMax.x || pointData.y > m_rootMax.y)
@@ -195,87 +679,251 @@ public class QuadTree
             }
             //first take care of growing the quad tree out (which is an odd case)
         }
+        else if (isOutside(pointData))
+        {
+            grow(pointData);
+            addPointData(pointData);
+        }
         else
         {
-            if (pointData.x < m_rootMin.x)
+            //grow the quad tree in
+            m_root.addPoint(this, pointData, m_rootMin.x, m_rootMin.y, m_rootWidth, m_rootLevel);
+        }
+    }
+
+    /**
+     * Adds a list of points into the quad tree, the subtrees are built by concurrent tasks.
+     * The root is grown first, then the points are split in the cells of the top levels until a cell holds
+     * no more than taskSize points, each of these cells is a task that adds its points and calculates its sizes.
+     * The quad tree is the same as the one made by adding the points one at a time in the list order.
+     *
+     * @param list            the points
+     * @param executorService the executor of the tasks
+     * @param taskSize        the number of points under which a cell is not split any more in tasks
+     * @throws InterruptedException if interrupted while waiting for the tasks
+     */
+    public void addPointData(
+            final List<PointData> list,
+            final ExecutorService executorService,
+            final int taskSize) throws InterruptedException
+    {
+        final List<PointData> inside = new ArrayList<PointData>(list.size());
+        for (final PointData pointData : list)
+        {
+            while (m_maximumLevel != m_rootLevel && isOutside(pointData))
+            {
+                grow(pointData);
+            }
+            if (isOutside(pointData))
+            {
+                m_overflow.add(pointData);
+            }
+            else
+            {
+                inside.add(pointData);
+            }
+        }
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        final List<QuadTreeNode> topNodes = new ArrayList<QuadTreeNode>();
+        addPointData(m_root, inside, m_rootMin.x, m_rootMin.y, m_rootWidth, m_rootLevel,
+                executorService, Math.max(taskSize, m_bucketSize), futures, topNodes);
+        try
+        {
+            for (final Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            for (final Future<?> future : futures)
             {
-                if (pointData.y < m_rootMin.y)
+                future.cancel(true);
+            }
+        }
+        // the top nodes are listed children first
+        for (final QuadTreeNode node : topNodes)
+        {
+            node.calculateRecordSize(m_format);
+        }
+        m_sized = true;
+    }
+
+    private void addPointData(
+            final QuadTreeNode node,
+            final List<PointData> list,
+            final double x,
+            final double y,
+            final double width,
+            final int level,
+            final ExecutorService executorService,
+            final int taskSize,
+            final List<Future<?>> futures,
+            final List<QuadTreeNode> topNodes)
+    {
+        if (node.getChildren() == null
+                && node.getData().isEmpty()
+                && list.size() > taskSize
+                && level > m_minimumLevel)
+        {
+            // the cell holds more than a bucket of points, it is split anyway
+            final QuadTreeNode[] children = new QuadTreeNode[4];
+            children[0] = new QuadTreeNode();
+            children[1] = new QuadTreeNode();
+            children[2] = new QuadTreeNode();
+            children[3] = new QuadTreeNode();
+            node.setChildren(children);
+            node.setData(null);
+        }
+        final QuadTreeNode[] children = node.getChildren();
+        if (children != null)
+        {
+            final double ww = width * 0.5;
+            final double xx = x + ww;
+            final double yy = y + ww;
+            final List<PointData> list0 = new ArrayList<PointData>();
+            final List<PointData> list1 = new ArrayList<PointData>();
+            final List<PointData> list2 = new ArrayList<PointData>();
+            final List<PointData> list3 = new ArrayList<PointData>();
+            for (final PointData pointData : list)
+            {
+                if (pointData.x < xx)
                 {
-                    final QuadTreeNode node = new QuadTreeNode();
-                    final QuadTreeNode[] children = new QuadTreeNode[4];
-                    children[0] = new QuadTreeNode();
-                    children[1] = new QuadTreeNode();
-                    children[2] = new QuadTreeNode();
-                    children[3] = m_root;
-                    node.setChildren(children);
-                    node.setData(null);
-
-                    m_root = node;
-                    m_rootMin.x = m_rootMin.x - m_rootWidth;
-                    m_rootMin.y = m_rootMin.y - m_rootWidth;
-                    m_rootWidth *= 2.0;
-                    m_rootLevel++;
-                    addPointData(pointData);
+                    if (pointData.y < yy)
+                    {
+                        list0.add(pointData);
+                    }
+                    else
+                    {
+                        list1.add(pointData);
+                    }
                 }
                 else
                 {
-                    final QuadTreeNode node = new QuadTreeNode();
-                    final QuadTreeNode[] children = new QuadTreeNode[4];
-                    children[0] = new QuadTreeNode();
-                    children[1] = new QuadTreeNode();
-                    children[3] = new QuadTreeNode();
-                    children[2] = m_root;
-                    node.setChildren(children);
-                    node.setData(null);
-
-                    m_root = node;
-                    m_rootMin.x = m_rootMin.x - m_rootWidth;
-                    m_rootMax.y = m_rootMax.y + m_rootWidth;
-                    m_rootWidth *= 2.0;
-                    m_rootLevel++;
-                    addPointData(pointData);
+                    if (pointData.y < yy)
+                    {
+                        list2.add(pointData);
+                    }
+                    else
+                    {
+                        list3.add(pointData);
+                    }
                 }
             }
-            else if (pointData.y < m_rootMin.y)
+            addPointData(children[0], list0, x, y, ww, level - 1, executorService, taskSize, futures, topNodes);
+            addPointData(children[1], list1, x, yy, ww, level - 1, executorService, taskSize, futures, topNodes);
+            addPointData(children[2], list2, xx, y, ww, level - 1, executorService, taskSize, futures, topNodes);
+            addPointData(children[3], list3, xx, yy, ww, level - 1, executorService, taskSize, futures, topNodes);
+            topNodes.add(node);
+        }
+        else if (list.isEmpty())
+        {
+            node.calculateTotalRecordSize(m_format);
+        }
+        else
+        {
+            futures.add(executorService.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (final PointData pointData : list)
+                    {
+                        node.addPoint(QuadTree.this, pointData, x, y, width, level);
+                    }
+                    node.calculateTotalRecordSize(m_format);
+                }
+            }));
+        }
+    }
+
+    private boolean isOutside(final PointData pointData)
+    {
+        return pointData.x < m_rootMin.x || pointData.y < m_rootMin.y || pointData.x > m_rootMax.x || pointData.y > m_rootMax.y;
+    }
+
+    /**
+     * Doubles the root towards a point outside of it, the old root becomes one of the children of the new root
+     */
+    private void grow(final PointData pointData)
+    {
+        if (pointData.x < m_rootMin.x)
+        {
+            if (pointData.y < m_rootMin.y)
             {
                 final QuadTreeNode node = new QuadTreeNode();
                 final QuadTreeNode[] children = new QuadTreeNode[4];
                 children[0] = new QuadTreeNode();
-                children[3] = new QuadTreeNode();
+                children[1] = new QuadTreeNode();
                 children[2] = new QuadTreeNode();
-                children[1] = m_root;
+                children[3] = m_root;
                 node.setChildren(children);
                 node.setData(null);
+
                 m_root = node;
-                m_rootMax.x = m_rootMax.x + m_rootWidth;
+                m_rootMin.x = m_rootMin.x - m_rootWidth;
                 m_rootMin.y = m_rootMin.y - m_rootWidth;
                 m_rootWidth *= 2.0;
                 m_rootLevel++;
-                addPointData(pointData);
             }
-            else if (pointData.x > m_rootMax.x || pointData.y > m_rootMax.y)
+            else
             {
                 final QuadTreeNode node = new QuadTreeNode();
                 final QuadTreeNode[] children = new QuadTreeNode[4];
-                children[3] = new QuadTreeNode();
+                children[0] = new QuadTreeNode();
                 children[1] = new QuadTreeNode();
-                children[2] = new QuadTreeNode();
-                children[0] = m_root;
+                children[3] = new QuadTreeNode();
+                children[2] = m_root;
                 node.setChildren(children);
                 node.setData(null);
+
                 m_root = node;
-                m_rootMax.x = m_rootMax.x + m_rootWidth;
+                m_rootMin.x = m_rootMin.x - m_rootWidth;
                 m_rootMax.y = m_rootMax.y + m_rootWidth;
                 m_rootWidth *= 2.0;
                 m_rootLevel++;
-                addPointData(pointData);
-            }
-            else
-            {
-                //grow the quad tree in
-                m_root.addPoint(this, pointData, m_rootMin.x, m_rootMin.y, m_rootWidth, m_rootLevel);
             }
         }
+        else if (pointData.y < m_rootMin.y)
+        {
+            final QuadTreeNode node = new QuadTreeNode();
+            final QuadTreeNode[] children = new QuadTreeNode[4];
+            children[0] = new QuadTreeNode();
+            children[3] = new QuadTreeNode();
+            children[2] = new QuadTreeNode();
+            children[1] = m_root;
+            node.setChildren(children);
+            node.setData(null);
+            m_root = node;
+            m_rootMax.x = m_rootMax.x + m_rootWidth;
+            m_rootMin.y = m_rootMin.y - m_rootWidth;
+            m_rootWidth *= 2.0;
+            m_rootLevel++;
+        }
+        else
+        {
+            final QuadTreeNode node = new QuadTreeNode();
+            final QuadTreeNode[] children = new QuadTreeNode[4];
+            children[3] = new QuadTreeNode();
+            children[1] = new QuadTreeNode();
+            children[2] = new QuadTreeNode();
+            children[0] = m_root;
+            node.setChildren(children);
+            node.setData(null);
+            m_root = node;
+            m_rootMax.x = m_rootMax.x + m_rootWidth;
+            m_rootMax.y = m_rootMax.y + m_rootWidth;
+            m_rootWidth *= 2.0;
+            m_rootLevel++;
+        }
     }
 
     /**
@@ -294,6 +942,96 @@ public class QuadTree
         }
     }
 
+    /**
+     * Searches many extents at once, the tree is traversed once and a node is only read
+     * if it intersects at least one of the extents.
+     * Executes evaluateFunction(query, PointData) on all data in each extent (contained or touch),
+     * a point in many extents is evaluated once per extent.
+     *
+     * @param dataInputStream  the input dataInputStream
+     * @param extents          the extents
+     * @param evaluateFunction the callback, with the index of the extent in the list
+     * @throws IOException
+     */
+    public void search(
+            final FSDataInputStream dataInputStream,
+            final List<Extent> extents,
+            final IBatchEvaluateFunction evaluateFunction) throws IOException
+    {
+        final Extent[] queries = extents.toArray(new Extent[extents.size()]);
+        for (final PointData pt : m_overflow)
+        {
+            for (int q = 0; q < queries.length; q++)
+            {
+                if (queries[q].containsPoint(pt.x, pt.y))
+                {
+                    evaluateFunction.evaluate(q, pt);
+                }
+            }
+        }
+        final int[] active = new int[queries.length];
+        for (int q = 0; q < active.length; q++)
+        {
+            active[q] = q;
+        }
+        search(dataInputStream, queries, active, active.length, m_root, m_rootMin.x, m_rootMin.y, m_rootWidth, evaluateFunction);
+    }
+
+    /**
+     * Searches a node with the extents of the parent node, only the ones intersecting this node are passed on
+     */
+    private void search(
+            final FSDataInputStream dataInputStream,
+            final Extent[] queries,
+            final int[] parentActive,
+            final int parentCount,
+            final QuadTreeNode node,
+            final double x,
+            final double y,
+            final double width,
+            final IBatchEvaluateFunction evaluateFunction) throws IOException
+    {
+        final int[] active = new int[parentCount];
+        int count = 0;
+        for (int i = 0; i < parentCount; i++)
+        {
+            final Extent extent = queries[parentActive[i]];
+            if (extent.xmin < x + width && extent.xmax >= x && extent.ymax >= y && extent.ymin < y + width)
+            {
+                active[count++] = parentActive[i];
+            }
+        }
+        if (count == 0)
+        {
+            return;
+        }
+        final QuadTreeNode[] children = node.loadChildren(dataInputStream);
+        if (children == null)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                final Extent extent = queries[active[i]];
+                //the extent being searched over fully contains this node
+                final boolean contains = extent.xmin <= x && extent.ymin <= y && extent.xmax > x + width && extent.ymax > y + width;
+                for (final PointData pt : node.getData())
+                {
+                    if (contains || extent.containsPoint(pt.x, pt.y))
+                    {
+                        evaluateFunction.evaluate(active[i], pt);
+                    }
+                }
+            }
+        }
+        else
+        {
+            final double ww = width * 0.5;
+            search(dataInputStream, queries, active, count, children[0], x, y, ww, evaluateFunction);
+            search(dataInputStream, queries, active, count, children[1], x, y + ww, ww, evaluateFunction);
+            search(dataInputStream, queries, active, count, children[2], x + ww, y, ww, evaluateFunction);
+            search(dataInputStream, queries, active, count, children[3], x + ww, y + ww, ww, evaluateFunction);
+        }
+    }
+
     /**
      * Searches quad tree by using the iterator
      *
@@ -322,4 +1060,28 @@ public class QuadTree
         return iterator;
     }
 
+    /**
+     * Searches the points nearest to a location, the iterator returns the nearest first
+     * and only reads the nodes needed to return the next point.
+     *
+     * @param dataInputStream the input dataInputStream
+     * @param x               the location x
+     * @param y               the location y
+     * @param k               the maximum number of points to return
+     * @return the iterator
+     */
+    public Iterator<PointData> nearest(
+            final FSDataInputStream dataInputStream,
+            final double x,
+            final double y,
+            final int k)
+    {
+        final NearestIterator iterator = new NearestIterator(dataInputStream, x, y, k);
+        for (final PointData pt : m_overflow)
+        {
+            iterator.addPoint(pt);
+        }
+        iterator.addChild(m_root, m_rootMin.x, m_rootMin.y, m_rootWidth);
+        return iterator;
+    }
 }
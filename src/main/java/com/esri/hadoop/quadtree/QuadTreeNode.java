@@ -3,9 +3,10 @@ package com.esri.hadoop.quadtree;
 import com.esri.hadoop.Extent;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.PositionedReadable;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -13,11 +14,50 @@ import java.util.List;
  */
 public class QuadTreeNode
 {
-    private List<PointData> m_data;
+    /**
+     * Children whose subtrees fit in this many bytes are read in one go
+     */
+    public static final int BATCH_READ_SIZE = 64 * 1024;
+
+    /**
+     * The record size of a node without data and with children
+     */
+    static final int INNER_RECORD_SIZE = 37;
+
+    /**
+     * The record size of an inner node of the Z-order layout, no data, the children flag,
+     * the position of the first leaf then the directory sizes and the leaf sizes of the children
+     */
+    static final int DIRECTORY_RECORD_SIZE = 77;
+
+    /**
+     * The leaves of a subtree fully contained in a searched extent are read in one go up to this many bytes,
+     * they are contiguous in the Z-order layout
+     */
+    public static final int SEQUENTIAL_READ_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The number of quantization steps over the width of a cell
+     */
+    private static final double STEPS = 4294967296.0;
+
+    private PointDataList m_data;
     private QuadTreeNode[] m_children;
     private long[] m_seekTo;
+    private long m_seekEnd;
+    private byte[] m_subtree;
+    private long m_subtreePosition;
+    private long[] m_leafBounds;
+    private byte[] m_leaves;
+    private long m_leavesPosition;
     private long m_recordSize;
     private long m_recordSizeBeneath;
+    private long m_innerCount;
+    private int m_format = QuadTree.FORMAT_ROWS;
+    private int m_layout = QuadTree.LAYOUT_DEPTH_FIRST;
+    private double m_x;
+    private double m_y;
+    private double m_width;
 
     /**
      * Clear and releases this quad tree instance.
@@ -50,7 +90,65 @@ public class QuadTreeNode
     }
 
     /**
-     * Reads the node from stream
+     * Indicates if this node has children, loaded or not
+     *
+     * @return true if this node has children
+     */
+    public boolean hasChildren()
+    {
+        return m_children != null || m_seekTo != null;
+    }
+
+    /**
+     * The position of a child of a node read from a stream
+     *
+     * @param index the index of the child, 0 to 3
+     * @return the position of the child in the stream
+     */
+    public long childPosition(final int index)
+    {
+        return m_seekTo[index];
+    }
+
+    /**
+     * The size of a child of a node read from a stream and of all its descendants.
+     * In the Z-order layout this is the size of the leaves of the child only.
+     *
+     * @param index the index of the child, 0 to 3
+     * @return the size in bytes of the subtree of the child
+     */
+    public long childSize(final int index)
+    {
+        if (m_leafBounds != null)
+        {
+            return m_leafBounds[index + 1] - m_leafBounds[index];
+        }
+        return (index < 3 ? m_seekTo[index + 1] : m_seekEnd) - m_seekTo[index];
+    }
+
+    /**
+     * The approximate heap size of this node once read
+     *
+     * @return the size in bytes
+     */
+    public long heapSize()
+    {
+        // node, seek array and data list, plus the primitive values of each point
+        return 128L + (m_data == null ? 0 : 24L * m_data.size());
+    }
+
+    /**
+     * Drops the bytes of the batch read this node was decoded from, they are not counted by heapSize.
+     * The children of this node are then read again from the stream when they are loaded.
+     */
+    void releaseReadBuffers()
+    {
+        m_subtree = null;
+        m_leaves = null;
+    }
+
+    /**
+     * Reads the node from stream at its current position
      * Does not instantiate children of this node, but has the seek addresses to where they are at.
      *
      * @param dataInputStream the input stream
@@ -58,24 +156,256 @@ public class QuadTreeNode
      */
     public void read(final FSDataInputStream dataInputStream) throws IOException
     {
-        final int dataSize = dataInputStream.readInt();
-        for (int i = 0; i < dataSize; i++)
+        read(dataInputStream, dataInputStream.getPos());
+    }
+
+    /**
+     * Reads the node from stream at a position using positional reads, so the position of the stream
+     * is left untouched and concurrent reads on the same stream are safe.
+     * Does not instantiate children of this node, but has the seek addresses to where they are at.
+     *
+     * @param stream   the input stream
+     * @param position the position of the node in the stream
+     * @throws IOException
+     */
+    public void read(
+            final PositionedReadable stream,
+            final long position) throws IOException
+    {
+        read(stream, position, QuadTree.FORMAT_ROWS, 0.0, 0.0, 0.0);
+    }
+
+    /**
+     * Reads the node from stream at a position using positional reads, so the position of the stream
+     * is left untouched and concurrent reads on the same stream are safe.
+     * Does not instantiate children of this node, but has the seek addresses to where they are at.
+     *
+     * @param stream   the input stream
+     * @param position the position of the node in the stream
+     * @param format   the format of the nodes, QuadTree.FORMAT_ROWS or QuadTree.FORMAT_COLUMNS
+     * @param x        the node minx
+     * @param y        the node miny
+     * @param width    the node width, the quantized coordinates are relative to the node cell
+     * @throws IOException
+     */
+    public void read(
+            final PositionedReadable stream,
+            final long position,
+            final int format,
+            final double x,
+            final double y,
+            final double width) throws IOException
+    {
+        read(stream, position, format, QuadTree.LAYOUT_DEPTH_FIRST, x, y, width);
+    }
+
+    /**
+     * Reads the node from stream at a position using positional reads, so the position of the stream
+     * is left untouched and concurrent reads on the same stream are safe.
+     * Does not instantiate children of this node, but has the seek addresses to where they are at.
+     *
+     * @param stream   the input stream
+     * @param position the position of the node in the stream
+     * @param format   the format of the nodes, QuadTree.FORMAT_ROWS or QuadTree.FORMAT_COLUMNS
+     * @param layout   the layout of the nodes, QuadTree.LAYOUT_DEPTH_FIRST or QuadTree.LAYOUT_Z_ORDER
+     * @param x        the node minx
+     * @param y        the node miny
+     * @param width    the node width, the quantized coordinates are relative to the node cell
+     * @throws IOException
+     */
+    public void read(
+            final PositionedReadable stream,
+            final long position,
+            final int format,
+            final int layout,
+            final double x,
+            final double y,
+            final double width) throws IOException
+    {
+        setCell(format, layout, x, y, width);
+        // the point count and, for a node without data, the children flag
+        final byte[] head = new byte[5];
+        stream.readFully(position, head, 0, head.length);
+        final int dataSize = ByteBuffer.wrap(head).getInt();
+        int length;
+        if (dataSize == 0)
+        {
+            length = head[4] != 0 ? 5 + childrenSize() : 5;
+        }
+        else if (format == QuadTree.FORMAT_COLUMNS)
         {
-            final double x = dataInputStream.readDouble();
-            final double y = dataInputStream.readDouble();
-            final long address = dataInputStream.readLong();
-            m_data.add(new PointData(x, y, address));
+            // the point count, the column size, the columns and the children flag
+            final byte[] columnSize = new byte[4];
+            stream.readFully(position + 4, columnSize, 0, columnSize.length);
+            length = 9 + ByteBuffer.wrap(columnSize).getInt();
         }
-        final boolean hasChildren = dataInputStream.readBoolean();
-        if (hasChildren)
+        else
+        {
+            length = 5 + 24 * dataSize;
+        }
+        byte[] bytes = new byte[length];
+        stream.readFully(position, bytes, 0, length);
+        if (dataSize > 0 && bytes[length - 1] != 0)
         {
+            // data and children, not written by this implementation but valid
+            bytes = new byte[length + childrenSize()];
+            stream.readFully(position, bytes, 0, bytes.length);
+        }
+        decode(bytes, position, position);
+    }
+
+    /**
+     * Reads the node from stream at a position, knowing the size of the node and all its descendants.
+     * A small subtree is read in one go and kept, so the descendants are decoded from memory.
+     *
+     * @param stream      the input stream
+     * @param position    the position of the node in the stream
+     * @param subtreeSize the size of the node and all its descendants
+     * @throws IOException
+     */
+    private void read(
+            final PositionedReadable stream,
+            final long position,
+            final long subtreeSize) throws IOException
+    {
+        if (subtreeSize <= BATCH_READ_SIZE)
+        {
+            final byte[] bytes = new byte[(int) subtreeSize];
+            stream.readFully(position, bytes, 0, bytes.length);
+            decode(bytes, position, position);
+            m_subtree = bytes;
+            m_subtreePosition = position;
+        }
+        else
+        {
+            // a big subtree is most likely under an inner node, try with a single read of its record
+            final byte[] bytes = new byte[INNER_RECORD_SIZE];
+            stream.readFully(position, bytes, 0, bytes.length);
+            if (!decode(bytes, position, position))
+            {
+                read(stream, position, m_format, m_layout, m_x, m_y, m_width);
+            }
+        }
+    }
+
+    /**
+     * Reads the node from stream at a position, knowing the exact size of its record
+     */
+    private void readRecord(
+            final PositionedReadable stream,
+            final long position,
+            final long recordSize) throws IOException
+    {
+        final byte[] bytes = new byte[(int) recordSize];
+        stream.readFully(position, bytes, 0, bytes.length);
+        if (!decode(bytes, position, position))
+        {
+            read(stream, position, m_format, m_layout, m_x, m_y, m_width);
+        }
+    }
+
+    /**
+     * Sets the format, the layout and the cell of this node, the cell is only used by the columnar format
+     */
+    private void setCell(
+            final int format,
+            final int layout,
+            final double x,
+            final double y,
+            final double width)
+    {
+        m_format = format;
+        m_layout = layout;
+        m_x = x;
+        m_y = y;
+        m_width = width;
+    }
+
+    /**
+     * The size of what follows the children flag of a node with children
+     */
+    private int childrenSize()
+    {
+        return m_layout == QuadTree.LAYOUT_Z_ORDER ? DIRECTORY_RECORD_SIZE - 5 : INNER_RECORD_SIZE - 5;
+    }
+
+    /**
+     * Decodes the node from bytes read from the stream
+     *
+     * @param bytes         the bytes
+     * @param bytesPosition the position in the stream of the first byte
+     * @param position      the position in the stream of the node
+     * @return false if the node is not entirely in the bytes, in which case nothing is decoded
+     */
+    private boolean decode(
+            final byte[] bytes,
+            final long bytesPosition,
+            final long position)
+    {
+        final int offset = (int) (position - bytesPosition);
+        if (offset + 5 > bytes.length)
+        {
+            return false;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final int dataSize = buffer.getInt(offset);
+        final boolean columns = m_format == QuadTree.FORMAT_COLUMNS && dataSize > 0;
+        if (columns && offset + 8 > bytes.length)
+        {
+            return false;
+        }
+        final long flagIndex = columns ? offset + 8L + buffer.getInt(offset + 4) : offset + 4 + 24L * dataSize;
+        if (flagIndex >= bytes.length)
+        {
+            return false;
+        }
+        final boolean hasChildren = bytes[(int) flagIndex] != 0;
+        if (hasChildren && flagIndex + 1 + childrenSize() > bytes.length)
+        {
+            return false;
+        }
+        if (columns)
+        {
+            decodeColumns(buffer, offset + 8, dataSize);
+        }
+        else
+        {
+            int index = offset + 4;
+            for (int i = 0; i < dataSize; i++, index += 24)
+            {
+                m_data.add(buffer.getDouble(index), buffer.getDouble(index + 8), buffer.getLong(index + 16));
+            }
+        }
+        int index = (int) flagIndex + 1;
+        if (hasChildren && m_layout == QuadTree.LAYOUT_Z_ORDER)
+        {
+            // the inner children follow in the directory, the leaves follow from the first leaf
+            final long end = bytesPosition + index + DIRECTORY_RECORD_SIZE - 5;
+            long directory = end;
+            long leaf = end + buffer.getLong(index);
             m_seekTo = new long[4];
+            m_leafBounds = new long[5];
             for (int i = 0; i < 4; i++)
             {
-                m_seekTo[i] = dataInputStream.readLong();
+                final long directorySize = buffer.getLong(index + 8 + 8 * i);
+                m_seekTo[i] = directorySize == 0 ? leaf : directory;
+                m_leafBounds[i] = leaf;
+                directory += directorySize;
+                leaf += buffer.getLong(index + 40 + 8 * i);
+            }
+            m_leafBounds[4] = leaf;
+            m_seekEnd = directory;
+        }
+        else if (hasChildren)
+        {
+            m_seekTo = new long[4];
+            for (int i = 0; i < 4; i++, index += 8)
+            {
+                m_seekTo[i] = buffer.getLong(index);
             }
-            final long handle = dataInputStream.getPos();
+            final long handle = bytesPosition + index;
 
+            m_seekEnd = m_seekTo[3] + m_seekTo[2] + m_seekTo[1] + m_seekTo[0] + handle;
             m_seekTo[3] = m_seekTo[2] + m_seekTo[1] + m_seekTo[0] + handle;
             m_seekTo[2] = m_seekTo[1] + m_seekTo[0] + handle;
             m_seekTo[1] = m_seekTo[0] + handle;
@@ -85,7 +415,116 @@ public class QuadTreeNode
         {
             m_children = null;
             m_seekTo = null;
+            m_leafBounds = null;
         }
+        return true;
+    }
+
+    /**
+     * Decodes the columns of the points, the quantized x column, the quantized y column
+     * and the variable length address deltas.
+     */
+    private void decodeColumns(
+            final ByteBuffer buffer,
+            final int offset,
+            final int dataSize)
+    {
+        int xIndex = offset;
+        int yIndex = offset + 4 * dataSize;
+        int index = offset + 8 * dataSize;
+        long address = 0L;
+        for (int i = 0; i < dataSize; i++, xIndex += 4, yIndex += 4)
+        {
+            long delta = 0L;
+            int shift = 0;
+            byte b;
+            do
+            {
+                b = buffer.get(index++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+            address += delta;
+            m_data.add(
+                    dequantize(buffer.getInt(xIndex), m_x, m_width),
+                    dequantize(buffer.getInt(yIndex), m_y, m_width),
+                    address);
+        }
+    }
+
+    /**
+     * Quantizes an ordinate to an unsigned 32 bit offset within a cell
+     *
+     * @param value the ordinate
+     * @param min   the cell min
+     * @param width the cell width
+     * @return the offset
+     */
+    static int quantize(
+            final double value,
+            final double min,
+            final double width)
+    {
+        final double step = Math.floor((value - min) / width * STEPS);
+        return (int) (long) Math.max(0.0, Math.min(STEPS - 1.0, step));
+    }
+
+    /**
+     * Restores an ordinate from its offset within a cell, the error is at most half a step, width / 2^33
+     *
+     * @param offset the offset
+     * @param min    the cell min
+     * @param width  the cell width
+     * @return the ordinate
+     */
+    static double dequantize(
+            final int offset,
+            final double min,
+            final double width)
+    {
+        return min + ((offset & 0xFFFFFFFFL) + 0.5) * width / STEPS;
+    }
+
+    /**
+     * The number of bytes of an unsigned variable length long
+     */
+    private static int varLongSize(long value)
+    {
+        int size = 1;
+        while ((value & ~0x7FL) != 0L)
+        {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarLong(
+            final FSDataOutputStream dataOutputStream,
+            long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0L)
+        {
+            dataOutputStream.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dataOutputStream.writeByte((int) value);
+    }
+
+    /**
+     * The size of the columns of the points, the points must be sorted by address
+     */
+    private long columnSize()
+    {
+        long n = 8L * m_data.size();
+        long previous = 0L;
+        for (int i = 0; i < m_data.size(); i++)
+        {
+            n += varLongSize(m_data.address(i) - previous);
+            previous = m_data.address(i);
+        }
+        return n;
     }
 
     /**
@@ -108,6 +547,10 @@ public class QuadTreeNode
         {
             n += 4;
         }
+        else if (m_format == QuadTree.FORMAT_COLUMNS)
+        {
+            n += 8 + columnSize();
+        }
         else
         {
             n += 4 + m_data.size() * 24;
@@ -125,25 +568,75 @@ public class QuadTreeNode
         return m_recordSizeBeneath + m_recordSize;
     }
 
+    /**
+     * The size of the inner nodes of this subtree in the directory of the Z-order layout
+     *
+     * @return the size in bytes
+     */
+    public long directorySize()
+    {
+        return DIRECTORY_RECORD_SIZE * m_innerCount;
+    }
+
+    /**
+     * The size of the leaves of this subtree, they are contiguous in the Z-order layout
+     *
+     * @return the size in bytes
+     */
+    public long leafSize()
+    {
+        return totalRecordSize() - INNER_RECORD_SIZE * m_innerCount;
+    }
+
     /**
      * Calculates all the sizes before writing
      */
     public void calculateTotalRecordSize()
     {
+        calculateTotalRecordSize(QuadTree.FORMAT_ROWS);
+    }
+
+    /**
+     * Calculates all the sizes before writing in a format
+     *
+     * @param format QuadTree.FORMAT_ROWS or QuadTree.FORMAT_COLUMNS
+     */
+    public void calculateTotalRecordSize(final int format)
+    {
+        m_format = format;
         if (m_children != null)
         {
             for (QuadTreeNode node : m_children)
             {
-                node.calculateTotalRecordSize();
+                node.calculateTotalRecordSize(format);
             }
         }
+        calculateRecordSize(format);
+    }
+
+    /**
+     * Calculates the sizes of this node, the sizes of the children have already been calculated
+     *
+     * @param format QuadTree.FORMAT_ROWS or QuadTree.FORMAT_COLUMNS
+     */
+    void calculateRecordSize(final int format)
+    {
+        m_format = format;
+        if (format == QuadTree.FORMAT_COLUMNS && m_data != null)
+        {
+            // ascending addresses make small deltas
+            m_data.sortByAddress();
+        }
         m_recordSize = recordSize();
         m_recordSizeBeneath = 0;
+        m_innerCount = 0;
         if (m_children != null)
         {
+            m_innerCount = 1;
             for (QuadTreeNode node : m_children)
             {
                 m_recordSizeBeneath += node.totalRecordSize();
+                m_innerCount += node.m_innerCount;
             }
         }
     }
@@ -155,19 +648,56 @@ public class QuadTreeNode
      * @throws IOException
      */
     public void write(final FSDataOutputStream dataOutputStream) throws IOException
+    {
+        write(dataOutputStream, 0.0, 0.0, 0.0);
+    }
+
+    /**
+     * Writes out this node in the format of the last calculateTotalRecordSize
+     *
+     * @param dataOutputStream the output stream
+     * @param x                the node minx
+     * @param y                the node miny
+     * @param width            the node width, the quantized coordinates are relative to the node cell
+     * @throws IOException
+     */
+    public void write(
+            final FSDataOutputStream dataOutputStream,
+            final double x,
+            final double y,
+            final double width) throws IOException
     {
         if (m_data == null || m_data.size() == 0)
         {
             dataOutputStream.writeInt(0);
         }
+        else if (m_format == QuadTree.FORMAT_COLUMNS)
+        {
+            dataOutputStream.writeInt(m_data.size());
+            dataOutputStream.writeInt((int) columnSize());
+            for (int i = 0; i < m_data.size(); i++)
+            {
+                dataOutputStream.writeInt(quantize(m_data.x(i), x, width));
+            }
+            for (int i = 0; i < m_data.size(); i++)
+            {
+                dataOutputStream.writeInt(quantize(m_data.y(i), y, width));
+            }
+            long previous = 0L;
+            for (int i = 0; i < m_data.size(); i++)
+            {
+                writeVarLong(dataOutputStream, m_data.address(i) - previous);
+                previous = m_data.address(i);
+            }
+        }
         else
         {
             dataOutputStream.writeInt(m_data.size());
-            for (final PointData pt : m_data)
+            for (int i = 0; i < m_data.size(); i++)
             {
-                dataOutputStream.writeDouble(pt.x);
-                dataOutputStream.writeDouble(pt.y);
-                dataOutputStream.writeLong(pt.address);
+                dataOutputStream.writeDouble(m_data.x(i));
+                dataOutputStream.writeDouble(m_data.y(i));
+                dataOutputStream.writeLong(m_data.address(i));
             }
         }
         if (m_children == null)
@@ -181,10 +711,80 @@ public class QuadTreeNode
             {
                 dataOutputStream.writeLong(node.totalRecordSize());
             }
-            for (final QuadTreeNode node : m_children)
-            {
-                node.write(dataOutputStream);
-            }
+            final double ww = width * 0.5;
+            m_children[0].write(dataOutputStream, x, y, ww);
+            m_children[1].write(dataOutputStream, x, y + ww, ww);
+            m_children[2].write(dataOutputStream, x + ww, y, ww);
+            m_children[3].write(dataOutputStream, x + ww, y + ww, ww);
+        }
+    }
+
+    /**
+     * Writes the inner nodes of this subtree in depth first order, the directory of the Z-order layout.
+     * The positions are relative to the root, the records have positions relative to their end.
+     *
+     * @param dataOutputStream the output stream
+     * @param position         the position of this node
+     * @param leafPosition     the position of the first leaf of this subtree
+     * @throws IOException
+     */
+    public void writeDirectory(
+            final FSDataOutputStream dataOutputStream,
+            final long position,
+            final long leafPosition) throws IOException
+    {
+        if (m_children == null)
+        {
+            return;
+        }
+        final long end = position + DIRECTORY_RECORD_SIZE;
+        dataOutputStream.writeInt(0);
+        dataOutputStream.writeBoolean(true);
+        dataOutputStream.writeLong(leafPosition - end);
+        for (final QuadTreeNode node : m_children)
+        {
+            dataOutputStream.writeLong(node.directorySize());
+        }
+        for (final QuadTreeNode node : m_children)
+        {
+            dataOutputStream.writeLong(node.leafSize());
+        }
+        long directory = end;
+        long leaf = leafPosition;
+        for (final QuadTreeNode node : m_children)
+        {
+            node.writeDirectory(dataOutputStream, directory, leaf);
+            directory += node.directorySize();
+            leaf += node.leafSize();
+        }
+    }
+
+    /**
+     * Writes the leaves of this subtree in Z-order, the order of the children, after the directory
+     *
+     * @param dataOutputStream the output stream
+     * @param x                the node minx
+     * @param y                the node miny
+     * @param width            the node width
+     * @throws IOException
+     */
+    public void writeLeaves(
+            final FSDataOutputStream dataOutputStream,
+            final double x,
+            final double y,
+            final double width) throws IOException
+    {
+        if (m_children == null)
+        {
+            write(dataOutputStream, x, y, width);
+        }
+        else
+        {
+            final double ww = width * 0.5;
+            m_children[0].writeLeaves(dataOutputStream, x, y, ww);
+            m_children[1].writeLeaves(dataOutputStream, x, y + ww, ww);
+            m_children[2].writeLeaves(dataOutputStream, x + ww, y, ww);
+            m_children[3].writeLeaves(dataOutputStream, x + ww, y + ww, ww);
         }
     }
 
@@ -193,7 +793,7 @@ public class QuadTreeNode
      */
     public QuadTreeNode()
     {
-        m_data = new ArrayList<PointData>();
+        m_data = new PointDataList();
         m_children = null;
         m_seekTo = null;
     }
@@ -223,11 +823,11 @@ public class QuadTreeNode
     }
 
     /**
-     * Sets the vector points at this node
+     * Sets the vector points at this node, the points are copied
      */
-    public void setData(ArrayList<PointData> data)
+    public void setData(final List<PointData> data)
     {
-        m_data = data;
+        m_data = data == null ? null : new PointDataList(data);
     }
 
     /**
@@ -243,13 +843,13 @@ public class QuadTreeNode
     {
         nodeFunction.evaluate(this, x, y, width, level);
         final double ww = width * 0.5;
-        checkIfLoaded(stream);
-        if (m_children != null)
+        final QuadTreeNode[] children = loadChildren(stream);
+        if (children != null)
         {
-            m_children[0].depthFirstSeach(stream, nodeFunction, x, y, ww, level + 1);
-            m_children[1].depthFirstSeach(stream, nodeFunction, x, y + ww, ww, level + 1);
-            m_children[2].depthFirstSeach(stream, nodeFunction, x + ww, y, ww, level + 1);
-            m_children[3].depthFirstSeach(stream, nodeFunction, x + ww, y + ww, ww, level + 1);
+            children[0].depthFirstSeach(stream, nodeFunction, x, y, ww, level + 1);
+            children[1].depthFirstSeach(stream, nodeFunction, x, y + ww, ww, level + 1);
+            children[2].depthFirstSeach(stream, nodeFunction, x + ww, y, ww, level + 1);
+            children[3].depthFirstSeach(stream, nodeFunction, x + ww, y + ww, ww, level + 1);
         }
     }
 
@@ -263,14 +863,138 @@ public class QuadTreeNode
     {
         if (m_children == null && m_seekTo != null)
         {
-            m_children = new QuadTreeNode[4];
-            for (int i = 0; i < 4; i++)
+            m_children = loadChildren(stream);
+        }
+    }
+
+    /**
+     * Retrieves the children of this node, reading them if they are not in memory.
+     * Read children are not kept by this node, so this node is never modified
+     * and concurrent searches can share it.
+     *
+     * @param stream the input stream
+     * @return the children, null if this node has no children
+     * @throws IOException
+     */
+    public QuadTreeNode[] loadChildren(final PositionedReadable stream) throws IOException
+    {
+        return loadChildren(stream, BATCH_READ_SIZE);
+    }
+
+    /**
+     * Retrieves the children of this node, reading them if they are not in memory.
+     *
+     * @param stream    the input stream
+     * @param batchSize the leaves of the Z-order layout are read in one go up to this many bytes
+     * @return the children, null if this node has no children
+     * @throws IOException
+     */
+    private QuadTreeNode[] loadChildren(
+            final PositionedReadable stream,
+            final int batchSize) throws IOException
+    {
+        if (m_children != null || m_seekTo == null)
+        {
+            return m_children;
+        }
+        if (m_leafBounds != null)
+        {
+            return loadChildrenZOrder(stream, batchSize);
+        }
+        // the children are not contiguous, each is followed by its descendants,
+        // so the whole region is read in one go only when it is small enough
+        byte[] bytes = m_subtree;
+        long bytesPosition = m_subtreePosition;
+        if (bytes == null && m_seekEnd - m_seekTo[0] <= BATCH_READ_SIZE)
+        {
+            bytes = new byte[(int) (m_seekEnd - m_seekTo[0])];
+            bytesPosition = m_seekTo[0];
+            stream.readFully(bytesPosition, bytes, 0, bytes.length);
+        }
+        final QuadTreeNode[] children = new QuadTreeNode[4];
+        final double ww = m_width * 0.5;
+        for (int i = 0; i < 4; i++)
+        {
+            children[i] = new QuadTreeNode();
+            children[i].setCell(m_format, m_layout, i < 2 ? m_x : m_x + ww, (i & 1) == 0 ? m_y : m_y + ww, ww);
+            if (bytes == null)
             {
-                m_children[i] = new QuadTreeNode();
-                stream.seek(m_seekTo[i]);
-                m_children[i].read(stream);
+                final long end = i < 3 ? m_seekTo[i + 1] : m_seekEnd;
+                children[i].read(stream, m_seekTo[i], end - m_seekTo[i]);
+            }
+            else
+            {
+                children[i].decode(bytes, bytesPosition, m_seekTo[i]);
+                children[i].m_subtree = bytes;
+                children[i].m_subtreePosition = bytesPosition;
             }
         }
+        return children;
+    }
+
+    /**
+     * Reads the children of the Z-order layout, the inner children from the directory of this subtree
+     * and the leaves from the leaves of this subtree, each range read in one go when small enough.
+     */
+    private QuadTreeNode[] loadChildrenZOrder(
+            final PositionedReadable stream,
+            final int batchSize) throws IOException
+    {
+        long directoryStart = m_seekEnd;
+        for (int i = 3; i >= 0; i--)
+        {
+            if (m_seekTo[i] != m_leafBounds[i])
+            {
+                directoryStart = m_seekTo[i];
+            }
+        }
+        byte[] directory = m_subtree;
+        long directoryPosition = m_subtreePosition;
+        if (directory == null && m_seekEnd > directoryStart && m_seekEnd - directoryStart <= BATCH_READ_SIZE)
+        {
+            directory = new byte[(int) (m_seekEnd - directoryStart)];
+            directoryPosition = directoryStart;
+            stream.readFully(directoryPosition, directory, 0, directory.length);
+        }
+        byte[] leaves = m_leaves;
+        long leavesPosition = m_leavesPosition;
+        if (leaves == null && m_leafBounds[4] - m_leafBounds[0] <= batchSize)
+        {
+            leaves = new byte[(int) (m_leafBounds[4] - m_leafBounds[0])];
+            leavesPosition = m_leafBounds[0];
+            stream.readFully(leavesPosition, leaves, 0, leaves.length);
+        }
+        final QuadTreeNode[] children = new QuadTreeNode[4];
+        final double ww = m_width * 0.5;
+        for (int i = 0; i < 4; i++)
+        {
+            children[i] = new QuadTreeNode();
+            children[i].setCell(m_format, m_layout, i < 2 ? m_x : m_x + ww, (i & 1) == 0 ? m_y : m_y + ww, ww);
+            children[i].m_subtree = directory;
+            children[i].m_subtreePosition = directoryPosition;
+            children[i].m_leaves = leaves;
+            children[i].m_leavesPosition = leavesPosition;
+            if (m_seekTo[i] == m_leafBounds[i])
+            {
+                if (leaves == null)
+                {
+                    children[i].readRecord(stream, m_seekTo[i], m_leafBounds[i + 1] - m_leafBounds[i]);
+                }
+                else
+                {
+                    children[i].decode(leaves, leavesPosition, m_seekTo[i]);
+                }
+            }
+            else if (directory == null)
+            {
+                children[i].readRecord(stream, m_seekTo[i], DIRECTORY_RECORD_SIZE);
+            }
+            else
+            {
+                children[i].decode(directory, directoryPosition, m_seekTo[i]);
+            }
+        }
+        return children;
     }
 
     /**
@@ -287,11 +1011,12 @@ public class QuadTreeNode
         //the extent being searched for and this node do intersect
         if (extent.xmin < x + width && extent.xmax >= x && extent.ymax >= y && extent.ymin < y + width)
         {
-            checkIfLoaded(dataInputStream);
-            if (m_children == null)
+            //the extent being searched over fully contains this node
+            final boolean contains = extent.xmin <= x && extent.ymin <= y && extent.xmax > x + width && extent.ymax > y + width;
+            final QuadTreeNode[] children = loadChildren(dataInputStream, contains ? SEQUENTIAL_READ_SIZE : BATCH_READ_SIZE);
+            if (children == null)
             {
-                //the extent being searched over fully contains this node
-                if (extent.xmin <= x && extent.ymin <= y && extent.xmax > x + width && extent.ymax > y + width)
+                if (contains)
                 {
                     for (final PointData pt : m_data)
                     {
@@ -312,10 +1037,10 @@ public class QuadTreeNode
             else
             {
                 final double ww = width * 0.5;
-                iterator.addChild(m_children[0], x, y, ww);
-                iterator.addChild(m_children[1], x, y + ww, ww);
-                iterator.addChild(m_children[2], x + ww, y, ww);
-                iterator.addChild(m_children[3], x + ww, y + ww, ww);
+                iterator.addChild(children[0], x, y, ww);
+                iterator.addChild(children[1], x, y + ww, ww);
+                iterator.addChild(children[2], x + ww, y, ww);
+                iterator.addChild(children[3], x + ww, y + ww, ww);
             }
         }
     }
@@ -331,13 +1056,25 @@ public class QuadTreeNode
             final double width,
             final int level)
     {
-        final double ww = width * 0.5;
-        final double xx = x + ww;
-        final double yy = y + ww;
+        addPoint(qt, pt.x, pt.y, pt.address, x, y, width, level);
+    }
 
+    /**
+     * Adds a point on a node, a bucket split moves the primitive values of its points without point objects
+     */
+    private void addPoint(
+            final QuadTree qt,
+            final double px,
+            final double py,
+            final long address,
+            final double x,
+            final double y,
+            final double width,
+            final int level)
+    {
         if (m_data != null)
         {
-            m_data.add(pt);
+            m_data.add(px, py, address);
 
             if ((m_data.size() > qt.bucketSize()) && (level > qt.minimumLevel()))
             {
@@ -348,57 +1085,54 @@ public class QuadTreeNode
                 m_children[1] = new QuadTreeNode();
                 m_children[2] = new QuadTreeNode();
                 m_children[3] = new QuadTreeNode();
-                for (PointData pnt : m_data)
+                final PointDataList data = m_data;
+                m_data = null;
+                for (int i = 0; i < data.size(); i++)
                 {
-                    if (pnt.x < xx)
-                    {
-                        if (pnt.y < yy)
-                        {
-                            m_children[0].addPoint(qt, pnt, x, y, ww, level - 1);
-                        }
-                        else
-                        {
-                            m_children[1].addPoint(qt, pnt, x, yy, ww, level - 1);
-                        }
-                    }
-                    else
-                    {
-                        if (pnt.y < yy)
-                        {
-                            m_children[2].addPoint(qt, pnt, xx, y, ww, level - 1);
-                        }
-                        else
-                        {
-                            m_children[3].addPoint(qt, pnt, xx, yy, ww, level - 1);
-                        }
-                    }
+                    addToChild(qt, data.x(i), data.y(i), data.address(i), x, y, width, level);
                 }
-                m_data = null;
             }
         }
         else
         {
-            if (pt.x < xx)
+            addToChild(qt, px, py, address, x, y, width, level);
+        }
+    }
+
+    private void addToChild(
+            final QuadTree qt,
+            final double px,
+            final double py,
+            final long address,
+            final double x,
+            final double y,
+            final double width,
+            final int level)
+    {
+        final double ww = width * 0.5;
+        final double xx = x + ww;
+        final double yy = y + ww;
+
+        if (px < xx)
+        {
+            if (py < yy)
             {
-                if (pt.y < yy)
-                {
-                    m_children[0].addPoint(qt, pt, x, y, ww, level - 1);
-                }
-                else
-                {
-                    m_children[1].addPoint(qt, pt, x, yy, ww, level - 1);
-                }
+                m_children[0].addPoint(qt, px, py, address, x, y, ww, level - 1);
             }
             else
             {
-                if (pt.y < yy)
-                {
-                    m_children[2].addPoint(qt, pt, xx, y, ww, level - 1);
-                }
-                else
-                {
-                    m_children[3].addPoint(qt, pt, xx, yy, ww, level - 1);
-                }
+                m_children[1].addPoint(qt, px, py, address, x, yy, ww, level - 1);
+            }
+        }
+        else
+        {
+            if (py < yy)
+            {
+                m_children[2].addPoint(qt, px, py, address, xx, y, ww, level - 1);
+            }
+            else
+            {
+                m_children[3].addPoint(qt, px, py, address, xx, yy, ww, level - 1);
             }
         }
     }
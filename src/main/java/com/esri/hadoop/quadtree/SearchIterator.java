@@ -3,16 +3,26 @@ package com.esri.hadoop.quadtree;
 import com.esri.hadoop.Extent;
 import org.apache.hadoop.fs.FSDataInputStream;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Stack;
+import java.util.NoSuchElementException;
 
 /**
- * SearchIterator allows one to search
+ * SearchIterator allows one to search.
+ * The pending nodes and points are kept in unsynchronized array stacks, the calling parameters of the nodes
+ * in parallel primitive arrays, so the traversal does not allocate.
+ * A node that cannot be read makes hasNext throw a RuntimeException caused by the IOException.
  */
 public class SearchIterator implements Iterator<PointData>
 {
-    private Stack<SearchNode> m_nodes;
-    private Stack<PointData> m_points;
+    private QuadTreeNode[] m_nodes;
+    private double[] m_xs;
+    private double[] m_ys;
+    private double[] m_widths;
+    private int m_nodeCount;
+    private PointData[] m_points;
+    private int m_pointCount;
     private Extent m_extent;
     private FSDataInputStream m_dataInputStream;
 
@@ -28,37 +38,47 @@ public class SearchIterator implements Iterator<PointData>
     {
         m_dataInputStream = dataInputStream;
         m_extent = extent;
-        m_nodes = new Stack<SearchNode>();
-        m_points = new Stack<PointData>();
+        m_nodes = new QuadTreeNode[64];
+        m_xs = new double[64];
+        m_ys = new double[64];
+        m_widths = new double[64];
+        m_points = new PointData[64];
     }
 
     @Override
     public boolean hasNext()
     {
-        if (!m_points.isEmpty())
+        while (m_pointCount == 0)
         {
-            return true;
-        }
-        if (m_nodes.isEmpty())
-        {
-            return false;
-        }
-        final SearchNode searchNode = m_nodes.pop();
-        try
-        {
-            searchNode.node.search(this, m_extent, m_dataInputStream, searchNode.x, searchNode.y, searchNode.width);
-        }
-        finally
-        {
-            searchNode.node.clearThisNode();
-            return hasNext();
+            if (m_nodeCount == 0)
+            {
+                return false;
+            }
+            m_nodeCount--;
+            final QuadTreeNode node = m_nodes[m_nodeCount];
+            m_nodes[m_nodeCount] = null;
+            try
+            {
+                node.search(this, m_extent, m_dataInputStream, m_xs[m_nodeCount], m_ys[m_nodeCount], m_widths[m_nodeCount]);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
         }
+        return true;
     }
 
     @Override
     public PointData next()
     {
-        return m_points.pop();
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        final PointData point = m_points[--m_pointCount];
+        m_points[m_pointCount] = null;
+        return point;
     }
 
     @Override
@@ -69,7 +89,11 @@ public class SearchIterator implements Iterator<PointData>
 
     public void addPoint(PointData point)
     {
-        m_points.push(point);
+        if (m_pointCount == m_points.length)
+        {
+            m_points = Arrays.copyOf(m_points, m_pointCount * 2);
+        }
+        m_points[m_pointCount++] = point;
     }
 
     /**
@@ -86,37 +110,18 @@ public class SearchIterator implements Iterator<PointData>
             final double y,
             final double width)
     {
-        m_nodes.push(new SearchNode(node, x, y, width));
-    }
-
-    /**
-     * Simple class to hold the calling parameters for the node
-     */
-    private final class SearchNode
-    {
-        private QuadTreeNode node;
-        private double x;
-        private double y;
-        private double width;
-
-        /**
-         * Simple ctor for this simple class
-         *
-         * @param node  a quad tree node
-         * @param x     the x param
-         * @param y     the y param
-         * @param width the width param...all these params are called in the search of the node
-         */
-        public SearchNode(
-                final QuadTreeNode node,
-                final double x,
-                final double y,
-                final double width)
+        if (m_nodeCount == m_nodes.length)
         {
-            this.node = node;
-            this.x = x;
-            this.y = y;
-            this.width = width;
+            final int length = m_nodeCount * 2;
+            m_nodes = Arrays.copyOf(m_nodes, length);
+            m_xs = Arrays.copyOf(m_xs, length);
+            m_ys = Arrays.copyOf(m_ys, length);
+            m_widths = Arrays.copyOf(m_widths, length);
         }
+        m_nodes[m_nodeCount] = node;
+        m_xs[m_nodeCount] = x;
+        m_ys[m_nodeCount] = y;
+        m_widths[m_nodeCount] = width;
+        m_nodeCount++;
     }
 }
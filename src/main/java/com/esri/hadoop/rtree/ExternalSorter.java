@@ -0,0 +1,493 @@
+package com.esri.hadoop.rtree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts MBR entries (extent and handle) by the center of the extent along one axis in bounded memory.
+ * Entries are buffered in primitive arrays, each full buffer is sorted and spilled to a local run file,
+ * and the runs are merged when the sorted entries are read back.
+ * When all the entries fit in one buffer, nothing touches the disk.
+ */
+class ExternalSorter
+{
+    public static final int X = 0;
+    public static final int Y = 1;
+
+    /**
+     * Maximum number of runs merged at once
+     */
+    public static final int MAX_FAN_IN = 64;
+
+    /**
+     * Size in bytes of an entry in a run file
+     */
+    public static final int ENTRY_SIZE = 40;
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final int m_axis;
+    private final int m_runSize;
+    private final File m_tmpDir;
+    private final List<File> m_runs = new ArrayList<File>();
+
+    private double[] m_key = new double[0];
+    private double[] m_xmin = new double[0];
+    private double[] m_ymin = new double[0];
+    private double[] m_xmax = new double[0];
+    private double[] m_ymax = new double[0];
+    private long[] m_handle = new long[0];
+    private int m_size;
+    private long m_count;
+
+    /**
+     * Creates a sorter
+     *
+     * @param axis    X or Y
+     * @param runSize the maximum number of entries held in memory
+     * @param tmpDir  the directory of the run files
+     */
+    public ExternalSorter(
+            final int axis,
+            final int runSize,
+            final File tmpDir)
+    {
+        m_axis = axis;
+        m_runSize = runSize;
+        m_tmpDir = tmpDir;
+    }
+
+    /**
+     * @return the number of entries added since the last reset
+     */
+    public long count()
+    {
+        return m_count;
+    }
+
+    /**
+     * Adds an entry
+     */
+    public void add(
+            final double xmin,
+            final double ymin,
+            final double xmax,
+            final double ymax,
+            final long handle) throws IOException
+    {
+        if (m_size == m_key.length)
+        {
+            if (m_size == m_runSize)
+            {
+                spill();
+            }
+            else
+            {
+                grow();
+            }
+        }
+        m_key[m_size] = m_axis == X ? xmin + xmax : ymin + ymax;
+        m_xmin[m_size] = xmin;
+        m_ymin[m_size] = ymin;
+        m_xmax[m_size] = xmax;
+        m_ymax[m_size] = ymax;
+        m_handle[m_size] = handle;
+        m_size++;
+        m_count++;
+    }
+
+    /**
+     * Adds the current entry of an input
+     */
+    public void add(final EntryInput input) throws IOException
+    {
+        add(input.xmin, input.ymin, input.xmax, input.ymax, input.handle);
+    }
+
+    /**
+     * Returns all the added entries in sorted order.
+     * Nothing can be added until the returned input is fully read and the sorter is reset.
+     *
+     * @return the sorted entries
+     * @throws IOException
+     */
+    public EntryInput sorted() throws IOException
+    {
+        if (m_runs.isEmpty())
+        {
+            sort(0, m_size - 1);
+            return new BufferInput();
+        }
+        if (m_size > 0)
+        {
+            spill();
+        }
+        while (m_runs.size() > MAX_FAN_IN)
+        {
+            final List<File> merged = new ArrayList<File>();
+            for (int i = 0; i < m_runs.size(); i += MAX_FAN_IN)
+            {
+                final List<File> group = m_runs.subList(i, Math.min(i + MAX_FAN_IN, m_runs.size()));
+                final File file = File.createTempFile("run", ".bin", m_tmpDir);
+                final EntryInput input = new MergeInput(group);
+                final DataOutputStream output = openOutput(file);
+                try
+                {
+                    while (input.next())
+                    {
+                        write(output, input.xmin, input.ymin, input.xmax, input.ymax, input.handle);
+                    }
+                }
+                finally
+                {
+                    output.close();
+                    input.close();
+                }
+                merged.add(file);
+            }
+            m_runs.clear();
+            m_runs.addAll(merged);
+        }
+        final List<File> runs = new ArrayList<File>(m_runs);
+        m_runs.clear();
+        return new MergeInput(runs);
+    }
+
+    /**
+     * Forgets all the added entries, keeping the memory buffers for reuse
+     */
+    public void reset()
+    {
+        for (final File file : m_runs)
+        {
+            file.delete();
+        }
+        m_runs.clear();
+        m_size = 0;
+        m_count = 0;
+    }
+
+    private void grow()
+    {
+        final int capacity = (int) Math.min(m_runSize, Math.max(1024L, 2L * m_key.length));
+        m_key = copyOf(m_key, capacity);
+        m_xmin = copyOf(m_xmin, capacity);
+        m_ymin = copyOf(m_ymin, capacity);
+        m_xmax = copyOf(m_xmax, capacity);
+        m_ymax = copyOf(m_ymax, capacity);
+        final long[] handle = new long[capacity];
+        System.arraycopy(m_handle, 0, handle, 0, m_size);
+        m_handle = handle;
+    }
+
+    private double[] copyOf(
+            final double[] array,
+            final int capacity)
+    {
+        final double[] copy = new double[capacity];
+        System.arraycopy(array, 0, copy, 0, m_size);
+        return copy;
+    }
+
+    /**
+     * Sorts the buffer and writes it to a new run file
+     */
+    private void spill() throws IOException
+    {
+        sort(0, m_size - 1);
+        final File file = File.createTempFile("run", ".bin", m_tmpDir);
+        final DataOutputStream output = openOutput(file);
+        try
+        {
+            for (int i = 0; i < m_size; i++)
+            {
+                write(output, m_xmin[i], m_ymin[i], m_xmax[i], m_ymax[i], m_handle[i]);
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+        m_runs.add(file);
+        m_size = 0;
+    }
+
+    private static DataOutputStream openOutput(final File file) throws IOException
+    {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+    }
+
+    private static void write(
+            final DataOutputStream output,
+            final double xmin,
+            final double ymin,
+            final double xmax,
+            final double ymax,
+            final long handle) throws IOException
+    {
+        output.writeLong(handle);
+        output.writeDouble(xmin);
+        output.writeDouble(ymin);
+        output.writeDouble(xmax);
+        output.writeDouble(ymax);
+    }
+
+    /**
+     * Quick sort of the parallel arrays on the key
+     */
+    private void sort(
+            int lo,
+            int hi)
+    {
+        while (hi - lo > 16)
+        {
+            final int mid = (lo + hi) >>> 1;
+            if (m_key[mid] < m_key[lo])
+            {
+                swap(mid, lo);
+            }
+            if (m_key[hi] < m_key[lo])
+            {
+                swap(hi, lo);
+            }
+            if (m_key[hi] < m_key[mid])
+            {
+                swap(hi, mid);
+            }
+            final double pivot = m_key[mid];
+            int i = lo;
+            int j = hi;
+            while (i <= j)
+            {
+                while (m_key[i] < pivot)
+                {
+                    i++;
+                }
+                while (m_key[j] > pivot)
+                {
+                    j--;
+                }
+                if (i <= j)
+                {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse on the smaller side, loop on the larger one
+            if (j - lo < hi - i)
+            {
+                sort(lo, j);
+                lo = i;
+            }
+            else
+            {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++)
+        {
+            for (int j = i; j > lo && m_key[j] < m_key[j - 1]; j--)
+            {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private void swap(
+            final int i,
+            final int j)
+    {
+        double d = m_key[i];
+        m_key[i] = m_key[j];
+        m_key[j] = d;
+        d = m_xmin[i];
+        m_xmin[i] = m_xmin[j];
+        m_xmin[j] = d;
+        d = m_ymin[i];
+        m_ymin[i] = m_ymin[j];
+        m_ymin[j] = d;
+        d = m_xmax[i];
+        m_xmax[i] = m_xmax[j];
+        m_xmax[j] = d;
+        d = m_ymax[i];
+        m_ymax[i] = m_ymax[j];
+        m_ymax[j] = d;
+        final long l = m_handle[i];
+        m_handle[i] = m_handle[j];
+        m_handle[j] = l;
+    }
+
+    /**
+     * A stream of entries, the current entry is in the public fields
+     */
+    abstract static class EntryInput
+    {
+        public double xmin;
+        public double ymin;
+        public double xmax;
+        public double ymax;
+        public long handle;
+
+        /**
+         * Moves to the next entry
+         *
+         * @return false when there are no more entries
+         */
+        abstract public boolean next() throws IOException;
+
+        /**
+         * Releases the resources of this input
+         */
+        public void close() throws IOException
+        {
+        }
+
+        protected double key(final int axis)
+        {
+            return axis == X ? xmin + xmax : ymin + ymax;
+        }
+    }
+
+    /**
+     * Reads the sorted in memory buffer
+     */
+    private final class BufferInput extends EntryInput
+    {
+        private int m_index = -1;
+
+        @Override
+        public boolean next()
+        {
+            if (++m_index >= m_size)
+            {
+                return false;
+            }
+            xmin = m_xmin[m_index];
+            ymin = m_ymin[m_index];
+            xmax = m_xmax[m_index];
+            ymax = m_ymax[m_index];
+            handle = m_handle[m_index];
+            return true;
+        }
+    }
+
+    /**
+     * Reads a run file, the file is deleted on close
+     */
+    private static final class RunInput extends EntryInput
+    {
+        private final File m_file;
+        private final DataInputStream m_input;
+        private long m_remaining;
+
+        public RunInput(final File file) throws IOException
+        {
+            m_file = file;
+            m_remaining = file.length() / ENTRY_SIZE;
+            m_input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+        }
+
+        @Override
+        public boolean next() throws IOException
+        {
+            if (m_remaining == 0)
+            {
+                return false;
+            }
+            m_remaining--;
+            handle = m_input.readLong();
+            xmin = m_input.readDouble();
+            ymin = m_input.readDouble();
+            xmax = m_input.readDouble();
+            ymax = m_input.readDouble();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            m_input.close();
+            m_file.delete();
+        }
+    }
+
+    /**
+     * K-way merge of sorted run files
+     */
+    private final class MergeInput extends EntryInput
+    {
+        private final List<RunInput> m_inputs = new ArrayList<RunInput>();
+        private final PriorityQueue<RunInput> m_queue;
+        private boolean m_primed;
+
+        public MergeInput(final List<File> runs) throws IOException
+        {
+            m_queue = new PriorityQueue<RunInput>(Math.max(1, runs.size()), new Comparator<RunInput>()
+            {
+                @Override
+                public int compare(
+                        final RunInput o1,
+                        final RunInput o2)
+                {
+                    return Double.compare(o1.key(m_axis), o2.key(m_axis));
+                }
+            });
+            for (final File file : runs)
+            {
+                m_inputs.add(new RunInput(file));
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException
+        {
+            if (!m_primed)
+            {
+                m_primed = true;
+                for (final RunInput input : m_inputs)
+                {
+                    if (input.next())
+                    {
+                        m_queue.add(input);
+                    }
+                }
+            }
+            final RunInput input = m_queue.poll();
+            if (input == null)
+            {
+                return false;
+            }
+            xmin = input.xmin;
+            ymin = input.ymin;
+            xmax = input.xmax;
+            ymax = input.ymax;
+            handle = input.handle;
+            if (input.next())
+            {
+                m_queue.add(input);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            for (final RunInput input : m_inputs)
+            {
+                input.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package com.esri.hadoop.rtree;
+
+import com.esri.hadoop.ChecksumOutputStream;
+import com.esri.hadoop.Checksums;
+import com.esri.hadoop.Extent;
+import org.apache.hadoop.fs.FSDataOutputStream;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * FSRTreeArenaWriter builds a R tree one entry at a time like FSRTreeWriter, but the nodes are kept
+ * off the heap in a NodeArena rather than in node, extent and handle objects, so the build creates no garbage.
+ * Create one, add multiple entries and then close, the index is read with FSRTreeReader.
+ * <p/>
+ * The entries are inserted per Guttman's paper, a new entry goes down the subtree that needs the least
+ * enlargement and a full node is split with the quadratic split, each half keeping at least nodeLowSize entries.
+ * The off-heap memory is bounded by -XX:MaxDirectMemorySize.
+ */
+public class FSRTreeArenaWriter
+{
+    private final FSDataOutputStream m_stream;
+    private final int m_nodeLowSize;
+    private final int m_nodeHighSize;
+    private final NodeArena m_arena;
+    private int m_root;
+
+    // the slots of the nodes from the root to the leaf of an insertion, and their entry index in their parent
+    private int[] m_path = new int[16];
+    private int[] m_index = new int[16];
+
+    // the entries of a node being split, plus the one that did not fit
+    private final long[] m_references;
+    private final double[] m_ordinates;
+    private final int[] m_group;
+    private final double[] m_extent1 = new double[4];
+    private final double[] m_extent2 = new double[4];
+
+    // the extent of the node handed to the parent after a split, and a work extent
+    private final double[] m_pending = new double[4];
+    private final double[] m_extent = new double[4];
+
+    /**
+     * Create a FSRTreeArenaWriter
+     *
+     * @param stream       the output stream
+     * @param nodeLowSize  the minimum number of entries of a split node
+     * @param nodeHighSize the maximum number of entries in a node
+     */
+    public FSRTreeArenaWriter(
+            final FSDataOutputStream stream,
+            final int nodeLowSize,
+            final int nodeHighSize)
+    {
+        m_stream = stream;
+        m_nodeLowSize = nodeLowSize;
+        m_nodeHighSize = nodeHighSize;
+        m_arena = new NodeArena(nodeHighSize);
+        m_root = m_arena.allocate(true);
+        m_references = new long[nodeHighSize + 1];
+        m_ordinates = new double[4 * (nodeHighSize + 1)];
+        m_group = new int[nodeHighSize + 1];
+    }
+
+    /**
+     * Add an entry
+     *
+     * @param data an extent with a handle
+     */
+    public void add(final MBRHandle data)
+    {
+        final Extent extent = data.extent;
+        add(extent.xmin, extent.ymin, extent.xmax, extent.ymax, data.handle);
+    }
+
+    /**
+     * Add an entry
+     *
+     * @param xmin   the extent xmin
+     * @param ymin   the extent ymin
+     * @param xmax   the extent xmax
+     * @param ymax   the extent ymax
+     * @param handle the handle
+     */
+    public void add(
+            final double xmin,
+            final double ymin,
+            final double xmax,
+            final double ymax,
+            final long handle)
+    {
+        int depth = 0;
+        int slot = m_root;
+        m_path[0] = slot;
+        while (!m_arena.isLeaf(slot))
+        {
+            final int index = chooseSubtree(slot, xmin, ymin, xmax, ymax);
+            slot = (int) m_arena.reference(slot, index);
+            if (++depth == m_path.length)
+            {
+                m_path = Arrays.copyOf(m_path, 2 * depth);
+                m_index = Arrays.copyOf(m_index, 2 * depth);
+            }
+            m_path[depth] = slot;
+            m_index[depth] = index;
+        }
+
+        // goes back up the path, a split hands a new node to the parent, each parent entry gets the new child extent
+        long reference = handle;
+        m_pending[0] = xmin;
+        m_pending[1] = ymin;
+        m_pending[2] = xmax;
+        m_pending[3] = ymax;
+        boolean pending = true;
+        for (int level = depth; level >= 0; level--)
+        {
+            final int node = m_path[level];
+            if (pending)
+            {
+                final int size = m_arena.size(node);
+                if (size < m_nodeHighSize)
+                {
+                    m_arena.setEntry(node, size, reference, m_pending[0], m_pending[1], m_pending[2], m_pending[3]);
+                    m_arena.setSize(node, size + 1);
+                    pending = false;
+                }
+                else
+                {
+                    final int sibling = split(node, reference);
+                    calculateExtent(sibling, m_pending);
+                    reference = sibling;
+                }
+            }
+            if (level > 0)
+            {
+                calculateExtent(node, m_extent);
+                m_arena.setEntry(m_path[level - 1], m_index[level], node, m_extent[0], m_extent[1], m_extent[2], m_extent[3]);
+            }
+        }
+        if (pending)
+        {
+            // the root was split
+            final int root = m_arena.allocate(false);
+            calculateExtent(m_root, m_extent);
+            m_arena.setEntry(root, 0, m_root, m_extent[0], m_extent[1], m_extent[2], m_extent[3]);
+            m_arena.setEntry(root, 1, reference, m_pending[0], m_pending[1], m_pending[2], m_pending[3]);
+            m_arena.setSize(root, 2);
+            m_root = root;
+        }
+    }
+
+    /**
+     * The entry of an inner node whose extent needs the least enlargement, the smallest one on a tie
+     */
+    private int chooseSubtree(
+            final int slot,
+            final double xmin,
+            final double ymin,
+            final double xmax,
+            final double ymax)
+    {
+        int best = 0;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        final int size = m_arena.size(slot);
+        for (int i = 0; i < size; i++)
+        {
+            final double exmin = m_arena.ordinate(slot, i, 0);
+            final double eymin = m_arena.ordinate(slot, i, 1);
+            final double exmax = m_arena.ordinate(slot, i, 2);
+            final double eymax = m_arena.ordinate(slot, i, 3);
+            final double area = (exmax - exmin) * (eymax - eymin);
+            final double enlargement = (Math.max(exmax, xmax) - Math.min(exmin, xmin))
+                    * (Math.max(eymax, ymax) - Math.min(eymin, ymin)) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea))
+            {
+                best = i;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Calculates the extent of all the entries of a node
+     */
+    private void calculateExtent(
+            final int slot,
+            final double[] extent)
+    {
+        extent[0] = Double.POSITIVE_INFINITY;
+        extent[1] = Double.POSITIVE_INFINITY;
+        extent[2] = Double.NEGATIVE_INFINITY;
+        extent[3] = Double.NEGATIVE_INFINITY;
+        final int size = m_arena.size(slot);
+        for (int i = 0; i < size; i++)
+        {
+            extent[0] = Math.min(extent[0], m_arena.ordinate(slot, i, 0));
+            extent[1] = Math.min(extent[1], m_arena.ordinate(slot, i, 1));
+            extent[2] = Math.max(extent[2], m_arena.ordinate(slot, i, 2));
+            extent[3] = Math.max(extent[3], m_arena.ordinate(slot, i, 3));
+        }
+    }
+
+    private static double area(
+            final double[] ordinates,
+            final int c)
+    {
+        return (ordinates[c + 2] - ordinates[c]) * (ordinates[c + 3] - ordinates[c + 1]);
+    }
+
+    private static double unionArea(
+            final double[] a,
+            final int ca,
+            final double[] b,
+            final int cb)
+    {
+        return (Math.max(a[ca + 2], b[cb + 2]) - Math.min(a[ca], b[cb]))
+                * (Math.max(a[ca + 3], b[cb + 3]) - Math.min(a[ca + 1], b[cb + 1]));
+    }
+
+    private static void union(
+            final double[] extent,
+            final double[] ordinates,
+            final int c)
+    {
+        extent[0] = Math.min(extent[0], ordinates[c]);
+        extent[1] = Math.min(extent[1], ordinates[c + 1]);
+        extent[2] = Math.max(extent[2], ordinates[c + 2]);
+        extent[3] = Math.max(extent[3], ordinates[c + 3]);
+    }
+
+    /**
+     * Splits a full node and the entry in m_pending with Guttman's quadratic split.
+     * The first group stays in the node, the second group goes in a new node.
+     *
+     * @param slot      the full node
+     * @param reference the reference of the pending entry
+     * @return the slot of the new node
+     */
+    private int split(
+            final int slot,
+            final long reference)
+    {
+        final int count = m_nodeHighSize + 1;
+        for (int i = 0; i < m_nodeHighSize; i++)
+        {
+            m_references[i] = m_arena.reference(slot, i);
+            for (int k = 0; k < 4; k++)
+            {
+                m_ordinates[4 * i + k] = m_arena.ordinate(slot, i, k);
+            }
+        }
+        m_references[m_nodeHighSize] = reference;
+        System.arraycopy(m_pending, 0, m_ordinates, 4 * m_nodeHighSize, 4);
+        Arrays.fill(m_group, 0);
+
+        // PICK SEEDS, the pair that wastes the most area together
+        int seed1 = 0;
+        int seed2 = 1;
+        double maxWaste = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++)
+        {
+            for (int j = i + 1; j < count; j++)
+            {
+                final double waste = unionArea(m_ordinates, 4 * i, m_ordinates, 4 * j)
+                        - area(m_ordinates, 4 * i) - area(m_ordinates, 4 * j);
+                if (waste > maxWaste)
+                {
+                    maxWaste = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+        final double[] extent1 = m_extent1;
+        final double[] extent2 = m_extent2;
+        System.arraycopy(m_ordinates, 4 * seed1, extent1, 0, 4);
+        System.arraycopy(m_ordinates, 4 * seed2, extent2, 0, 4);
+        m_group[seed1] = 1;
+        m_group[seed2] = 2;
+        int count1 = 1;
+        int count2 = 1;
+        int remaining = count - 2;
+        final int minimum = Math.max(1, Math.min(m_nodeLowSize, count / 2));
+
+        // PICK NEXT, the entry with the greatest preference for one group
+        while (remaining > 0)
+        {
+            if (count1 + remaining == minimum || count2 + remaining == minimum)
+            {
+                final int group = count1 + remaining == minimum ? 1 : 2;
+                for (int i = 0; i < count; i++)
+                {
+                    if (m_group[i] == 0)
+                    {
+                        m_group[i] = group;
+                    }
+                }
+                break;
+            }
+            int next = -1;
+            double maxDifference = Double.NEGATIVE_INFINITY;
+            double nextEnlargement1 = 0.0;
+            double nextEnlargement2 = 0.0;
+            for (int i = 0; i < count; i++)
+            {
+                if (m_group[i] == 0)
+                {
+                    final double enlargement1 = unionArea(extent1, 0, m_ordinates, 4 * i) - area(extent1, 0);
+                    final double enlargement2 = unionArea(extent2, 0, m_ordinates, 4 * i) - area(extent2, 0);
+                    final double difference = Math.abs(enlargement1 - enlargement2);
+                    if (difference > maxDifference)
+                    {
+                        maxDifference = difference;
+                        next = i;
+                        nextEnlargement1 = enlargement1;
+                        nextEnlargement2 = enlargement2;
+                    }
+                }
+            }
+            final boolean first;
+            if (nextEnlargement1 != nextEnlargement2)
+            {
+                first = nextEnlargement1 < nextEnlargement2;
+            }
+            else if (area(extent1, 0) != area(extent2, 0))
+            {
+                first = area(extent1, 0) < area(extent2, 0);
+            }
+            else
+            {
+                first = count1 <= count2;
+            }
+            if (first)
+            {
+                m_group[next] = 1;
+                union(extent1, m_ordinates, 4 * next);
+                count1++;
+            }
+            else
+            {
+                m_group[next] = 2;
+                union(extent2, m_ordinates, 4 * next);
+                count2++;
+            }
+            remaining--;
+        }
+
+        final int sibling = m_arena.allocate(m_arena.isLeaf(slot));
+        int size1 = 0;
+        int size2 = 0;
+        for (int i = 0; i < count; i++)
+        {
+            final int c = 4 * i;
+            if (m_group[i] == 1)
+            {
+                m_arena.setEntry(slot, size1++, m_references[i],
+                        m_ordinates[c], m_ordinates[c + 1], m_ordinates[c + 2], m_ordinates[c + 3]);
+            }
+            else
+            {
+                m_arena.setEntry(sibling, size2++, m_references[i],
+                        m_ordinates[c], m_ordinates[c + 1], m_ordinates[c + 2], m_ordinates[c + 3]);
+            }
+        }
+        m_arena.setSize(slot, size1);
+        m_arena.setSize(sibling, size2);
+        return sibling;
+    }
+
+    /**
+     * Calculates the size of the nodes and of all their descendants once written
+     *
+     * @return the size of the subtree of the node
+     */
+    private long calculateSubtreeSize(final int slot)
+    {
+        final int size = m_arena.size(slot);
+        long subtreeSize = 5 + 40 * size;
+        if (!m_arena.isLeaf(slot))
+        {
+            for (int i = 0; i < size; i++)
+            {
+                subtreeSize += calculateSubtreeSize((int) m_arena.reference(slot, i));
+            }
+        }
+        m_arena.setSubtreeSize(slot, subtreeSize);
+        return subtreeSize;
+    }
+
+    /**
+     * Writes a node and its descendants depth first, in the same layout as RTree
+     *
+     * @param os     the output stream
+     * @param slot   the node
+     * @param handle the position of the node in the stream
+     */
+    private void write(
+            final FSDataOutputStream os,
+            final int slot,
+            final long handle) throws IOException
+    {
+        final boolean isLeaf = m_arena.isLeaf(slot);
+        final int size = m_arena.size(slot);
+        os.writeBoolean(isLeaf);
+        os.writeInt(size);
+        long childHandle = handle + 5 + 40 * size;
+        for (int i = 0; i < size; i++)
+        {
+            final long reference = m_arena.reference(slot, i);
+            if (isLeaf)
+            {
+                os.writeLong(reference);
+            }
+            else
+            {
+                os.writeLong(childHandle);
+                childHandle += m_arena.subtreeSize((int) reference);
+            }
+            os.writeDouble(m_arena.ordinate(slot, i, 0));
+            os.writeDouble(m_arena.ordinate(slot, i, 1));
+            os.writeDouble(m_arena.ordinate(slot, i, 2));
+            os.writeDouble(m_arena.ordinate(slot, i, 3));
+        }
+        if (!isLeaf)
+        {
+            childHandle = handle + 5 + 40 * size;
+            for (int i = 0; i < size; i++)
+            {
+                final int child = (int) m_arena.reference(slot, i);
+                write(os, child, childHandle);
+                childHandle += m_arena.subtreeSize(child);
+            }
+        }
+    }
+
+    /**
+     * Done adding entries; write them, shut down and release
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            final long start = m_stream.getPos() + RTree.HEADER_SIZE;
+            final long bodyLength = calculateSubtreeSize(m_root);
+            RTree.writeHeader(m_stream, m_nodeLowSize, m_nodeHighSize, bodyLength);
+            final ChecksumOutputStream body = new ChecksumOutputStream(m_stream, Checksums.BLOCK_SIZE);
+            write(new FSDataOutputStream(body, null, start), m_root, start);
+            body.finish();
+        }
+        finally
+        {
+            m_arena.release();
+            m_stream.close();
+        }
+    }
+}
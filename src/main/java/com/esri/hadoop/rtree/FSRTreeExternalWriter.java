@@ -0,0 +1,352 @@
+package com.esri.hadoop.rtree;
+
+import com.esri.hadoop.ChecksumOutputStream;
+import com.esri.hadoop.Checksums;
+import com.esri.hadoop.Extent;
+import org.apache.hadoop.fs.FSDataOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FSRTreeExternalWriter writes a packed (Sort-Tile-Recursive) R tree in bounded memory,
+ * so the number of entries is not limited by the heap.
+ * Create one, add as many entries as you like and then close.
+ * <p/>
+ * The entries are sorted in runs spilled to local temporary files and merged back.
+ * Each level of the tree is packed bottom-up into its own local level file,
+ * where a parent refers to a child by its offset in the child level file.
+ * On close the levels are copied top-down into the output stream and the relative
+ * offsets are turned into absolute handles, so the index is read with FSRTreeReader.
+ * The nodes are in level order, the root first then each level left to right, unlike
+ * FSRTreeWriter that writes each subtree contiguously, so a subtree is not a contiguous range.
+ * <p/>
+ * At most three sort buffers of runSize entries (40 bytes each) are held in memory.
+ */
+public class FSRTreeExternalWriter
+{
+    /**
+     * The default number of entries sorted in memory
+     */
+    public static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final FSDataOutputStream m_stream;
+    private final int m_nodeLowSize;
+    private final int m_nodeHighSize;
+    private final int m_runSize;
+    private final File m_tmpDir;
+    private final ExternalSorter m_sorter;
+
+    /**
+     * Create a FSRTreeExternalWriter that spills in the default temporary directory
+     *
+     * @param stream       the output stream
+     * @param nodeLowSize  the "minimum" number of entries, only recorded in the index
+     * @param nodeHighSize the number of entries in a (packed) node
+     */
+    public FSRTreeExternalWriter(
+            final FSDataOutputStream stream,
+            final int nodeLowSize,
+            final int nodeHighSize) throws IOException
+    {
+        this(stream, nodeLowSize, nodeHighSize, DEFAULT_RUN_SIZE, new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Create a FSRTreeExternalWriter
+     *
+     * @param stream       the output stream
+     * @param nodeLowSize  the "minimum" number of entries, only recorded in the index
+     * @param nodeHighSize the number of entries in a (packed) node
+     * @param runSize      the number of entries sorted in memory before spilling to disk
+     * @param tmpDir       the local directory where to spill
+     */
+    public FSRTreeExternalWriter(
+            final FSDataOutputStream stream,
+            final int nodeLowSize,
+            final int nodeHighSize,
+            final int runSize,
+            final File tmpDir) throws IOException
+    {
+        m_stream = stream;
+        m_nodeLowSize = nodeLowSize;
+        m_nodeHighSize = nodeHighSize;
+        m_runSize = Math.max(runSize, nodeHighSize);
+        m_tmpDir = File.createTempFile("rtree", "", tmpDir);
+        if (!m_tmpDir.delete() || !m_tmpDir.mkdir())
+        {
+            throw new IOException("Cannot create temporary directory " + m_tmpDir);
+        }
+        m_sorter = new ExternalSorter(ExternalSorter.X, m_runSize, m_tmpDir);
+    }
+
+    /**
+     * Add an entry
+     *
+     * @param data an extent with a handle
+     */
+    public void add(final MBRHandle data) throws IOException
+    {
+        final Extent extent = data.extent;
+        m_sorter.add(extent.xmin, extent.ymin, extent.xmax, extent.ymax, data.handle);
+    }
+
+    /**
+     * Done adding entries; build the levels, write them, shut down and release
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            final List<Level> levels = buildLevels();
+            write(levels);
+        }
+        finally
+        {
+            m_sorter.reset();
+            final File[] files = m_tmpDir.listFiles();
+            if (files != null)
+            {
+                for (final File file : files)
+                {
+                    file.delete();
+                }
+            }
+            m_tmpDir.delete();
+            m_stream.close();
+        }
+    }
+
+    /**
+     * Packs the levels bottom-up until a level has a single node, the root
+     *
+     * @return the levels, leaves first
+     */
+    private List<Level> buildLevels() throws IOException
+    {
+        final List<Level> levels = new ArrayList<Level>();
+        ExternalSorter xSorter = m_sorter;
+        ExternalSorter parentSorter = new ExternalSorter(ExternalSorter.X, m_runSize, m_tmpDir);
+        final ExternalSorter ySorter = new ExternalSorter(ExternalSorter.Y, m_runSize, m_tmpDir);
+        final Packer packer = new Packer();
+        boolean isLeaf = true;
+        long count = xSorter.count();
+        do
+        {
+            final long nodeCount = Math.max(1, (count + m_nodeHighSize - 1) / m_nodeHighSize);
+            final long sliceSize = (long) Math.ceil(Math.sqrt(nodeCount)) * m_nodeHighSize;
+            final Level level = new Level(File.createTempFile("level", ".bin", m_tmpDir), isLeaf);
+            packer.open(level, parentSorter);
+            final ExternalSorter.EntryInput byX = xSorter.sorted();
+            try
+            {
+                long remaining = count;
+                while (remaining > 0)
+                {
+                    final long slice = Math.min(sliceSize, remaining);
+                    ySorter.reset();
+                    for (long i = 0; i < slice && byX.next(); i++)
+                    {
+                        ySorter.add(byX);
+                    }
+                    final ExternalSorter.EntryInput byY = ySorter.sorted();
+                    try
+                    {
+                        while (byY.next())
+                        {
+                            packer.add(byY);
+                        }
+                    }
+                    finally
+                    {
+                        byY.close();
+                    }
+                    remaining -= slice;
+                }
+            }
+            finally
+            {
+                byX.close();
+                packer.close();
+            }
+            levels.add(level);
+
+            // the nodes of this level are the entries of the level above
+            xSorter.reset();
+            final ExternalSorter swap = xSorter;
+            xSorter = parentSorter;
+            parentSorter = swap;
+            count = xSorter.count();
+            isLeaf = false;
+        }
+        while (count > 1);
+        xSorter.reset();
+        parentSorter.reset();
+        return levels;
+    }
+
+    /**
+     * Writes the header and the levels top-down, relocating the child offsets of the inner nodes
+     *
+     * @param levels the levels, leaves first
+     */
+    private void write(final List<Level> levels) throws IOException
+    {
+        final long[] start = new long[levels.size()];
+        final long bodyStart = m_stream.getPos() + RTree.HEADER_SIZE;
+        long handle = bodyStart;
+        for (int i = levels.size() - 1; i >= 0; i--)
+        {
+            start[i] = handle;
+            handle += levels.get(i).size;
+        }
+        RTree.writeHeader(m_stream, m_nodeLowSize, m_nodeHighSize, handle - bodyStart);
+        final ChecksumOutputStream body = new ChecksumOutputStream(m_stream, Checksums.BLOCK_SIZE);
+        final FSDataOutputStream output = new FSDataOutputStream(body, null, bodyStart);
+        for (int i = levels.size() - 1; i >= 0; i--)
+        {
+            final Level level = levels.get(i);
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(level.file), IO_BUFFER_SIZE));
+            try
+            {
+                if (level.isLeaf)
+                {
+                    final byte[] buffer = new byte[IO_BUFFER_SIZE];
+                    int read;
+                    while ((read = input.read(buffer)) != -1)
+                    {
+                        output.write(buffer, 0, read);
+                    }
+                }
+                else
+                {
+                    final long childStart = start[i - 1];
+                    long remaining = level.size;
+                    while (remaining > 0)
+                    {
+                        output.writeBoolean(input.readBoolean());
+                        final int size = input.readInt();
+                        output.writeInt(size);
+                        for (int e = 0; e < size; e++)
+                        {
+                            output.writeLong(childStart + input.readLong());
+                            output.writeDouble(input.readDouble());
+                            output.writeDouble(input.readDouble());
+                            output.writeDouble(input.readDouble());
+                            output.writeDouble(input.readDouble());
+                        }
+                        remaining -= 5 + 40 * size;
+                    }
+                }
+            }
+            finally
+            {
+                input.close();
+                level.file.delete();
+            }
+        }
+        body.finish();
+    }
+
+    /**
+     * A level of the tree in a local file
+     */
+    private static final class Level
+    {
+        private final File file;
+        private final boolean isLeaf;
+        private long size;
+
+        private Level(
+                final File file,
+                final boolean isLeaf)
+        {
+            this.file = file;
+            this.isLeaf = isLeaf;
+        }
+    }
+
+    /**
+     * Groups consecutive entries in full nodes written to a level file,
+     * and hands the extent and level file offset of each node to the parent sorter
+     */
+    private final class Packer
+    {
+        private final long[] m_handle = new long[m_nodeHighSize];
+        private final double[] m_coords = new double[4 * m_nodeHighSize];
+        private int m_size;
+        private Level m_level;
+        private ExternalSorter m_parent;
+        private DataOutputStream m_output;
+
+        private void open(
+                final Level level,
+                final ExternalSorter parent) throws IOException
+        {
+            m_level = level;
+            m_parent = parent;
+            m_output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(level.file), IO_BUFFER_SIZE));
+            m_size = 0;
+        }
+
+        private void add(final ExternalSorter.EntryInput input) throws IOException
+        {
+            m_handle[m_size] = input.handle;
+            final int c = 4 * m_size;
+            m_coords[c] = input.xmin;
+            m_coords[c + 1] = input.ymin;
+            m_coords[c + 2] = input.xmax;
+            m_coords[c + 3] = input.ymax;
+            if (++m_size == m_nodeHighSize)
+            {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException
+        {
+            double xmin = Double.POSITIVE_INFINITY;
+            double ymin = Double.POSITIVE_INFINITY;
+            double xmax = Double.NEGATIVE_INFINITY;
+            double ymax = Double.NEGATIVE_INFINITY;
+            m_output.writeBoolean(m_level.isLeaf);
+            m_output.writeInt(m_size);
+            for (int i = 0; i < m_size; i++)
+            {
+                final int c = 4 * i;
+                xmin = Math.min(xmin, m_coords[c]);
+                ymin = Math.min(ymin, m_coords[c + 1]);
+                xmax = Math.max(xmax, m_coords[c + 2]);
+                ymax = Math.max(ymax, m_coords[c + 3]);
+                m_output.writeLong(m_handle[i]);
+                m_output.writeDouble(m_coords[c]);
+                m_output.writeDouble(m_coords[c + 1]);
+                m_output.writeDouble(m_coords[c + 2]);
+                m_output.writeDouble(m_coords[c + 3]);
+            }
+            m_parent.add(xmin, ymin, xmax, ymax, m_level.size);
+            m_level.size += 5 + 40 * m_size;
+            m_size = 0;
+        }
+
+        private void close() throws IOException
+        {
+            // the last node is partially filled, or the tree is empty and the root is an empty leaf
+            if (m_size > 0 || m_level.size == 0)
+            {
+                flush();
+            }
+            m_output.close();
+        }
+    }
+}
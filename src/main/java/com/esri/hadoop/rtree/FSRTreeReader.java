@@ -1,14 +1,19 @@
 package com.esri.hadoop.rtree;
 
+import com.esri.hadoop.AddressRange;
 import com.esri.hadoop.Extent;
 import org.apache.hadoop.fs.FSDataInputStream;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * FSRTreeReader allows you to search over a stream, create one, search as many times
  * as you like and release when done.
+ * Nodes are read with positional reads into immutable PackedNodes,
+ * so one reader can be searched by many threads at once.
  */
 public class FSRTreeReader
 {
@@ -27,6 +32,51 @@ public class FSRTreeReader
         m_rTree = new RTree(stream);
     }
 
+    /**
+     * Create a FSRTreeReader with a cache of decoded nodes shared by all the searches.
+     * The nodes close to the root are visited by every search and are read only once.
+     *
+     * @param stream    the input stream
+     * @param cacheSize the byte budget of the node cache
+     */
+    public FSRTreeReader(
+            final FSDataInputStream stream,
+            final long cacheSize) throws IOException
+    {
+        m_stream = stream;
+        m_rTree = new RTree(stream, cacheSize);
+    }
+
+    /**
+     * Retrieves the node cache
+     *
+     * @return the node cache, null if there is none
+     */
+    public NodeCache getNodeCache()
+    {
+        return m_rTree.getNodeCache();
+    }
+
+    /**
+     * Retrieves the rtree
+     *
+     * @return the rtree read from the stream header
+     */
+    public RTree getRTree()
+    {
+        return m_rTree;
+    }
+
+    /**
+     * Retrieves the input stream
+     *
+     * @return the input stream
+     */
+    public FSDataInputStream getStream()
+    {
+        return m_stream;
+    }
+
     /**
      * Performs a extent search over the entire tree and then executes the method
      * searchFunction(PointData) on all data in the extent (contained or touch)
@@ -35,4 +85,92 @@ public class FSRTreeReader
     {
         return m_rTree.search(extent);
     }
+
+    /**
+     * Performs a extent search over the entire tree and returns the addresses of the MBR handles in the extent
+     * (contained or touch) sorted and without duplicates, so the data file can be read in one forward pass.
+     *
+     * @param extent the extent
+     * @return the sorted distinct addresses
+     * @throws IOException
+     */
+    public long[] searchAddresses(final Extent extent) throws IOException
+    {
+        long[] addresses = new long[64];
+        int count = 0;
+        final Iterator<MBRHandle> iterator = search(extent);
+        while (iterator.hasNext())
+        {
+            if (count == addresses.length)
+            {
+                addresses = Arrays.copyOf(addresses, count * 2);
+            }
+            addresses[count++] = iterator.next().handle;
+        }
+        return AddressRange.sortDistinct(addresses, count);
+    }
+
+    /**
+     * Performs a extent search over the entire tree and groups the sorted addresses of the MBR handles
+     * in the extent into ranges of the data file, each range is read with AddressRange.read
+     *
+     * @param extent        the extent
+     * @param maxGap        the largest number of unused bytes read between two records of a range
+     * @param maxRecordSize the maximum size of a record of the data file
+     * @param maxRangeSize  the maximum size of a range, at least maxRecordSize
+     * @return the ranges, in address order
+     * @throws IOException
+     */
+    public List<AddressRange> searchRanges(
+            final Extent extent,
+            final long maxGap,
+            final int maxRecordSize,
+            final int maxRangeSize) throws IOException
+    {
+        return AddressRange.group(searchAddresses(extent), maxGap, maxRecordSize, maxRangeSize);
+    }
+
+    /**
+     * Searches many extents at once, the tree is traversed once and a node is only read
+     * if it intersects at least one of the extents.
+     * Executes searchFunction(query, MBRHandle) on all data in each extent (contained or touch)
+     *
+     * @param extents        the extents
+     * @param searchFunction the callback, with the index of the extent in the list
+     */
+    public void search(
+            final List<Extent> extents,
+            final IBatchSearchFunction searchFunction) throws IOException
+    {
+        m_rTree.search(extents, searchFunction);
+    }
+
+    /**
+     * Searches the MBR handles nearest to a location, the iterator returns the nearest first
+     * and only reads the nodes needed to return the next MBR handle.
+     *
+     * @param x the location x
+     * @param y the location y
+     * @param k the maximum number of MBR handles to return
+     * @return the iterator
+     */
+    public Iterator<MBRHandle> nearest(
+            final double x,
+            final double y,
+            final int k)
+    {
+        return m_rTree.nearest(x, y, k);
+    }
+
+    /**
+     * Reads the whole index and checks it against its checksums.
+     * The header and the presence of the whole index are checked when the reader is created.
+     *
+     * @return false if the index was written without checksums
+     * @throws org.apache.hadoop.fs.ChecksumException if the index is corrupt
+     */
+    public boolean verify() throws IOException
+    {
+        return m_rTree.verify(m_stream);
+    }
 }
@@ -0,0 +1,136 @@
+package com.esri.hadoop.rtree;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.IRecordReader;
+import com.esri.hadoop.RecordCopier;
+import com.esri.hadoop.SpaceFillingCurves;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * FSRTreeReorder rewrites a data file in the Hilbert order of the centers of its MBRs, and writes the rtree of the
+ * new data file. The MBR handles of a search are then close together in the data file
+ * and are read with a few near sequential reads rather than seeks all over a time ordered file.
+ */
+public class FSRTreeReorder
+{
+    /**
+     * The Hilbert curve fills a grid of 2^ORDER by 2^ORDER cells over the extent of the rtree
+     */
+    private static final int ORDER = 16;
+
+    private final FSRTreeReader m_reader;
+    private final FSDataInputStream m_dataInputStream;
+    private final IRecordReader m_recordReader;
+
+    /**
+     * Create a FSRTreeReorder
+     *
+     * @param reader          the rtree of the data file
+     * @param dataInputStream the data file
+     * @param recordReader    the reader of the records of the data file
+     */
+    public FSRTreeReorder(
+            final FSRTreeReader reader,
+            final FSDataInputStream dataInputStream,
+            final IRecordReader recordReader)
+    {
+        m_reader = reader;
+        m_dataInputStream = dataInputStream;
+        m_recordReader = recordReader;
+    }
+
+    /**
+     * Copies the records to the new data file in Hilbert order,
+     * and bulk loads the rtree with the new handles, with the same node sizes.
+     * The index stream is closed, the data stream is not.
+     *
+     * @param dataOutputStream  the new data file
+     * @param indexOutputStream the new rtree
+     * @throws IOException
+     */
+    public void reorder(
+            final FSDataOutputStream dataOutputStream,
+            final FSDataOutputStream indexOutputStream) throws IOException
+    {
+        final RTree source = m_reader.getRTree();
+        final List<MBRHandle> list = new ArrayList<MBRHandle>();
+        final Extent extent = new Extent(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        collect(source, source.getRootHandle(), list, extent);
+
+        final int count = list.size();
+        final long[] keys = new long[count];
+        final List<Integer> order = new ArrayList<Integer>(count);
+        final double cells = (1 << ORDER) - 1;
+        final double sx = extent.width() > 0.0 ? cells / extent.width() : 0.0;
+        final double sy = extent.height() > 0.0 ? cells / extent.height() : 0.0;
+        for (int i = 0; i < count; i++)
+        {
+            final Extent mbr = list.get(i).extent;
+            final int x = (int) (((mbr.xmin + mbr.xmax) * 0.5 - extent.xmin) * sx);
+            final int y = (int) (((mbr.ymin + mbr.ymax) * 0.5 - extent.ymin) * sy);
+            keys[i] = SpaceFillingCurves.hilbert(ORDER, x, y);
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(
+                    final Integer i,
+                    final Integer j)
+            {
+                final long ki = keys[i];
+                final long kj = keys[j];
+                return ki < kj ? -1 : (ki == kj ? 0 : 1);
+            }
+        });
+
+        final RecordCopier copier = new RecordCopier(m_dataInputStream, m_recordReader, dataOutputStream);
+        final List<MBRHandle> reordered = new ArrayList<MBRHandle>(count);
+        for (final Integer i : order)
+        {
+            final MBRHandle mbrHandle = list.get(i);
+            reordered.add(new MBRHandle(mbrHandle.extent, copier.copy(mbrHandle.handle)));
+        }
+        final FSRTreeWriter writer = new FSRTreeWriter(indexOutputStream,
+                source.getNodeMinimumSize(), source.getNodeMaximumSize());
+        writer.bulkLoad(reordered);
+        writer.close();
+    }
+
+    /**
+     * Collects the MBR handles of a node and widens the extent to them
+     */
+    private void collect(
+            final RTree rTree,
+            final long handle,
+            final List<MBRHandle> list,
+            final Extent extent) throws IOException
+    {
+        final PackedNode node = rTree.readNode(m_reader.getStream(), handle);
+        final double[] extents = node.extents;
+        for (int i = 0, c = 0; i < node.size; i++, c += 4)
+        {
+            if (node.isLeaf)
+            {
+                final Extent mbr = new Extent(extents[c], extents[c + 1], extents[c + 2], extents[c + 3]);
+                extent.xmin = Math.min(extent.xmin, mbr.xmin);
+                extent.ymin = Math.min(extent.ymin, mbr.ymin);
+                extent.xmax = Math.max(extent.xmax, mbr.xmax);
+                extent.ymax = Math.max(extent.ymax, mbr.ymax);
+                list.add(new MBRHandle(mbr, node.handles[i]));
+            }
+            else
+            {
+                collect(rTree, node.handles[i], list, extent);
+            }
+        }
+    }
+}
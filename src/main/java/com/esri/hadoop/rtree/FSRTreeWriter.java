@@ -4,6 +4,7 @@ package com.esri.hadoop.rtree;
 import org.apache.hadoop.fs.FSDataOutputStream;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * FSRTreeWriter allows you to write a R tree to a stream, thus enabling you to spatially index.
@@ -34,6 +35,25 @@ public class FSRTreeWriter
         m_rTree = new RTree(nodeLowSize, nodeHighSize);
     }
 
+    /**
+     * Create a FSRTreeWriter with an insertion strategy
+     *
+     * @param stream       the output stream
+     * @param nodeLowSize  the minimum number of entries of a split node
+     * @param nodeHighSize the maximum number of entries in a node
+     * @param strategy     RTree.STRATEGY_QUADRATIC, RTree.STRATEGY_RSTAR, RTree.STRATEGY_LINEAR
+     *                     or RTree.STRATEGY_ANG_TAN
+     */
+    public FSRTreeWriter(
+            final FSDataOutputStream stream,
+            final int nodeLowSize,
+            final int nodeHighSize,
+            final int strategy)
+    {
+        this(stream, nodeLowSize, nodeHighSize);
+        m_rTree.setStrategy(strategy);
+    }
+
     /**
      * Add an entry
      *
@@ -44,6 +64,19 @@ public class FSRTreeWriter
         m_rTree.insert(data);
     }
 
+    /**
+     * Bulk load all the entries at once, instead of adding them one by one.
+     * The entries are sorted and packed into full nodes (Sort-Tile-Recursive),
+     * which is much faster to build and gives fewer node reads per search.
+     * Must be called before any add.
+     *
+     * @param list all the extents with their handle
+     */
+    public void bulkLoad(final List<MBRHandle> list)
+    {
+        m_rTree.bulkLoad(list);
+    }
+
     /**
      * Done adding points; write then, shut down and release
      */
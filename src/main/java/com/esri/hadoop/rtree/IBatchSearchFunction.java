@@ -0,0 +1,18 @@
+package com.esri.hadoop.rtree;
+
+/**
+ * This search function is the callback of a batch search, a search of many extents at once.
+ * Used when you call search with a list of extents on the reader.
+ */
+public interface IBatchSearchFunction
+{
+    /**
+     * This allows you to create your own function as a callback during a batch search.
+     *
+     * @param query     the index of the extent in the list of searched extents
+     * @param mbrHandle the extent and handle
+     */
+    public void evaluate(
+            final int query,
+            final MBRHandle mbrHandle);
+}
@@ -0,0 +1,144 @@
+package com.esri.hadoop.rtree;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.MappedInputStream;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Searches a memory mapped rtree.
+ * The nodes are decoded straight from the mapped file and the pending node handles are kept in a primitive array,
+ * the only allocation is the MBRHandle returned by next().
+ */
+public class MappedRTreeIterator implements Iterator<MBRHandle>
+{
+    private final MappedInputStream m_input;
+    private final Extent m_extent;
+
+    //the pending node handles
+    private long[] m_nodeHandles = new long[64];
+    private int m_size;
+
+    //the leaf being scanned
+    private long m_leafPosition;
+    private int m_leafSize;
+    private int m_leafIndex;
+
+    //the position of the next entry
+    private long m_next = -1L;
+
+    /**
+     * Construct a search iterator
+     *
+     * @param input  the mapped rtree file
+     * @param extent the extent being searched
+     */
+    public MappedRTreeIterator(
+            final MappedInputStream input,
+            final Extent extent)
+    {
+        m_input = input;
+        m_extent = extent;
+    }
+
+    /**
+     * Adds a handle to a node to visit
+     *
+     * @param nodeHandle the position of the node in the file
+     */
+    public void addNodeHandle(final long nodeHandle)
+    {
+        if (m_size == m_nodeHandles.length)
+        {
+            m_nodeHandles = Arrays.copyOf(m_nodeHandles, m_size * 2);
+        }
+        m_nodeHandles[m_size++] = nodeHandle;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (m_next >= 0L)
+        {
+            return true;
+        }
+        while (true)
+        {
+            while (m_leafIndex < m_leafSize)
+            {
+                final long position = m_leafPosition + 40L * m_leafIndex++;
+                if (intersects(position))
+                {
+                    m_next = position;
+                    return true;
+                }
+            }
+            if (m_size == 0)
+            {
+                return false;
+            }
+            visit(m_nodeHandles[--m_size]);
+        }
+    }
+
+    /**
+     * Visits a node, a leaf becomes the leaf being scanned and the intersecting children of an inner node are pushed.
+     * Nodes are laid out as the leaf flag, the int size and the entries (long handle, xmin, ymin, xmax, ymax).
+     */
+    private void visit(final long handle)
+    {
+        final boolean isLeaf = m_input.get(handle) != 0;
+        final int size = m_input.getInt(handle + 1);
+        if (isLeaf)
+        {
+            m_leafPosition = handle + 5;
+            m_leafSize = size;
+            m_leafIndex = 0;
+        }
+        else
+        {
+            long position = handle + 5;
+            for (int i = 0; i < size; i++, position += 40)
+            {
+                if (intersects(position))
+                {
+                    addNodeHandle(m_input.getLong(position));
+                }
+            }
+        }
+    }
+
+    private boolean intersects(final long position)
+    {
+        final Extent extent = m_extent;
+        return extent.xmax >= m_input.getDouble(position + 8) &&
+                extent.xmin <= m_input.getDouble(position + 24) &&
+                extent.ymax >= m_input.getDouble(position + 16) &&
+                extent.ymin <= m_input.getDouble(position + 32);
+    }
+
+    @Override
+    public MBRHandle next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        final long position = m_next;
+        m_next = -1L;
+        return new MBRHandle(new Extent(
+                m_input.getDouble(position + 8),
+                m_input.getDouble(position + 16),
+                m_input.getDouble(position + 24),
+                m_input.getDouble(position + 32)),
+                m_input.getLong(position));
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("remove");
+    }
+}
@@ -0,0 +1,63 @@
+package com.esri.hadoop.rtree;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.MappedInputStream;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * MappedRTreeReader searches a rtree file on the local file system mapped in memory.
+ * The nodes are decoded straight from the mapped pages, there is no stream, no copy and no decoded node.
+ * One reader can be searched by many threads at once.
+ */
+public class MappedRTreeReader
+{
+    private final MappedInputStream m_input;
+    private final RTree m_rTree;
+
+    /**
+     * Create a MappedRTreeReader
+     *
+     * @param file the local rtree file
+     */
+    public MappedRTreeReader(final File file) throws IOException
+    {
+        this(new MappedInputStream(file));
+    }
+
+    /**
+     * Create a MappedRTreeReader
+     *
+     * @param input the mapped rtree file
+     */
+    public MappedRTreeReader(final MappedInputStream input) throws IOException
+    {
+        m_input = input;
+        m_rTree = new RTree(new FSDataInputStream(input));
+    }
+
+    /**
+     * Performs a extent search over the entire tree, the iterator returns the data in the extent (contained or touch)
+     */
+    public Iterator<MBRHandle> search(final Extent extent)
+    {
+        final MappedRTreeIterator iterator = new MappedRTreeIterator(m_input, extent);
+        iterator.addNodeHandle(m_rTree.getRootHandle());
+        return iterator;
+    }
+
+    /**
+     * Reads the whole index and checks it against its checksums.
+     * The header and the presence of the whole index are checked when the reader is created.
+     *
+     * @return false if the index was written without checksums
+     * @throws org.apache.hadoop.fs.ChecksumException if the index is corrupt
+     */
+    public boolean verify() throws IOException
+    {
+        return m_rTree.verify(m_input);
+    }
+}
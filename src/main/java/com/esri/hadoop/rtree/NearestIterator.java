@@ -0,0 +1,165 @@
+package com.esri.hadoop.rtree;
+
+import com.esri.hadoop.Extent;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * NearestIterator returns the MBR handles nearest to a location first, the distance to a MBR is zero inside of it.
+ * This is a best first search, the nodes and the MBR handles are kept in a priority queue ordered by their distance
+ * to the location, a node is only read when it is closer than all the pending MBR handles.
+ * A node that cannot be read makes hasNext throw a RuntimeException caused by the IOException.
+ */
+public class NearestIterator implements Iterator<MBRHandle>
+{
+    private final RTree m_rTree;
+    private final FSDataInputStream m_stream;
+    private final double m_x;
+    private final double m_y;
+    private final PriorityQueue<Entry> m_queue;
+    private int m_remaining;
+
+    /**
+     * Construct a nearest iterator
+     *
+     * @param rTree  the rtree
+     * @param stream the input stream
+     * @param x      the location x
+     * @param y      the location y
+     * @param k      the maximum number of MBR handles to return
+     */
+    public NearestIterator(
+            final RTree rTree,
+            final FSDataInputStream stream,
+            final double x,
+            final double y,
+            final int k)
+    {
+        m_rTree = rTree;
+        m_stream = stream;
+        m_x = x;
+        m_y = y;
+        m_remaining = k;
+        m_queue = new PriorityQueue<Entry>();
+    }
+
+    /**
+     * Adds a handle to a node to visit
+     *
+     * @param nodeHandle the handle of the node
+     * @param distance   the squared distance of the node to the location
+     */
+    public void addNodeHandle(
+            final long nodeHandle,
+            final double distance)
+    {
+        m_queue.add(new Entry(distance, nodeHandle, true, 0.0, 0.0, 0.0, 0.0));
+    }
+
+    private double distance(
+            final double xmin,
+            final double ymin,
+            final double xmax,
+            final double ymax)
+    {
+        final double dx = Math.max(0.0, Math.max(xmin - m_x, m_x - xmax));
+        final double dy = Math.max(0.0, Math.max(ymin - m_y, m_y - ymax));
+        return dx * dx + dy * dy;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (m_remaining <= 0)
+        {
+            return false;
+        }
+        while (!m_queue.isEmpty() && m_queue.peek().isNode)
+        {
+            final Entry entry = m_queue.poll();
+            try
+            {
+                final PackedNode node = m_rTree.readNode(m_stream, entry.handle);
+                final double[] extents = node.extents;
+                for (int i = 0, c = 0; i < node.size; i++, c += 4)
+                {
+                    final double distance = distance(extents[c], extents[c + 1], extents[c + 2], extents[c + 3]);
+                    if (node.isLeaf)
+                    {
+                        m_queue.add(new Entry(distance, node.handles[i], false,
+                                extents[c], extents[c + 1], extents[c + 2], extents[c + 3]));
+                    }
+                    else
+                    {
+                        addNodeHandle(node.handles[i], distance);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+        return !m_queue.isEmpty();
+    }
+
+    @Override
+    public MBRHandle next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        m_remaining--;
+        final Entry entry = m_queue.poll();
+        return new MBRHandle(new Extent(entry.xmin, entry.ymin, entry.xmax, entry.ymax), entry.handle);
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * A node or a MBR handle, with its squared distance to the location
+     */
+    private static final class Entry implements Comparable<Entry>
+    {
+        private final double distance;
+        private final long handle;
+        private final boolean isNode;
+        private final double xmin;
+        private final double ymin;
+        private final double xmax;
+        private final double ymax;
+
+        private Entry(
+                final double distance,
+                final long handle,
+                final boolean isNode,
+                final double xmin,
+                final double ymin,
+                final double xmax,
+                final double ymax)
+        {
+            this.distance = distance;
+            this.handle = handle;
+            this.isNode = isNode;
+            this.xmin = xmin;
+            this.ymin = ymin;
+            this.xmax = xmax;
+            this.ymax = ymax;
+        }
+
+        @Override
+        public int compareTo(final Entry that)
+        {
+            return Double.compare(distance, that.distance);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.esri.hadoop.rtree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NodeArena keeps the nodes of a rtree being built in fixed size slots of off-heap buffers.
+ * A node is referred to by its slot number, an entry of an inner node holds the slot of its child.
+ * <p/>
+ * A slot is the entry count (int), the leaf flag (int), the size of the subtree once written (long)
+ * and then capacity entries of a reference (long) and a xmin, ymin, xmax, ymax extent (4 doubles).
+ */
+final class NodeArena
+{
+    private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int SIZE = 0;
+    private static final int LEAF = 4;
+    private static final int SUBTREE_SIZE = 8;
+    private static final int ENTRIES = 16;
+    private static final int ENTRY_SIZE = 40;
+
+    private final int m_slotSize;
+    private final int m_slotsPerChunk;
+    private final List<ByteBuffer> m_chunks = new ArrayList<ByteBuffer>();
+    private int m_count;
+
+    /**
+     * Creates an empty arena
+     *
+     * @param capacity the number of entries of a node
+     */
+    NodeArena(final int capacity)
+    {
+        m_slotSize = ENTRIES + ENTRY_SIZE * capacity;
+        m_slotsPerChunk = Math.max(1, CHUNK_SIZE / m_slotSize);
+    }
+
+    /**
+     * Allocates a node without entries
+     *
+     * @param isLeaf true for a leaf node
+     * @return the slot of the node
+     */
+    int allocate(final boolean isLeaf)
+    {
+        if (m_count == m_chunks.size() * m_slotsPerChunk)
+        {
+            m_chunks.add(ByteBuffer.allocateDirect(m_slotsPerChunk * m_slotSize).order(ByteOrder.nativeOrder()));
+        }
+        final int slot = m_count++;
+        buffer(slot).putInt(offset(slot) + SIZE, 0);
+        buffer(slot).putInt(offset(slot) + LEAF, isLeaf ? 1 : 0);
+        return slot;
+    }
+
+    private ByteBuffer buffer(final int slot)
+    {
+        return m_chunks.get(slot / m_slotsPerChunk);
+    }
+
+    private int offset(final int slot)
+    {
+        return (slot % m_slotsPerChunk) * m_slotSize;
+    }
+
+    private int offset(
+            final int slot,
+            final int entry)
+    {
+        return offset(slot) + ENTRIES + ENTRY_SIZE * entry;
+    }
+
+    /**
+     * The number of entries of a node
+     */
+    int size(final int slot)
+    {
+        return buffer(slot).getInt(offset(slot) + SIZE);
+    }
+
+    /**
+     * Sets the number of entries of a node
+     */
+    void setSize(
+            final int slot,
+            final int size)
+    {
+        buffer(slot).putInt(offset(slot) + SIZE, size);
+    }
+
+    /**
+     * Indicates if a node is a leaf node
+     */
+    boolean isLeaf(final int slot)
+    {
+        return buffer(slot).getInt(offset(slot) + LEAF) != 0;
+    }
+
+    /**
+     * The size in bytes of a node and of all its descendants once written
+     */
+    long subtreeSize(final int slot)
+    {
+        return buffer(slot).getLong(offset(slot) + SUBTREE_SIZE);
+    }
+
+    /**
+     * Sets the size in bytes of a node and of all its descendants once written
+     */
+    void setSubtreeSize(
+            final int slot,
+            final long size)
+    {
+        buffer(slot).putLong(offset(slot) + SUBTREE_SIZE, size);
+    }
+
+    /**
+     * The reference of an entry, the handle of a MBR in a leaf node or the slot of a child in an inner node
+     */
+    long reference(
+            final int slot,
+            final int entry)
+    {
+        return buffer(slot).getLong(offset(slot, entry));
+    }
+
+    /**
+     * An ordinate of the extent of an entry
+     *
+     * @param slot  the node
+     * @param entry the entry
+     * @param index 0 for xmin, 1 for ymin, 2 for xmax, 3 for ymax
+     */
+    double ordinate(
+            final int slot,
+            final int entry,
+            final int index)
+    {
+        return buffer(slot).getDouble(offset(slot, entry) + 8 + 8 * index);
+    }
+
+    /**
+     * Sets an entry of a node
+     */
+    void setEntry(
+            final int slot,
+            final int entry,
+            final long reference,
+            final double xmin,
+            final double ymin,
+            final double xmax,
+            final double ymax)
+    {
+        final ByteBuffer buffer = buffer(slot);
+        final int offset = offset(slot, entry);
+        buffer.putLong(offset, reference);
+        buffer.putDouble(offset + 8, xmin);
+        buffer.putDouble(offset + 16, ymin);
+        buffer.putDouble(offset + 24, xmax);
+        buffer.putDouble(offset + 32, ymax);
+    }
+
+    /**
+     * The number of allocated nodes
+     */
+    int count()
+    {
+        return m_count;
+    }
+
+    /**
+     * Releases the buffers, they are freed once collected
+     */
+    void release()
+    {
+        m_chunks.clear();
+        m_count = 0;
+    }
+}
@@ -0,0 +1,102 @@
+package com.esri.hadoop.rtree;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of decoded nodes keyed by node handle, bounded by a byte budget.
+ * The upper levels of the tree are hit by every search, so they stay in the cache.
+ */
+public class NodeCache
+{
+    private final long m_maxBytes;
+    private final LinkedHashMap<Long, PackedNode> m_map;
+    private long m_bytes;
+    private long m_hits;
+    private long m_misses;
+
+    /**
+     * Creates a cache
+     *
+     * @param maxBytes the byte budget of the decoded nodes
+     */
+    public NodeCache(final long maxBytes)
+    {
+        m_maxBytes = maxBytes;
+        m_map = new LinkedHashMap<Long, PackedNode>(1024, 0.75F, true);
+    }
+
+    /**
+     * Retrieves a node
+     *
+     * @param handle the node handle
+     * @return the node or null if not cached
+     */
+    public synchronized PackedNode get(final long handle)
+    {
+        final PackedNode node = m_map.get(handle);
+        if (node == null)
+        {
+            m_misses++;
+        }
+        else
+        {
+            m_hits++;
+        }
+        return node;
+    }
+
+    /**
+     * Adds a node, evicting the least recently used nodes over the budget
+     *
+     * @param handle the node handle
+     * @param node   the decoded node
+     */
+    public synchronized void put(
+            final long handle,
+            final PackedNode node)
+    {
+        final long byteSize = node.byteSize();
+        if (byteSize > m_maxBytes)
+        {
+            return;
+        }
+        final PackedNode previous = m_map.put(handle, node);
+        if (previous != null)
+        {
+            m_bytes -= previous.byteSize();
+        }
+        m_bytes += byteSize;
+        final Iterator<Map.Entry<Long, PackedNode>> iterator = m_map.entrySet().iterator();
+        while (m_bytes > m_maxBytes && iterator.hasNext())
+        {
+            m_bytes -= iterator.next().getValue().byteSize();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the bytes used by the cached nodes
+     */
+    public synchronized long getBytes()
+    {
+        return m_bytes;
+    }
+
+    /**
+     * @return the number of lookups that found the node
+     */
+    public synchronized long getHits()
+    {
+        return m_hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find the node
+     */
+    public synchronized long getMisses()
+    {
+        return m_misses;
+    }
+}
@@ -0,0 +1,121 @@
+package com.esri.hadoop.rtree;
+
+import org.apache.hadoop.fs.PositionedReadable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A node read from the stream, decoded into primitive arrays.
+ * This is immutable once read, so it can be shared by all searches.
+ */
+public final class PackedNode
+{
+    /**
+     * True if the handles are MBR handles, false if the handles are handles to nodes
+     */
+    public final boolean isLeaf;
+
+    /**
+     * The number of entries
+     */
+    public final int size;
+
+    /**
+     * The handle of each entry
+     */
+    public final long[] handles;
+
+    /**
+     * The xmin, ymin, xmax, ymax of each entry, 4 values per entry
+     */
+    public final double[] extents;
+
+    /**
+     * Constructs a packed node
+     *
+     * @param isLeaf  true for a leaf node
+     * @param handles the handles
+     * @param extents the extents, 4 values per handle
+     */
+    public PackedNode(
+            final boolean isLeaf,
+            final long[] handles,
+            final double[] extents)
+    {
+        this.isLeaf = isLeaf;
+        this.size = handles.length;
+        this.handles = handles;
+        this.extents = extents;
+    }
+
+    /**
+     * Reads a node, the entries are read in one go.
+     * This uses positional reads, the position of the stream is left untouched
+     * and concurrent reads on the same stream are safe.
+     *
+     * @param stream the input stream
+     * @param handle the handle of the node
+     * @return the node
+     * @throws IOException
+     */
+    public static PackedNode read(
+            final PositionedReadable stream,
+            final long handle) throws IOException
+    {
+        return read(stream, handle, 5);
+    }
+
+    /**
+     * Reads a node with a first read of a given length, a node that fits in it takes a single read.
+     * This uses positional reads, the position of the stream is left untouched
+     * and concurrent reads on the same stream are safe.
+     *
+     * @param stream     the input stream
+     * @param handle     the handle of the node
+     * @param readLength the length of the first read, at least the 5 bytes of the leaf flag and the size
+     * @return the node
+     * @throws IOException
+     */
+    public static PackedNode read(
+            final PositionedReadable stream,
+            final long handle,
+            final int readLength) throws IOException
+    {
+        byte[] bytes = new byte[Math.max(5, readLength)];
+        stream.readFully(handle, bytes, 0, bytes.length);
+        final boolean isLeaf = bytes[0] != 0;
+        final int size = ByteBuffer.wrap(bytes, 1, 4).getInt();
+        if (5 + 40 * size > bytes.length)
+        {
+            final int length = bytes.length;
+            bytes = Arrays.copyOf(bytes, 5 + 40 * size);
+            stream.readFully(handle + length, bytes, length, bytes.length - length);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 5, 40 * size);
+        final long[] handles = new long[size];
+        final double[] extents = new double[4 * size];
+        for (int i = 0, c = 0; i < size; i++)
+        {
+            handles[i] = buffer.getLong();
+            extents[c++] = buffer.getDouble();
+            extents[c++] = buffer.getDouble();
+            extents[c++] = buffer.getDouble();
+            extents[c++] = buffer.getDouble();
+        }
+        return new PackedNode(isLeaf, handles, extents);
+    }
+
+    /**
+     * The approximate heap size of this node
+     *
+     * @return the size in bytes
+     */
+    public long byteSize()
+    {
+        // object headers, fields and array headers plus 8 bytes per handle and 32 bytes per extent
+        return 64L + 40L * size;
+    }
+}
@@ -1,12 +1,22 @@
 package com.esri.hadoop.rtree;
 
+import com.esri.hadoop.ChecksumOutputStream;
+import com.esri.hadoop.Checksums;
 import com.esri.hadoop.Extent;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.PositionedReadable;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * The ubiquitous RTree
@@ -15,11 +25,64 @@ import java.util.Iterator;
 
 public class RTree
 {
+    /**
+     * The first int of a versioned rtree file, the first int of the original format is the node low size
+     */
+    public static final int MAGIC = 0x46535254;
+
+    /**
+     * The version of the header written by this implementation, it follows the magic number and is followed by
+     * the node sizes, the body length, the block size and the header checksum.
+     * The body is followed by the block checksums, see Checksums.
+     * Files without magic number have no checksums.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The size of the versioned header
+     */
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * Guttman's insertion, the subtree needing the least area enlargement and the quadratic split
+     */
+    public static final int STRATEGY_QUADRATIC = 1;
+
+    /**
+     * The R*-tree insertion, the subtree needing the least overlap enlargement above the leaves,
+     * the split on the axis of least margin with the least overlap, and the forced reinsertion
+     * of the entries farthest from the center of an overflowing node
+     */
+    public static final int STRATEGY_RSTAR = 2;
+
+    /**
+     * Guttman's insertion with the linear split, the seeds are the pair of entries the farthest apart
+     * along an axis relative to the width of all entries on that axis, the other entries go to the group
+     * needing the least area enlargement in one pass
+     */
+    public static final int STRATEGY_LINEAR = 3;
+
+    /**
+     * Guttman's insertion with the Ang-Tan linear split, each entry goes to the side of the node it is
+     * closest to along x and along y, the split is on the axis with the most even groups,
+     * then the least overlap, then the least area
+     */
+    public static final int STRATEGY_ANG_TAN = 4;
+
+    /**
+     * The fraction of the entries of an overflowing node reinserted by the R*-tree strategy
+     */
+    private static final double REINSERT_FRACTION = 0.3;
+
     private Node m_root;        //the root node
     private int m_nodeLowSize; //the minimum size of a node
     private int m_nodeHighSize;//the maximum size of a node
     private long m_rootHandle;
     private FSDataInputStream m_stream;
+    private NodeCache m_cache;
+    private long m_bodyLength;  //the body length of a checksummed file
+    private int m_blockSize;    //the block size of a checksummed file, 0 without checksums
+    private int m_strategy = STRATEGY_QUADRATIC;
 
     /**
      * Construct an RTree using the given object database as storage
@@ -44,11 +107,46 @@ public class RTree
      * @throws IOException
      */
     public RTree(FSDataInputStream is) throws IOException
+    {
+        this(is, 0L);
+    }
+
+    /**
+     * Constructs the RTree using a stream, with a cache of the decoded nodes shared by all searches.
+     *
+     * @param is        the input stream
+     * @param cacheSize the byte budget of the node cache, zero for no cache
+     * @throws IOException
+     */
+    public RTree(
+            final FSDataInputStream is,
+            final long cacheSize) throws IOException
     {
         m_stream = is;
+        m_cache = cacheSize > 0 ? new NodeCache(cacheSize) : null;
         read(is);
     }
 
+    /**
+     * Retrieves the node cache
+     *
+     * @return the node cache, null if there is none
+     */
+    public NodeCache getNodeCache()
+    {
+        return m_cache;
+    }
+
+    /**
+     * Retrieves the handle of the root node
+     *
+     * @return the position of the root node in the stream
+     */
+    public long getRootHandle()
+    {
+        return m_rootHandle;
+    }
+
     /**
      * Release the rtree
      */
@@ -82,19 +180,132 @@ public class RTree
     }
 
     /**
-     * Reads the extent from the input stream
+     * Searches many extents at once, the tree is traversed once and a node is only read
+     * if it intersects at least one of the extents.
+     * Executes searchFunction(query, MBRHandle) on all data in each extent (contained or touch),
+     * a MBR handle in many extents is evaluated once per extent.
+     *
+     * @param extents        the extents
+     * @param searchFunction the callback, with the index of the extent in the list
+     * @throws IOException
+     */
+    public void search(
+            final List<Extent> extents,
+            final IBatchSearchFunction searchFunction) throws IOException
+    {
+        final Extent[] queries = extents.toArray(new Extent[extents.size()]);
+        final int[] active = new int[queries.length];
+        for (int q = 0; q < active.length; q++)
+        {
+            active[q] = q;
+        }
+        search(queries, active, active.length, m_rootHandle, searchFunction);
+    }
+
+    /**
+     * Searches a node with the extents intersecting it
+     */
+    private void search(
+            final Extent[] queries,
+            final int[] active,
+            final int count,
+            final long handle,
+            final IBatchSearchFunction searchFunction) throws IOException
+    {
+        final PackedNode node = readNode(m_stream, handle);
+        final double[] extents = node.extents;
+        final int[] childActive = new int[count];
+        for (int i = 0, c = 0; i < node.size; i++, c += 4)
+        {
+            int childCount = 0;
+            for (int a = 0; a < count; a++)
+            {
+                final Extent extent = queries[active[a]];
+                if (extent.xmax >= extents[c] && extent.xmin <= extents[c + 2] &&
+                        extent.ymax >= extents[c + 1] && extent.ymin <= extents[c + 3])
+                {
+                    childActive[childCount++] = active[a];
+                }
+            }
+            if (childCount == 0)
+            {
+                continue;
+            }
+            if (node.isLeaf)
+            {
+                final MBRHandle mbrHandle = new MBRHandle(
+                        new Extent(extents[c], extents[c + 1], extents[c + 2], extents[c + 3]),
+                        node.handles[i]);
+                for (int a = 0; a < childCount; a++)
+                {
+                    searchFunction.evaluate(childActive[a], mbrHandle);
+                }
+            }
+            else
+            {
+                search(queries, childActive, childCount, node.handles[i], searchFunction);
+            }
+        }
+    }
+
+    /**
+     * Searches the MBR handles nearest to a location, the iterator returns the nearest first
+     * and only reads the nodes needed to return the next MBR handle.
+     *
+     * @param x the location x
+     * @param y the location y
+     * @param k the maximum number of MBR handles to return
+     * @return the iterator
+     */
+    public Iterator<MBRHandle> nearest(
+            final double x,
+            final double y,
+            final int k)
+    {
+        final NearestIterator iterator = new NearestIterator(this, m_stream, x, y, k);
+        iterator.addNodeHandle(m_rootHandle, 0.0);
+        return iterator;
+    }
+
+    /**
+     * Reads a node, from the cache if there is one
      *
-     * @param is the input
-     * @return the extent read
+     * @param stream the input stream
+     * @param handle the handle of the node
+     * @return the decoded node
      * @throws IOException
      */
-    private Extent readExtent(FSDataInputStream is) throws IOException
+    public PackedNode readNode(
+            final FSDataInputStream stream,
+            final long handle) throws IOException
     {
-        final double xmin = is.readDouble();
-        final double ymin = is.readDouble();
-        final double xmax = is.readDouble();
-        final double ymax = is.readDouble();
-        return new Extent(xmin, ymin, xmax, ymax);
+        if (m_cache == null)
+        {
+            return PackedNode.read(stream, handle, nodeReadLength(handle));
+        }
+        PackedNode node = m_cache.get(handle);
+        if (node == null)
+        {
+            node = PackedNode.read(stream, handle, nodeReadLength(handle));
+            m_cache.put(handle, node);
+        }
+        return node;
+    }
+
+    /**
+     * The length to read for a node so a full node takes a single read, clipped to the end of the body.
+     * The end of the body of a file without checksums is not known, its nodes are read head first.
+     *
+     * @param handle the handle of the node
+     * @return the length in bytes
+     */
+    int nodeReadLength(final long handle)
+    {
+        if (m_bodyLength == 0)
+        {
+            return 5;
+        }
+        return (int) Math.max(5L, Math.min(5L + 40L * m_nodeHighSize, m_rootHandle + m_bodyLength - handle));
     }
 
     /**
@@ -113,22 +324,53 @@ public class RTree
             final Extent extent,
             final long handle) throws IOException
     {
-        stream.seek(handle);
-        final boolean isLeaf = stream.readBoolean();
-        final int size = stream.readInt();
-        for (int i = 0; i < size; i++)
+        if (m_cache != null)
         {
-            final long dataHandle = stream.readLong();
-            final Extent dataExtent = readExtent(stream);
-            if (!dataExtent.isDisjoint(extent))
+            searchNode(iterator, extent, readNode(stream, handle));
+            return;
+        }
+        // decode in place from the iterator buffer
+        final ByteBuffer buffer = iterator.readNode(stream, handle);
+        final boolean isLeaf = buffer.get(0) != 0;
+        final int size = buffer.getInt(1);
+        for (int i = 0, index = 5; i < size; i++, index += 40)
+        {
+            final double xmin = buffer.getDouble(index + 8);
+            final double ymin = buffer.getDouble(index + 16);
+            final double xmax = buffer.getDouble(index + 24);
+            final double ymax = buffer.getDouble(index + 32);
+            if (extent.xmax >= xmin && extent.xmin <= xmax && extent.ymax >= ymin && extent.ymin <= ymax)
             {
                 if (isLeaf)
                 {
-                    iterator.addMBRHandle(new MBRHandle(dataExtent, dataHandle));
+                    iterator.addMBRHandle(buffer.getLong(index), xmin, ymin, xmax, ymax);
+                }
+                else
+                {
+                    iterator.addNodeHandle(buffer.getLong(index));
+                }
+            }
+        }
+    }
+
+    private void searchNode(
+            final RTreeIterator iterator,
+            final Extent extent,
+            final PackedNode node)
+    {
+        final double[] extents = node.extents;
+        for (int i = 0, c = 0; i < node.size; i++, c += 4)
+        {
+            if (extent.xmax >= extents[c] && extent.xmin <= extents[c + 2] &&
+                    extent.ymax >= extents[c + 1] && extent.ymin <= extents[c + 3])
+            {
+                if (node.isLeaf)
+                {
+                    iterator.addMBRHandle(node.handles[i], extents[c], extents[c + 1], extents[c + 2], extents[c + 3]);
                 }
                 else
                 {
-                    iterator.addNodeHandle(dataHandle);
+                    iterator.addNodeHandle(node.handles[i]);
                 }
             }
         }
@@ -154,6 +396,30 @@ public class RTree
         return this.m_nodeHighSize;
     }
 
+    /**
+     * Retrieves the insertion strategy
+     *
+     * @return STRATEGY_QUADRATIC, STRATEGY_RSTAR, STRATEGY_LINEAR or STRATEGY_ANG_TAN
+     */
+    public int getStrategy()
+    {
+        return m_strategy;
+    }
+
+    /**
+     * Sets the insertion strategy, the bulk load is not affected
+     *
+     * @param strategy STRATEGY_QUADRATIC, STRATEGY_RSTAR, STRATEGY_LINEAR or STRATEGY_ANG_TAN
+     */
+    public void setStrategy(final int strategy)
+    {
+        if (strategy < STRATEGY_QUADRATIC || strategy > STRATEGY_ANG_TAN)
+        {
+            throw new IllegalArgumentException("Unsupported rtree strategy " + strategy);
+        }
+        m_strategy = strategy;
+    }
+
     /**
      * Inserts a data element
      *
@@ -161,6 +427,11 @@ public class RTree
      */
     public void insert(MBRHandle data)
     {
+        if (m_strategy == STRATEGY_RSTAR)
+        {
+            insertRStar(data, 0, new boolean[64]);
+            return;
+        }
 
         Node node = m_root;
         Node rNode = node.insert(data);
@@ -176,6 +447,369 @@ public class RTree
         }
     }
 
+    /**
+     * Inserts an entry per the R*-tree, an overflowing node has some of its entries reinserted
+     * the first time its level overflows during the insertion of a MBR handle, it is split otherwise.
+     *
+     * @param data        a MBR handle, or a node
+     * @param level       the height of the node to insert the entry in, 0 for a leaf node
+     * @param reinserted  the levels which already had entries reinserted
+     */
+    private void insertRStar(
+            final RTreeData data,
+            final int level,
+            final boolean[] reinserted)
+    {
+        final Extent extent = data.getExtent();
+        final List<Node> path = new ArrayList<Node>();
+        Node node = m_root;
+        int height = height(m_root);
+        path.add(node);
+        while (height > level)
+        {
+            node = chooseSubtreeRStar(node, extent);
+            path.add(node);
+            height--;
+        }
+        node.insertNonFull(data);
+        for (final Node pathNode : path)
+        {
+            pathNode.m_extent.unionInPlace(extent);
+        }
+
+        // overflow treatment from the bottom up
+        for (int i = path.size() - 1; i >= 0; i--)
+        {
+            final Node pathNode = path.get(i);
+            if (pathNode.m_data.size() <= m_nodeHighSize)
+            {
+                return;
+            }
+            final int pathLevel = level + path.size() - 1 - i;
+            if (i > 0 && !reinserted[pathLevel])
+            {
+                reinserted[pathLevel] = true;
+                reinsert(pathNode, path.subList(0, i), pathLevel, reinserted);
+                return;
+            }
+            final Node sibling = pathNode.splitRStar();
+            if (i == 0)
+            {
+                final Node newRoot = new InnerNode();
+                newRoot.insertNonFull(pathNode);
+                newRoot.insertNonFull(sibling);
+                m_root = newRoot;
+            }
+            else
+            {
+                path.get(i - 1).insertNonFull(sibling);
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of an overflowing node farthest from its center and inserts them again,
+     * starting with the closest of them
+     *
+     * @param node       the overflowing node
+     * @param ancestors  the ancestors of the node, from the root
+     * @param level      the height of the node
+     * @param reinserted the levels which already had entries reinserted
+     */
+    private void reinsert(
+            final Node node,
+            final List<Node> ancestors,
+            final int level,
+            final boolean[] reinserted)
+    {
+        final Extent extent = node.getExtent();
+        final double cx = (extent.xmin + extent.xmax) * 0.5;
+        final double cy = (extent.ymin + extent.ymax) * 0.5;
+        final List<RTreeData> entries = node.entryList();
+        Collections.sort(entries, new Comparator<RTreeData>()
+        {
+            @Override
+            public int compare(
+                    final RTreeData o1,
+                    final RTreeData o2)
+            {
+                return Double.compare(distance(o2.getExtent(), cx, cy), distance(o1.getExtent(), cx, cy));
+            }
+        });
+        final int count = Math.max(1, (int) (REINSERT_FRACTION * m_nodeHighSize));
+        final List<RTreeData> removed = new ArrayList<RTreeData>(entries.subList(0, count));
+        node.m_data = new ArrayList<RTreeData>(entries.subList(count, entries.size()));
+        node.recalcArea();
+        for (int i = ancestors.size() - 1; i >= 0; i--)
+        {
+            ancestors.get(i).recalcArea();
+        }
+        for (int i = removed.size() - 1; i >= 0; i--)
+        {
+            insertRStar(removed.get(i), level, reinserted);
+        }
+    }
+
+    private static double distance(
+            final Extent extent,
+            final double x,
+            final double y)
+    {
+        final double dx = (extent.xmin + extent.xmax) * 0.5 - x;
+        final double dy = (extent.ymin + extent.ymax) * 0.5 - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * The height of a node, 0 for a leaf node
+     */
+    private static int height(final Node node)
+    {
+        int height = 0;
+        Node child = node;
+        while (!child.isLeafNode())
+        {
+            child = (Node) child.m_data.get(0);
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * The child of an inner node to insert an extent in.
+     * Above the leaves, the child needing the least overlap enlargement with its siblings,
+     * then the least area enlargement, then the smallest area.
+     * Higher up, the child needing the least area enlargement, then the smallest area.
+     */
+    private static Node chooseSubtreeRStar(
+            final Node node,
+            final Extent extent)
+    {
+        final boolean aboveLeaves = ((Node) node.m_data.get(0)).isLeafNode();
+        Node best = null;
+        double bestOverlap = Double.POSITIVE_INFINITY;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (final Object objNode : node.m_data)
+        {
+            final Node child = (Node) objNode;
+            final Extent childExtent = child.getExtent();
+            final Extent union = childExtent.union(extent);
+            final double area = childExtent.area();
+            final double enlargement = union.area() - area;
+            double overlap = 0.0;
+            if (aboveLeaves)
+            {
+                for (final Object objOther : node.m_data)
+                {
+                    if (objOther != child)
+                    {
+                        final Extent otherExtent = ((Node) objOther).getExtent();
+                        overlap += overlapArea(union, otherExtent) - overlapArea(childExtent, otherExtent);
+                    }
+                }
+            }
+            if (overlap < bestOverlap
+                    || (overlap == bestOverlap && enlargement < bestEnlargement)
+                    || (overlap == bestOverlap && enlargement == bestEnlargement && area < bestArea))
+            {
+                best = child;
+                bestOverlap = overlap;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The extent of entries
+     */
+    private static Extent extent(final List<RTreeData> entries)
+    {
+        final Extent extent = Extent.NULL_EXTENT.clone();
+        for (final RTreeData data : entries)
+        {
+            extent.unionInPlace(data.getExtent());
+        }
+        return extent;
+    }
+
+    /**
+     * The area of the intersection of two extents
+     */
+    private static double overlapArea(
+            final Extent a,
+            final Extent b)
+    {
+        final double width = Math.min(a.xmax, b.xmax) - Math.max(a.xmin, b.xmin);
+        final double height = Math.min(a.ymax, b.ymax) - Math.max(a.ymin, b.ymin);
+        return width > 0.0 && height > 0.0 ? width * height : 0.0;
+    }
+
+    /**
+     * Orders entries by their xmin, ymin, xmax or ymax
+     */
+    private static final class BoundComparator implements Comparator<RTreeData>
+    {
+        private final int m_bound;
+
+        private BoundComparator(final int bound)
+        {
+            m_bound = bound;
+        }
+
+        private static double bound(
+                final Extent extent,
+                final int bound)
+        {
+            switch (bound)
+            {
+                case 0:
+                    return extent.xmin;
+                case 1:
+                    return extent.ymin;
+                case 2:
+                    return extent.xmax;
+                default:
+                    return extent.ymax;
+            }
+        }
+
+        @Override
+        public int compare(
+                final RTreeData o1,
+                final RTreeData o2)
+        {
+            return Double.compare(bound(o1.getExtent(), m_bound), bound(o2.getExtent(), m_bound));
+        }
+    }
+
+    /**
+     * The extents of the first k entries, for k from 0 to the number of entries
+     */
+    private static Extent[] prefixExtents(final RTreeData[] entries)
+    {
+        final Extent[] extents = new Extent[entries.length + 1];
+        extents[0] = Extent.NULL_EXTENT.clone();
+        for (int k = 0; k < entries.length; k++)
+        {
+            extents[k + 1] = extents[k].union(entries[k].getExtent());
+        }
+        return extents;
+    }
+
+    /**
+     * The extents of the entries from k on, for k from 0 to the number of entries
+     */
+    private static Extent[] suffixExtents(final RTreeData[] entries)
+    {
+        final Extent[] extents = new Extent[entries.length + 1];
+        extents[entries.length] = Extent.NULL_EXTENT.clone();
+        for (int k = entries.length - 1; k >= 0; k--)
+        {
+            extents[k] = extents[k + 1].union(entries[k].getExtent());
+        }
+        return extents;
+    }
+
+    /**
+     * Bulk loads the tree using the Sort-Tile-Recursive (STR) algorithm.
+     * The entries are sorted by the x of their center, tiled into vertical slices,
+     * each slice is sorted by the y of the center and packed into full nodes.
+     * The same is then done level after level with the nodes until the root is reached.
+     * This replaces the one at a time insertion, so the tree has to be empty.
+     *
+     * @param list all the MBRs and handles to index
+     */
+    public void bulkLoad(final List<MBRHandle> list)
+    {
+        if (m_root.m_data.size() > 0)
+        {
+            throw new IllegalStateException("Bulk load requires an empty tree");
+        }
+        List<RTreeData> entries = new ArrayList<RTreeData>(list);
+        boolean isLeaf = true;
+        while (entries.size() > m_nodeHighSize)
+        {
+            entries = pack(entries, isLeaf);
+            isLeaf = false;
+        }
+        m_root = isLeaf ? new LeafNode() : new InnerNode();
+        for (final RTreeData data : entries)
+        {
+            m_root.insertNonFull(data);
+        }
+    }
+
+    /**
+     * Packs one level of the tree
+     *
+     * @param entries the entries of the level, the list is sorted in place
+     * @param isLeaf  true if the entries are MBR handles, false if the entries are nodes
+     * @return the packed nodes, which are the entries of the level above
+     */
+    private List<RTreeData> pack(
+            final List<RTreeData> entries,
+            final boolean isLeaf)
+    {
+        final int size = entries.size();
+        final int nodeCount = (size + m_nodeHighSize - 1) / m_nodeHighSize;
+        final int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        final int sliceSize = sliceCount * m_nodeHighSize;
+
+        final List<RTreeData> nodes = new ArrayList<RTreeData>(nodeCount);
+        Collections.sort(entries, X_COMPARATOR);
+        for (int sliceStart = 0; sliceStart < size; sliceStart += sliceSize)
+        {
+            final List<RTreeData> slice = entries.subList(sliceStart, Math.min(sliceStart + sliceSize, size));
+            Collections.sort(slice, Y_COMPARATOR);
+            Node node = null;
+            for (final RTreeData data : slice)
+            {
+                if (node == null || node.m_data.size() == m_nodeHighSize)
+                {
+                    node = isLeaf ? new LeafNode() : new InnerNode();
+                    nodes.add(node);
+                }
+                node.insertNonFull(data);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Orders entries by the x of their center
+     */
+    private static final Comparator<RTreeData> X_COMPARATOR = new Comparator<RTreeData>()
+    {
+        @Override
+        public int compare(
+                final RTreeData o1,
+                final RTreeData o2)
+        {
+            final Extent e1 = o1.getExtent();
+            final Extent e2 = o2.getExtent();
+            return Double.compare(e1.xmin + e1.xmax, e2.xmin + e2.xmax);
+        }
+    };
+
+    /**
+     * Orders entries by the y of their center
+     */
+    private static final Comparator<RTreeData> Y_COMPARATOR = new Comparator<RTreeData>()
+    {
+        @Override
+        public int compare(
+                final RTreeData o1,
+                final RTreeData o2)
+        {
+            final Extent e1 = o1.getExtent();
+            final Extent e2 = o2.getExtent();
+            return Double.compare(e1.ymin + e1.ymax, e2.ymin + e2.ymax);
+        }
+    };
+
     /**
      * Writes to stream
      *
@@ -184,18 +818,83 @@ public class RTree
      */
     public void write(final FSDataOutputStream os) throws IOException
     {
-        os.writeInt(m_nodeLowSize);
-        os.writeInt(m_nodeHighSize);
+        final long start = os.getPos() + HEADER_SIZE;
+        final long end = m_root.calculateHandles(start);
+        writeHeader(os, m_nodeLowSize, m_nodeHighSize, end - start);
 
-        m_root.calculateHandles(os.getPos());
-        m_root.write(os);
+        final ChecksumOutputStream body = new ChecksumOutputStream(os, Checksums.BLOCK_SIZE);
+        m_root.write(new FSDataOutputStream(body, null, start));
+        body.finish();
     }
 
     public void read(final FSDataInputStream os) throws IOException
     {
-        m_nodeLowSize = os.readInt();
-        m_nodeHighSize = os.readInt();
-        m_rootHandle = os.getPos();
+        final long start = os.getPos();
+        final int first = os.readInt();
+        if (first == MAGIC)
+        {
+            final int version = os.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported rtree version " + version);
+            }
+            m_nodeLowSize = os.readInt();
+            m_nodeHighSize = os.readInt();
+            m_bodyLength = os.readLong();
+            m_blockSize = os.readInt();
+            Checksums.verifyHeader(os, start);
+            m_rootHandle = os.getPos();
+            Checksums.readTrailer(os, m_rootHandle, m_bodyLength, m_blockSize);
+        }
+        else
+        {
+            m_nodeLowSize = first;
+            m_nodeHighSize = os.readInt();
+            m_rootHandle = os.getPos();
+        }
+    }
+
+    /**
+     * Reads the whole body of the rtree and checks it against its block checksums
+     *
+     * @param stream the input stream
+     * @return false if the rtree was written without checksums
+     * @throws IOException
+     */
+    public boolean verify(final PositionedReadable stream) throws IOException
+    {
+        if (m_blockSize == 0)
+        {
+            return false;
+        }
+        Checksums.verifyBody(stream, m_rootHandle, m_bodyLength, m_blockSize);
+        return true;
+    }
+
+    /**
+     * Writes the versioned header, HEADER_SIZE bytes
+     *
+     * @param os           the output stream
+     * @param nodeLowSize  the minimum size of a node
+     * @param nodeHighSize the maximum size of a node
+     * @param bodyLength   the size of all the nodes
+     * @throws IOException
+     */
+    static void writeHeader(
+            final FSDataOutputStream os,
+            final int nodeLowSize,
+            final int nodeHighSize,
+            final long bodyLength) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+        final DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(nodeLowSize);
+        header.writeInt(nodeHighSize);
+        header.writeLong(bodyLength);
+        header.writeInt(Checksums.BLOCK_SIZE);
+        Checksums.writeHeader(os, bytes.toByteArray());
     }
 
     /**
@@ -326,7 +1025,7 @@ public class RTree
         public Node insert(MBRHandle data)
         {
 
-            double area, darea, minarea = 1e60, iarea = 1e60, increase;
+            double area, darea, minarea = 1e60, minincrease = 1e60, increase;
             Node inode = null;
             if (m_data.size() == 0)
             {
@@ -341,24 +1040,18 @@ public class RTree
                 Node nodeData = (Node) objNode;
                 Extent nodeExtent = nodeData.getExtent();
 
-                saveExtent.union(nodeExtent);
+                saveExtent.unionInPlace(nodeExtent);
 
+                // the least enlargement, then the least area
                 area = nodeExtent.area();
                 darea = saveExtent.area();
                 increase = darea - area;
-                if (increase < minarea)
+                if (increase < minincrease || (increase == minincrease && area < minarea))
                 {
                     inode = nodeData;
+                    minincrease = increase;
                     minarea = area;
                 }
-                else if (increase == minarea)
-                {
-                    if (area < minarea)
-                    {
-                        inode = nodeData;
-                        minarea = area;
-                    }
-                }
             }
 
             //TODO:what if inode is null
@@ -369,6 +1062,8 @@ public class RTree
             Node rNode = inode.insert(data);
             if (rNode != null)
             {
+                // the data may be in the split child, this node widens to it before taking the new child
+                widen(inode);
                 Node sNode = insert1(rNode);
                 return sNode;
             }
@@ -589,11 +1284,348 @@ public class RTree
          */
         abstract public Node createNode();
 
+        /**
+         * Splits an overflowing node per the R*-tree.
+         * The split axis is the one whose distributions have the least margin sum,
+         * the distribution on that axis is the one with the least overlap, then the least area.
+         * This node keeps the first group, the second group goes in a new node.
+         *
+         * @return the new node
+         */
+        public Node splitRStar()
+        {
+            final int count = m_data.size();
+            final int minimum = minimumGroupSize(count);
+            final RTreeData[] entries = entryList().toArray(new RTreeData[count]);
+
+            // CHOOSE SPLIT AXIS
+            int axis = 0;
+            double minMargin = Double.POSITIVE_INFINITY;
+            for (int a = 0; a < 2; a++)
+            {
+                double margin = 0.0;
+                for (int bound = a; bound < 4; bound += 2)
+                {
+                    Arrays.sort(entries, new BoundComparator(bound));
+                    final Extent[] prefix = prefixExtents(entries);
+                    final Extent[] suffix = suffixExtents(entries);
+                    for (int k = minimum; k <= count - minimum; k++)
+                    {
+                        margin += prefix[k].width() + prefix[k].height() + suffix[k].width() + suffix[k].height();
+                    }
+                }
+                if (margin < minMargin)
+                {
+                    minMargin = margin;
+                    axis = a;
+                }
+            }
+
+            // CHOOSE SPLIT INDEX
+            RTreeData[] best = null;
+            int bestK = minimum;
+            double minOverlap = Double.POSITIVE_INFINITY;
+            double minArea = Double.POSITIVE_INFINITY;
+            for (int bound = axis; bound < 4; bound += 2)
+            {
+                final RTreeData[] sorted = entries.clone();
+                Arrays.sort(sorted, new BoundComparator(bound));
+                final Extent[] prefix = prefixExtents(sorted);
+                final Extent[] suffix = suffixExtents(sorted);
+                for (int k = minimum; k <= count - minimum; k++)
+                {
+                    final double overlap = overlapArea(prefix[k], suffix[k]);
+                    final double area = prefix[k].area() + suffix[k].area();
+                    if (overlap < minOverlap || (overlap == minOverlap && area < minArea))
+                    {
+                        best = sorted;
+                        bestK = k;
+                        minOverlap = overlap;
+                        minArea = area;
+                    }
+                }
+            }
+
+            m_data = new ArrayList<RTreeData>();
+            m_extent.set(Extent.NULL_EXTENT);
+            final Node node = createNode();
+            for (int k = 0; k < count; k++)
+            {
+                if (k < bestK)
+                {
+                    insertNonFull(best[k]);
+                }
+                else
+                {
+                    node.insertNonFull(best[k]);
+                }
+            }
+            return node;
+        }
+
+        /**
+         * Splits the node and then inserts the data, with the split of the strategy of the tree.
+         *
+         * @param passedData the entry which does not fit
+         * @return the new node
+         */
+        public Node splitAndInsert(RTreeData passedData)
+        {
+            switch (m_strategy)
+            {
+                case STRATEGY_LINEAR:
+                    return splitLinear(passedData);
+                case STRATEGY_ANG_TAN:
+                    return splitAngTan(passedData);
+                default:
+                    return splitQuadratic(passedData);
+            }
+        }
+
+        /**
+         * Takes all the entries out of this node, with the passed one at the end
+         */
+        private RTreeData[] takeEntries(final RTreeData passedData)
+        {
+            final List<RTreeData> list = entryList();
+            list.add(passedData);
+            final RTreeData[] entries = list.toArray(new RTreeData[list.size()]);
+            m_data = new ArrayList<RTreeData>();
+            m_extent.set(Extent.NULL_EXTENT);
+            return entries;
+        }
+
+        /**
+         * The entries of this node in a new typed list
+         */
+        private List<RTreeData> entryList()
+        {
+            final List<RTreeData> entries = new ArrayList<RTreeData>(m_data.size() + 1);
+            for (final Object entry : m_data)
+            {
+                entries.add((RTreeData) entry);
+            }
+            return entries;
+        }
+
+        /**
+         * The minimum number of entries of each group of a split
+         */
+        private int minimumGroupSize(final int count)
+        {
+            return Math.max(1, Math.min(getNodeMinimumSize(), count / 2));
+        }
+
+        /**
+         * Splits the node and then inserts the data.
+         * See Algorithm Linear Split from Guttman's paper.
+         *
+         * @param passedData the entry which does not fit
+         * @return the new node
+         */
+        public Node splitLinear(final RTreeData passedData)
+        {
+            final RTreeData[] entries = takeEntries(passedData);
+            final int count = entries.length;
+
+            // LINEAR PICK SEEDS, per axis the highest low side and the lowest high side
+            int seed1 = 0;
+            int seed2 = 1;
+            double maxSeparation = Double.NEGATIVE_INFINITY;
+            for (int axis = 0; axis < 2; axis++)
+            {
+                int highestLow = 0;
+                int lowestHigh = 0;
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < count; i++)
+                {
+                    final Extent extent = entries[i].getExtent();
+                    final double low = axis == 0 ? extent.xmin : extent.ymin;
+                    final double high = axis == 0 ? extent.xmax : extent.ymax;
+                    final Extent highestLowExtent = entries[highestLow].getExtent();
+                    final Extent lowestHighExtent = entries[lowestHigh].getExtent();
+                    if (low > (axis == 0 ? highestLowExtent.xmin : highestLowExtent.ymin))
+                    {
+                        highestLow = i;
+                    }
+                    if (high < (axis == 0 ? lowestHighExtent.xmax : lowestHighExtent.ymax))
+                    {
+                        lowestHigh = i;
+                    }
+                    min = Math.min(min, low);
+                    max = Math.max(max, high);
+                }
+                if (highestLow == lowestHigh)
+                {
+                    lowestHigh = highestLow == 0 ? 1 : 0;
+                }
+                final Extent highestLowExtent = entries[highestLow].getExtent();
+                final Extent lowestHighExtent = entries[lowestHigh].getExtent();
+                final double separation = axis == 0
+                        ? highestLowExtent.xmin - lowestHighExtent.xmax
+                        : highestLowExtent.ymin - lowestHighExtent.ymax;
+                final double width = max - min;
+                final double normalized = width > 0.0 ? separation / width : separation;
+                if (normalized > maxSeparation)
+                {
+                    maxSeparation = normalized;
+                    seed1 = lowestHigh;
+                    seed2 = highestLow;
+                }
+            }
+
+            // the other entries in one pass, each to the group needing the least enlargement
+            final Node jNode = createNode();
+            insertNonFull(entries[seed1]);
+            jNode.insertNonFull(entries[seed2]);
+            final int minimum = minimumGroupSize(count);
+            int remaining = count - 2;
+            for (int i = 0; i < count; i++)
+            {
+                if (i == seed1 || i == seed2)
+                {
+                    continue;
+                }
+                final Extent extent = entries[i].getExtent();
+                final boolean first;
+                if (m_data.size() + remaining == minimum)
+                {
+                    first = true;
+                }
+                else if (jNode.m_data.size() + remaining == minimum)
+                {
+                    first = false;
+                }
+                else
+                {
+                    final double d1 = m_extent.union(extent).area() - m_extent.area();
+                    final double d2 = jNode.m_extent.union(extent).area() - jNode.m_extent.area();
+                    if (d1 != d2)
+                    {
+                        first = d1 < d2;
+                    }
+                    else if (m_extent.area() != jNode.m_extent.area())
+                    {
+                        first = m_extent.area() < jNode.m_extent.area();
+                    }
+                    else
+                    {
+                        first = m_data.size() <= jNode.m_data.size();
+                    }
+                }
+                if (first)
+                {
+                    insertNonFull(entries[i]);
+                }
+                else
+                {
+                    jNode.insertNonFull(entries[i]);
+                }
+                remaining--;
+            }
+            return jNode;
+        }
+
+        /**
+         * Splits the node and then inserts the data.
+         * See the new linear node splitting algorithm from Ang and Tan's paper.
+         *
+         * @param passedData the entry which does not fit
+         * @return the new node
+         */
+        public Node splitAngTan(final RTreeData passedData)
+        {
+            final Extent nodeExtent = m_extent.clone();
+            nodeExtent.unionInPlace(passedData.getExtent());
+            final RTreeData[] entries = takeEntries(passedData);
+            final int count = entries.length;
+
+            // each entry to the closest side of the node, along x then along y
+            final List<RTreeData> left = new ArrayList<RTreeData>();
+            final List<RTreeData> right = new ArrayList<RTreeData>();
+            final List<RTreeData> bottom = new ArrayList<RTreeData>();
+            final List<RTreeData> top = new ArrayList<RTreeData>();
+            for (final RTreeData data : entries)
+            {
+                final Extent extent = data.getExtent();
+                if (extent.xmin - nodeExtent.xmin < nodeExtent.xmax - extent.xmax)
+                {
+                    left.add(data);
+                }
+                else
+                {
+                    right.add(data);
+                }
+                if (extent.ymin - nodeExtent.ymin < nodeExtent.ymax - extent.ymax)
+                {
+                    bottom.add(data);
+                }
+                else
+                {
+                    top.add(data);
+                }
+            }
+
+            // the most even split, then the least overlap, then the least area
+            final int xLargest = Math.max(left.size(), right.size());
+            final int yLargest = Math.max(bottom.size(), top.size());
+            final boolean xAxis;
+            if (xLargest != yLargest)
+            {
+                xAxis = xLargest < yLargest;
+            }
+            else
+            {
+                final Extent leftExtent = extent(left);
+                final Extent rightExtent = extent(right);
+                final Extent bottomExtent = extent(bottom);
+                final Extent topExtent = extent(top);
+                final double xOverlap = overlapArea(leftExtent, rightExtent);
+                final double yOverlap = overlapArea(bottomExtent, topExtent);
+                if (xOverlap != yOverlap)
+                {
+                    xAxis = xOverlap < yOverlap;
+                }
+                else
+                {
+                    xAxis = leftExtent.area() + rightExtent.area() <= bottomExtent.area() + topExtent.area();
+                }
+            }
+            final List<RTreeData> group1 = xAxis ? left : bottom;
+            final List<RTreeData> group2 = xAxis ? right : top;
+
+            // too few entries on one side, the entries are split by their center along the axis
+            final int minimum = minimumGroupSize(count);
+            if (group1.size() < minimum || group2.size() < minimum)
+            {
+                final int size1 = Math.max(minimum, Math.min(count - minimum, group1.size()));
+                Arrays.sort(entries, xAxis ? X_COMPARATOR : Y_COMPARATOR);
+                group1.clear();
+                group2.clear();
+                group1.addAll(Arrays.asList(entries).subList(0, size1));
+                group2.addAll(Arrays.asList(entries).subList(size1, count));
+            }
+            final Node jNode = createNode();
+            for (final RTreeData data : group1)
+            {
+                insertNonFull(data);
+            }
+            for (final RTreeData data : group2)
+            {
+                jNode.insertNonFull(data);
+            }
+            return jNode;
+        }
+
         /**
          * Splits the node and then inserts the data.
          * See Algorithm Quadratic Split from Guttman's paper.
+         *
+         * @param passedData the entry which does not fit
+         * @return the new node
          */
-        public Node splitAndInsert(RTreeData passedData)
+        public Node splitQuadratic(final RTreeData passedData)
         {
             double iarea, jarea, darea;
             double d, maxD = -1e60;
@@ -704,8 +1736,8 @@ public class RTree
             }
             iTempEnv.set(passedData.getExtent());
             iTempEnv.unionInPlace(iEnv);
-            iTempEnv.set(passedData.getExtent());
-            iTempEnv.unionInPlace(jEnv);
+            jTempEnv.set(passedData.getExtent());
+            jTempEnv.unionInPlace(jEnv);
 
             d1 = iEnv.area() - iTempEnv.area();
             d2 = jEnv.area() - jTempEnv.area();
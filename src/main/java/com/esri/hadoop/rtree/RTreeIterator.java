@@ -2,22 +2,34 @@ package com.esri.hadoop.rtree;
 
 import com.esri.hadoop.Extent;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.PositionedReadable;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Stack;
+import java.util.NoSuchElementException;
 
 /**
  * RTreeIterator is used to search over the rtree,
- * in conjunction with an input stream
+ * in conjunction with an input stream.
+ * The pending node handles and data handles are kept in unsynchronized primitive array stacks,
+ * a MBRHandle is only created when returned by next().
+ * A node that cannot be read makes hasNext throw a RuntimeException caused by the IOException.
  */
 public class RTreeIterator implements Iterator<MBRHandle>
 {
 
     private FSDataInputStream m_stream;
     private Extent m_extent;
-    private Stack<Long> m_nodeHandles;
-    private Stack<MBRHandle> m_dataHandles;
+    private long[] m_nodeHandles;
+    private int m_nodeCount;
+    private long[] m_dataHandles;
+    private double[] m_dataExtents;
+    private int m_dataCount;
     private RTree m_rTree;
+    private byte[] m_bytes;
+    private ByteBuffer m_buffer;
 
     /**
      * Construct a search iterator
@@ -32,41 +44,49 @@ public class RTreeIterator implements Iterator<MBRHandle>
     {
         m_stream = stream;
         m_extent = extent;
-        m_nodeHandles = new Stack<Long>();
-        m_dataHandles = new Stack<MBRHandle>();
+        m_nodeHandles = new long[64];
+        m_dataHandles = new long[64];
+        m_dataExtents = new double[4 * 64];
         m_rTree = rTree;
+        // a full node fits, so a node is fetched with a single read
+        m_bytes = new byte[5 + 40 * rTree.getNodeMaximumSize()];
+        m_buffer = ByteBuffer.wrap(m_bytes);
     }
 
     @Override
     public boolean hasNext()
     {
-        if (!m_dataHandles.isEmpty())
+        while (m_dataCount == 0)
         {
-            return true;
-        }
-        if (m_nodeHandles.isEmpty())
-        {
-            return false;
-        }
-        final long handle = m_nodeHandles.pop();
-        try
-        {
-            m_rTree.searchNode(this, m_stream, m_extent, handle);
-        }
-        finally
-        {
-            return hasNext();
+            if (m_nodeCount == 0)
+            {
+                return false;
+            }
+            final long handle = m_nodeHandles[--m_nodeCount];
+            try
+            {
+                m_rTree.searchNode(this, m_stream, m_extent, handle);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
         }
+        return true;
     }
 
     @Override
     public MBRHandle next()
     {
-        // if (hasNext())
-        // {
-        return m_dataHandles.pop();
-        // }
-        // return null;
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        m_dataCount--;
+        final int c = 4 * m_dataCount;
+        return new MBRHandle(
+                new Extent(m_dataExtents[c], m_dataExtents[c + 1], m_dataExtents[c + 2], m_dataExtents[c + 3]),
+                m_dataHandles[m_dataCount]);
     }
 
     @Override
@@ -83,7 +103,37 @@ public class RTreeIterator implements Iterator<MBRHandle>
      */
     public void addMBRHandle(MBRHandle mbrHandle)
     {
-        m_dataHandles.push(mbrHandle);
+        final Extent extent = mbrHandle.extent;
+        addMBRHandle(mbrHandle.handle, extent.xmin, extent.ymin, extent.xmax, extent.ymax);
+    }
+
+    /**
+     * This is used internally. Adds the handle and extent of a MBRHandle to the queue without creating it.
+     *
+     * @param handle the handle to the record
+     * @param xmin   the MBR xmin
+     * @param ymin   the MBR ymin
+     * @param xmax   the MBR xmax
+     * @param ymax   the MBR ymax
+     */
+    public void addMBRHandle(
+            final long handle,
+            final double xmin,
+            final double ymin,
+            final double xmax,
+            final double ymax)
+    {
+        if (m_dataCount == m_dataHandles.length)
+        {
+            m_dataHandles = Arrays.copyOf(m_dataHandles, m_dataCount * 2);
+            m_dataExtents = Arrays.copyOf(m_dataExtents, m_dataCount * 8);
+        }
+        final int c = 4 * m_dataCount;
+        m_dataExtents[c] = xmin;
+        m_dataExtents[c + 1] = ymin;
+        m_dataExtents[c + 2] = xmax;
+        m_dataExtents[c + 3] = ymax;
+        m_dataHandles[m_dataCount++] = handle;
     }
 
     /**
@@ -94,7 +144,39 @@ public class RTreeIterator implements Iterator<MBRHandle>
      */
     public void addNodeHandle(long nodeHandle)
     {
-        m_nodeHandles.push(nodeHandle);
+        if (m_nodeCount == m_nodeHandles.length)
+        {
+            m_nodeHandles = Arrays.copyOf(m_nodeHandles, m_nodeCount * 2);
+        }
+        m_nodeHandles[m_nodeCount++] = nodeHandle;
+    }
+
+    /**
+     * This is used internally. Reads the raw bytes of a node into a buffer owned by this iterator,
+     * the buffer is reused from node to node so reading a node does not allocate.
+     *
+     * @param stream the input stream
+     * @param handle the handle of the node
+     * @return the buffer, the node starts at index 0 and is only valid until the next read
+     * @throws IOException
+     */
+    public ByteBuffer readNode(
+            final PositionedReadable stream,
+            final long handle) throws IOException
+    {
+        final int readLength = Math.min(m_rTree.nodeReadLength(handle), m_bytes.length);
+        stream.readFully(handle, m_bytes, 0, readLength);
+        final int length = 5 + 40 * m_buffer.getInt(1);
+        if (length > readLength)
+        {
+            if (length > m_bytes.length)
+            {
+                m_bytes = Arrays.copyOf(m_bytes, length);
+                m_buffer = ByteBuffer.wrap(m_bytes);
+            }
+            stream.readFully(handle + readLength, m_bytes, readLength, length - readLength);
+        }
+        return m_buffer;
     }
 
 }
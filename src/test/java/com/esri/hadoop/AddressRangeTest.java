@@ -0,0 +1,121 @@
+package com.esri.hadoop;
+
+import com.esri.hadoop.quadtree.FSQuadTreeReader;
+import com.esri.hadoop.quadtree.FSQuadTreeWriter;
+import com.esri.hadoop.quadtree.PointData;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class AddressRangeTest extends MiniFS
+{
+    @Test
+    public void testSortDistinct() throws Exception
+    {
+        final long[] addresses = {40, 10, 30, 10, 20, 40, 99};
+        assertArrayEquals(new long[]{10, 20, 30, 40}, AddressRange.sortDistinct(addresses, 6));
+    }
+
+    @Test
+    public void testGroup() throws Exception
+    {
+        final long[] addresses = {0, 100, 260, 1000, 1100, 1200, 1300};
+        // records of at most 100 bytes, at most 50 unused bytes between them and ranges of at most 250 bytes
+        final List<AddressRange> ranges = AddressRange.group(addresses, 50, 100, 250);
+        assertEquals(4, ranges.size());
+        assertArrayEquals(new long[]{0, 100}, ranges.get(0).addresses);
+        assertEquals(0, ranges.get(0).start);
+        assertEquals(200, ranges.get(0).end);
+        assertArrayEquals(new long[]{260}, ranges.get(1).addresses);
+        assertArrayEquals(new long[]{1000, 1100}, ranges.get(2).addresses);
+        assertArrayEquals(new long[]{1200, 1300}, ranges.get(3).addresses);
+        assertEquals(0, AddressRange.group(new long[0], 50, 100, 300).size());
+    }
+
+    @Test
+    public void testSearchRanges() throws Exception
+    {
+        final Random random = new Random(53);
+        final int count = 5000;
+        final double[] xy = new double[2 * count];
+        final long[] addresses = new long[count];
+        final Path dataPath = new Path("/tmp", m_path.getName() + ".data");
+        final FSDataOutputStream dataOutput = m_fileSystem.create(dataPath, true);
+        for (int i = 0; i < count; i++)
+        {
+            xy[2 * i] = random.nextDouble() * 100;
+            xy[2 * i + 1] = random.nextDouble() * 100;
+            addresses[i] = dataOutput.getPos();
+            dataOutput.write((i + "\n").getBytes("UTF-8"));
+        }
+        dataOutput.close();
+
+        openOutputStream();
+        final FSQuadTreeWriter writer = new FSQuadTreeWriter(m_dataOutputStream, 16, new Extent(0, 0, 100, 100));
+        for (int i = 0; i < count; i++)
+        {
+            writer.addPointData(new PointData(xy[2 * i], xy[2 * i + 1], addresses[i]));
+        }
+        // a second point on the record of the first one
+        writer.addPointData(new PointData(xy[0], xy[1], addresses[0]));
+        writer.close();
+
+        final Extent extent = new Extent(xy[0] - 30, xy[1] - 30, xy[0] + 30, xy[1] + 30);
+        final Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < count; i++)
+        {
+            if (extent.containsPoint(xy[2 * i], xy[2 * i + 1]))
+            {
+                expected.add(i);
+            }
+        }
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        final long[] sorted = reader.searchAddresses(extent);
+        assertEquals(expected.size(), sorted.length);
+        for (int i = 1; i < sorted.length; i++)
+        {
+            assertTrue("Addresses are not sorted", sorted[i - 1] < sorted[i]);
+        }
+
+        final List<AddressRange> ranges = reader.searchRanges(extent, 64, 8, 4096);
+        assertTrue("Addresses are not coalesced", ranges.size() < expected.size() / 4);
+        final Set<Integer> actual = new HashSet<Integer>();
+        final FSDataInputStream dataInput = m_fileSystem.open(dataPath);
+        try
+        {
+            for (final AddressRange range : ranges)
+            {
+                final byte[] bytes = range.read(dataInput);
+                for (final long address : range.addresses)
+                {
+                    final int offset = (int) (address - range.start);
+                    int end = offset;
+                    while (bytes[end] != '\n')
+                    {
+                        end++;
+                    }
+                    assertTrue("Record is read twice", actual.add(Integer.parseInt(new String(bytes, offset, end - offset, "UTF-8"))));
+                }
+            }
+        }
+        finally
+        {
+            dataInput.close();
+        }
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,236 @@
+package com.esri.hadoop;
+
+import com.esri.hadoop.quadtree.FSQuadTreeReader;
+import com.esri.hadoop.quadtree.FSQuadTreeWriter;
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.rtree.FSRTreeReader;
+import com.esri.hadoop.rtree.FSRTreeWriter;
+import com.esri.hadoop.rtree.MBRHandle;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ */
+public class ChecksumsTest extends MiniFS
+{
+    private void writeQuadTree() throws IOException
+    {
+        final Random random = new Random(17);
+        openOutputStream();
+        final FSQuadTreeWriter writer = new FSQuadTreeWriter(m_dataOutputStream, 16, new Extent(-180, -90, 180, 90));
+        for (int i = 0; i < 5000; i++)
+        {
+            writer.addPointData(new PointData(
+                    -180.0 + 360.0 * random.nextDouble(),
+                    -90.0 + 180.0 * random.nextDouble(),
+                    i));
+        }
+        writer.close();
+    }
+
+    private void writeRTree() throws IOException
+    {
+        final Random random = new Random(19);
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        for (int i = 0; i < 2000; i++)
+        {
+            final double x = random.nextDouble() * 100;
+            final double y = random.nextDouble() * 100;
+            writer.add(new MBRHandle(new Extent(x, y, x + 1, y + 1), i));
+        }
+        writer.close();
+    }
+
+    private byte[] readBytes() throws IOException
+    {
+        final FSDataInputStream stream = m_fileSystem.open(m_path);
+        try
+        {
+            return IOUtils.toByteArray(stream);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    private void writeBytes(
+            final byte[] bytes,
+            final int length) throws IOException
+    {
+        final FSDataOutputStream stream = m_fileSystem.create(m_path, true);
+        try
+        {
+            stream.write(bytes, 0, length);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    private int count(final Iterator<?> iterator)
+    {
+        int count = 0;
+        while (iterator.hasNext())
+        {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testVerify() throws Exception
+    {
+        writeQuadTree();
+        openInputStream();
+        assertTrue("Quad tree has no checksums", new FSQuadTreeReader(m_dataInputStream).verify());
+
+        writeRTree();
+        openInputStream();
+        assertTrue("RTree has no checksums", new FSRTreeReader(m_dataInputStream).verify());
+    }
+
+    @Test
+    public void testCorruptBody() throws Exception
+    {
+        writeQuadTree();
+        final byte[] bytes = readBytes();
+        bytes[bytes.length / 2] ^= 0x01;
+        writeBytes(bytes, bytes.length);
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        try
+        {
+            reader.verify();
+            fail("Corrupt body is not detected");
+        }
+        catch (ChecksumException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCorruptHeader() throws Exception
+    {
+        writeRTree();
+        final byte[] bytes = readBytes();
+        // the node high size
+        bytes[15] ^= 0x01;
+        writeBytes(bytes, bytes.length);
+
+        openInputStream();
+        try
+        {
+            new FSRTreeReader(m_dataInputStream);
+            fail("Corrupt header is not detected");
+        }
+        catch (ChecksumException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception
+    {
+        writeQuadTree();
+        final byte[] quadTreeBytes = readBytes();
+        writeBytes(quadTreeBytes, quadTreeBytes.length - 3);
+        openInputStream();
+        try
+        {
+            new FSQuadTreeReader(m_dataInputStream);
+            fail("Truncated quad tree is not detected");
+        }
+        catch (ChecksumException e)
+        {
+            // expected
+        }
+
+        writeRTree();
+        final byte[] rTreeBytes = readBytes();
+        writeBytes(rTreeBytes, rTreeBytes.length / 2);
+        openInputStream();
+        try
+        {
+            new FSRTreeReader(m_dataInputStream);
+            fail("Truncated rtree is not detected");
+        }
+        catch (ChecksumException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnversionedQuadTree() throws Exception
+    {
+        openOutputStream();
+        // bucket size, root level, maximum level, minimum level, root width, root min and max, no overflow
+        m_dataOutputStream.writeInt(16);
+        m_dataOutputStream.writeInt(16);
+        m_dataOutputStream.writeInt(25);
+        m_dataOutputStream.writeInt(0);
+        m_dataOutputStream.writeDouble(10.0);
+        m_dataOutputStream.writeDouble(0.0);
+        m_dataOutputStream.writeDouble(0.0);
+        m_dataOutputStream.writeDouble(10.0);
+        m_dataOutputStream.writeDouble(10.0);
+        m_dataOutputStream.writeInt(0);
+        // a leaf root with two points
+        m_dataOutputStream.writeInt(2);
+        m_dataOutputStream.writeDouble(1.0);
+        m_dataOutputStream.writeDouble(1.0);
+        m_dataOutputStream.writeLong(100L);
+        m_dataOutputStream.writeDouble(8.0);
+        m_dataOutputStream.writeDouble(8.0);
+        m_dataOutputStream.writeLong(200L);
+        m_dataOutputStream.writeBoolean(false);
+        m_dataOutputStream.close();
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        assertFalse("Unversioned quad tree has checksums", reader.verify());
+        assertEquals(2, count(reader.search(new Extent(0, 0, 10, 10))));
+        assertEquals(1, count(reader.search(new Extent(0, 0, 5, 5))));
+    }
+
+    @Test
+    public void testUnversionedRTree() throws Exception
+    {
+        openOutputStream();
+        // node low and high sizes then a leaf root with two entries
+        m_dataOutputStream.writeInt(2);
+        m_dataOutputStream.writeInt(4);
+        m_dataOutputStream.writeBoolean(true);
+        m_dataOutputStream.writeInt(2);
+        m_dataOutputStream.writeLong(100L);
+        new Extent(0, 0, 1, 1).write(m_dataOutputStream);
+        m_dataOutputStream.writeLong(200L);
+        new Extent(8, 8, 9, 9).write(m_dataOutputStream);
+        m_dataOutputStream.close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+        assertFalse("Unversioned rtree has checksums", reader.verify());
+        assertEquals(2, count(reader.search(new Extent(0, 0, 10, 10))));
+        assertEquals(1, count(reader.search(new Extent(0, 0, 5, 5))));
+    }
+}
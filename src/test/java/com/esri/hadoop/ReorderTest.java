@@ -0,0 +1,233 @@
+package com.esri.hadoop;
+
+import com.esri.hadoop.quadtree.FSQuadTreeReader;
+import com.esri.hadoop.quadtree.FSQuadTreeReorder;
+import com.esri.hadoop.quadtree.FSQuadTreeWriter;
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.rtree.FSRTreeReader;
+import com.esri.hadoop.rtree.FSRTreeReorder;
+import com.esri.hadoop.rtree.FSRTreeWriter;
+import com.esri.hadoop.rtree.MBRHandle;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class ReorderTest extends MiniFS
+{
+    private Path path(final String suffix)
+    {
+        return new Path("/tmp", m_path.getName() + suffix);
+    }
+
+    /**
+     * Writes the records "id,x,y" in a random order, returns the address of each record
+     */
+    private long[] writeData(
+            final Path path,
+            final double[] xy) throws IOException
+    {
+        final int count = xy.length / 2;
+        final long[] addresses = new long[count];
+        final FSDataOutputStream stream = m_fileSystem.create(path, true);
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                addresses[i] = stream.getPos();
+                stream.write((i + "," + xy[2 * i] + "," + xy[2 * i + 1] + "\n").getBytes("UTF-8"));
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+        return addresses;
+    }
+
+    private double[] createLocations(
+            final Random random,
+            final int count)
+    {
+        final double[] xy = new double[2 * count];
+        for (int i = 0; i < xy.length; i++)
+        {
+            xy[i] = random.nextDouble() * 100;
+        }
+        return xy;
+    }
+
+    private int readId(
+            final FSDataInputStream stream,
+            final long address) throws IOException
+    {
+        final String record = new String(new TextRecordReader().read(stream, address), "UTF-8");
+        assertTrue("Record has no end of line", record.endsWith("\n"));
+        return Integer.parseInt(record.substring(0, record.indexOf(',')));
+    }
+
+    @Test
+    public void testQuadTreeReorder() throws Exception
+    {
+        final double[] xy = createLocations(new Random(43), 10000);
+        final long[] addresses = writeData(m_path, xy);
+
+        final Path indexPath = path(".qt");
+        final FSQuadTreeWriter writer = new FSQuadTreeWriter(m_fileSystem.create(indexPath, true), 16, new Extent(0, 0, 80, 80));
+        for (int i = 0; i < addresses.length; i++)
+        {
+            writer.addPointData(new PointData(xy[2 * i], xy[2 * i + 1], addresses[i]));
+        }
+        writer.close();
+
+        final Path dataPath = path(".data");
+        final Path newIndexPath = path(".qt2");
+        final FSDataInputStream dataInput = m_fileSystem.open(m_path);
+        final FSDataInputStream indexInput = m_fileSystem.open(indexPath);
+        final FSDataOutputStream dataOutput = m_fileSystem.create(dataPath, true);
+        new FSQuadTreeReorder(new FSQuadTreeReader(indexInput), dataInput, new TextRecordReader())
+                .reorder(dataOutput, m_fileSystem.create(newIndexPath, true));
+        dataOutput.close();
+        dataInput.close();
+        indexInput.close();
+        assertEquals(m_fileSystem.getFileStatus(m_path).getLen(), m_fileSystem.getFileStatus(dataPath).getLen());
+
+        final FSDataInputStream newDataInput = m_fileSystem.open(dataPath);
+        final FSDataInputStream newIndexInput = m_fileSystem.open(newIndexPath);
+        try
+        {
+            final FSQuadTreeReader reader = new FSQuadTreeReader(newIndexInput);
+            final Extent extent = new Extent(20, 20, 25, 25);
+            final Set<Integer> expected = new HashSet<Integer>();
+            for (int i = 0; i < addresses.length; i++)
+            {
+                if (extent.containsPoint(xy[2 * i], xy[2 * i + 1]))
+                {
+                    expected.add(i);
+                }
+            }
+            final Set<Integer> actual = new HashSet<Integer>();
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            final Iterator<PointData> iterator = reader.search(extent);
+            while (iterator.hasNext())
+            {
+                final PointData pointData = iterator.next();
+                final int id = readId(newDataInput, pointData.address);
+                assertEquals(xy[2 * id], pointData.x, 0.0);
+                assertEquals(xy[2 * id + 1], pointData.y, 0.0);
+                actual.add(id);
+                min = Math.min(min, pointData.address);
+                max = Math.max(max, pointData.address);
+            }
+            assertEquals(expected, actual);
+            // the records of the search are in a small part of the data file
+            assertTrue("Records are scattered", max - min < m_fileSystem.getFileStatus(dataPath).getLen() / 10);
+        }
+        finally
+        {
+            newIndexInput.close();
+            newDataInput.close();
+        }
+    }
+
+    @Test
+    public void testRTreeReorder() throws Exception
+    {
+        final double[] xy = createLocations(new Random(47), 10000);
+        final long[] addresses = writeData(m_path, xy);
+
+        final Path indexPath = path(".rt");
+        final List<MBRHandle> list = new ArrayList<MBRHandle>();
+        for (int i = 0; i < addresses.length; i++)
+        {
+            list.add(new MBRHandle(new Extent(xy[2 * i], xy[2 * i + 1], xy[2 * i] + 0.5, xy[2 * i + 1] + 0.5), addresses[i]));
+        }
+        final FSRTreeWriter writer = new FSRTreeWriter(m_fileSystem.create(indexPath, true), 10, 20);
+        writer.bulkLoad(list);
+        writer.close();
+
+        final Path dataPath = path(".data");
+        final Path newIndexPath = path(".rt2");
+        final FSDataInputStream dataInput = m_fileSystem.open(m_path);
+        final FSDataInputStream indexInput = m_fileSystem.open(indexPath);
+        final FSDataOutputStream dataOutput = m_fileSystem.create(dataPath, true);
+        new FSRTreeReorder(new FSRTreeReader(indexInput), dataInput, new TextRecordReader())
+                .reorder(dataOutput, m_fileSystem.create(newIndexPath, true));
+        dataOutput.close();
+        dataInput.close();
+        indexInput.close();
+        assertEquals(m_fileSystem.getFileStatus(m_path).getLen(), m_fileSystem.getFileStatus(dataPath).getLen());
+
+        final FSDataInputStream newDataInput = m_fileSystem.open(dataPath);
+        final FSDataInputStream newIndexInput = m_fileSystem.open(newIndexPath);
+        try
+        {
+            final FSRTreeReader reader = new FSRTreeReader(newIndexInput);
+            final Extent extent = new Extent(60, 10, 65, 15);
+            final Set<Integer> expected = new HashSet<Integer>();
+            for (int i = 0; i < list.size(); i++)
+            {
+                if (!list.get(i).extent.isDisjoint(extent))
+                {
+                    expected.add(i);
+                }
+            }
+            final Set<Integer> actual = new HashSet<Integer>();
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            final Iterator<MBRHandle> iterator = reader.search(extent);
+            while (iterator.hasNext())
+            {
+                final MBRHandle mbrHandle = iterator.next();
+                final int id = readId(newDataInput, mbrHandle.handle);
+                assertEquals(xy[2 * id], mbrHandle.extent.xmin, 0.0);
+                actual.add(id);
+                min = Math.min(min, mbrHandle.handle);
+                max = Math.max(max, mbrHandle.handle);
+            }
+            assertEquals(expected, actual);
+            assertTrue("Records are scattered", max - min < m_fileSystem.getFileStatus(dataPath).getLen() / 10);
+        }
+        finally
+        {
+            newIndexInput.close();
+            newDataInput.close();
+        }
+    }
+
+    @Test
+    public void testHilbert() throws Exception
+    {
+        // consecutive cells along the curve are neighbours
+        final int n = 1 << 6;
+        final int[] xs = new int[n * n];
+        final int[] ys = new int[n * n];
+        for (int x = 0; x < n; x++)
+        {
+            for (int y = 0; y < n; y++)
+            {
+                final long d = SpaceFillingCurves.hilbert(6, x, y);
+                xs[(int) d] = x;
+                ys[(int) d] = y;
+            }
+        }
+        for (int d = 1; d < n * n; d++)
+        {
+            assertEquals(1, Math.abs(xs[d] - xs[d - 1]) + Math.abs(ys[d] - ys[d - 1]));
+        }
+    }
+}
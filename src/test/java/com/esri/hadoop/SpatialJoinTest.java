@@ -0,0 +1,103 @@
+package com.esri.hadoop;
+
+import com.esri.hadoop.quadtree.FSQuadTreeReader;
+import com.esri.hadoop.quadtree.FSQuadTreeWriter;
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.rtree.FSRTreeReader;
+import com.esri.hadoop.rtree.FSRTreeWriter;
+import com.esri.hadoop.rtree.MBRHandle;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class SpatialJoinTest extends MiniFS
+{
+    @Test
+    public void testJoin() throws Exception
+    {
+        final Random random = new Random(41);
+        final List<PointData> points = new ArrayList<PointData>();
+        for (int i = 0; i < 20000; i++)
+        {
+            points.add(new PointData(random.nextDouble() * 100, random.nextDouble() * 100, i));
+        }
+        // a point on a MBR corner and an overflow point
+        points.add(new PointData(50.0, 50.0, 20000));
+        points.add(new PointData(150.0, 50.0, 20001));
+
+        final List<MBRHandle> handles = new ArrayList<MBRHandle>();
+        for (int i = 0; i < 2000; i++)
+        {
+            final double x = random.nextDouble() * 95;
+            final double y = random.nextDouble() * 95;
+            handles.add(new MBRHandle(new Extent(x, y, x + random.nextDouble() * 5, y + random.nextDouble() * 5), i));
+        }
+        handles.add(new MBRHandle(new Extent(40.0, 40.0, 50.0, 50.0), 2000));
+        handles.add(new MBRHandle(new Extent(140.0, 40.0, 160.0, 60.0), 2001));
+
+        openOutputStream();
+        final FSQuadTreeWriter quadTreeWriter = new FSQuadTreeWriter(m_dataOutputStream, 16, new Extent(0, 0, 100, 100));
+        for (final PointData pt : points)
+        {
+            quadTreeWriter.addPointData(pt);
+        }
+        quadTreeWriter.close();
+
+        final Path rTreePath = new Path("/tmp", m_path.getName() + ".rtree");
+        final FSDataOutputStream rTreeOutput = m_fileSystem.create(rTreePath, true);
+        final FSRTreeWriter rTreeWriter = new FSRTreeWriter(rTreeOutput, 10, 20);
+        rTreeWriter.bulkLoad(handles);
+        rTreeWriter.close();
+
+        final Set<String> expected = new HashSet<String>();
+        for (final PointData pt : points)
+        {
+            for (final MBRHandle handle : handles)
+            {
+                if (handle.extent.containsPoint(pt.x, pt.y))
+                {
+                    expected.add(pt.address + ":" + handle.handle);
+                }
+            }
+        }
+
+        openInputStream();
+        final FSDataInputStream rTreeInput = m_fileSystem.open(rTreePath);
+        try
+        {
+            final SpatialJoin spatialJoin = new SpatialJoin(
+                    new FSRTreeReader(rTreeInput, 1024 * 1024),
+                    new FSQuadTreeReader(m_dataInputStream));
+            final Set<String> actual = new HashSet<String>();
+            spatialJoin.join(new IJoinFunction()
+            {
+                @Override
+                public void evaluate(
+                        final PointData pointData,
+                        final MBRHandle mbrHandle)
+                {
+                    assertTrue("Pair is evaluated twice", actual.add(pointData.address + ":" + mbrHandle.handle));
+                }
+            });
+            assertEquals("Join has failed", expected, actual);
+            assertTrue(actual.contains("20000:2000"));
+            assertTrue(actual.contains("20001:2001"));
+        }
+        finally
+        {
+            rTreeInput.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.MiniFS;
+import com.esri.hadoop.quadtree.FSQuadTreeWriter;
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.rtree.FSRTreeWriter;
+import com.esri.hadoop.rtree.MBRHandle;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class IndexInputFormatTest extends MiniFS
+{
+    private static final int COUNT = 20000;
+
+    private final double[] m_xy = new double[2 * COUNT];
+    private final long[] m_addresses = new long[COUNT];
+
+    /**
+     * Writes the records "id\n" of random locations
+     */
+    private Path writeData() throws Exception
+    {
+        final Random random = new Random(59);
+        final Path dataPath = new Path("/tmp", m_path.getName() + ".data");
+        final FSDataOutputStream dataOutput = m_fileSystem.create(dataPath, true);
+        for (int i = 0; i < COUNT; i++)
+        {
+            m_xy[2 * i] = random.nextDouble() * 100;
+            m_xy[2 * i + 1] = random.nextDouble() * 100;
+            m_addresses[i] = dataOutput.getPos();
+            dataOutput.write((i + "\n").getBytes("UTF-8"));
+        }
+        dataOutput.close();
+        return dataPath;
+    }
+
+    private Set<Integer> read(
+            final IndexInputFormat inputFormat,
+            final Job job,
+            final int minSplits) throws Exception
+    {
+        final List<InputSplit> splits = inputFormat.getSplits(job);
+        assertTrue("Too few splits " + splits.size(), splits.size() >= minSplits);
+        final Set<Integer> ids = new HashSet<Integer>();
+        for (final InputSplit split : splits)
+        {
+            assertTrue("Split has no location", split.getLocations().length > 0 || ((IndexSplit) split).positions().length == 0);
+            // the split as shipped to the task
+            final DataOutputBuffer output = new DataOutputBuffer();
+            ((IndexSplit) split).write(output);
+            final DataInputBuffer input = new DataInputBuffer();
+            input.reset(output.getData(), output.getLength());
+            final IndexSplit taskSplit = new IndexSplit();
+            taskSplit.readFields(input);
+
+            final TaskAttemptContextImpl context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+            final RecordReader<LongWritable, BytesWritable> reader = inputFormat.createRecordReader(taskSplit, context);
+            reader.initialize(taskSplit, context);
+            try
+            {
+                long previous = -1L;
+                while (reader.nextKeyValue())
+                {
+                    final long address = reader.getCurrentKey().get();
+                    assertTrue("Records are not in address order", address > previous);
+                    previous = address;
+                    final BytesWritable value = reader.getCurrentValue();
+                    final String record = new String(value.getBytes(), 0, value.getLength(), "UTF-8");
+                    final int id = Integer.parseInt(record.trim());
+                    assertEquals(m_addresses[id], address);
+                    assertTrue("Record is read twice", ids.add(id));
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        return ids;
+    }
+
+    private Set<Integer> expected(final Extent extent)
+    {
+        final Set<Integer> ids = new HashSet<Integer>();
+        for (int i = 0; i < COUNT; i++)
+        {
+            if (extent.containsPoint(m_xy[2 * i], m_xy[2 * i + 1]))
+            {
+                ids.add(i);
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void testQuadTreeInputFormat() throws Exception
+    {
+        final Path dataPath = writeData();
+        openOutputStream();
+        final FSQuadTreeWriter writer = new FSQuadTreeWriter(m_dataOutputStream, 16, new Extent(0, 0, 90, 90));
+        for (int i = 0; i < COUNT; i++)
+        {
+            writer.addPointData(new PointData(m_xy[2 * i], m_xy[2 * i + 1], m_addresses[i]));
+        }
+        writer.close();
+
+        final Job job = Job.getInstance(m_jobConfig);
+        IndexInputFormat.setIndexPath(job, m_path);
+        IndexInputFormat.setDataPath(job, dataPath);
+        IndexInputFormat.setSplitSize(job, 16 * 1024);
+        assertEquals(expected(new Extent(0, 0, 100, 100)), read(new QuadTreeInputFormat(), job, 10));
+
+        // the points outside of the quad tree root are in the first split
+        final Extent extent = new Extent(10, 80, 95, 95);
+        IndexInputFormat.setExtent(job, extent);
+        assertEquals(expected(extent), read(new QuadTreeInputFormat(), job, 2));
+    }
+
+    @Test
+    public void testRTreeInputFormat() throws Exception
+    {
+        final Path dataPath = writeData();
+        final List<MBRHandle> list = new ArrayList<MBRHandle>();
+        for (int i = 0; i < COUNT; i++)
+        {
+            list.add(new MBRHandle(new Extent(m_xy[2 * i], m_xy[2 * i + 1], m_xy[2 * i], m_xy[2 * i + 1]), m_addresses[i]));
+        }
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        writer.bulkLoad(list);
+        writer.close();
+
+        final Job job = Job.getInstance(m_jobConfig);
+        IndexInputFormat.setIndexPath(job, m_path);
+        IndexInputFormat.setDataPath(job, dataPath);
+        IndexInputFormat.setSplitSize(job, 16 * 1024);
+        assertEquals(expected(new Extent(0, 0, 100, 100)), read(new RTreeInputFormat(), job, 10));
+
+        final Extent extent = new Extent(20, 30, 45, 50);
+        IndexInputFormat.setExtent(job, extent);
+        assertEquals(expected(extent), read(new RTreeInputFormat(), job, 2));
+    }
+}
@@ -0,0 +1,122 @@
+package com.esri.hadoop.mapreduce;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.MiniFS;
+import com.esri.hadoop.quadtree.FSQuadTreeReader;
+import com.esri.hadoop.quadtree.PointData;
+import com.esri.hadoop.quadtree.QuadTree;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class QuadTreeBuildTest extends MiniFS
+{
+    private static final int COUNT = 20000;
+
+    /**
+     * Reads the records "x,y"
+     */
+    public static class TextPointMapper extends QuadTreeBuildMapper<LongWritable, Text>
+    {
+        @Override
+        public PointData toPointData(
+                final LongWritable key,
+                final Text value)
+        {
+            final String[] tokens = value.toString().split(",");
+            return new PointData(Double.parseDouble(tokens[0]), Double.parseDouble(tokens[1]), key.get());
+        }
+    }
+
+    private void testBuild(final int format) throws Exception
+    {
+        final Random random = new Random(61);
+        final double[] xy = new double[2 * COUNT];
+        final long[] addresses = new long[COUNT];
+        final Path dataPath = new Path("/tmp", m_path.getName() + ".data");
+        final FSDataOutputStream dataOutput = m_fileSystem.create(dataPath, true);
+        for (int i = 0; i < COUNT; i++)
+        {
+            // clustered points and a few outside of the extent
+            final boolean cluster = random.nextBoolean();
+            xy[2 * i] = cluster ? 20 + random.nextGaussian() : random.nextDouble() * 100;
+            xy[2 * i + 1] = cluster ? 70 + random.nextGaussian() : random.nextDouble() * 100;
+            if (i % 1000 == 0)
+            {
+                xy[2 * i] = 150;
+            }
+            addresses[i] = dataOutput.getPos();
+            dataOutput.write((xy[2 * i] + "," + xy[2 * i + 1] + "\n").getBytes("UTF-8"));
+        }
+        dataOutput.close();
+
+        final Job job = Job.getInstance(m_jobConfig);
+        job.setInputFormatClass(TextInputFormat.class);
+        FileInputFormat.addInputPath(job, dataPath);
+        job.setMapperClass(TextPointMapper.class);
+        job.setNumReduceTasks(4);
+        final QuadTreeBuild build = new QuadTreeBuild(job, new Extent(0, 0, 100, 100), 16, format);
+        build.setSampleSize(2000);
+        final Path workPath = new Path("/tmp", m_path.getName() + ".work");
+        assertTrue("Build has failed", build.build(workPath, m_fileSystem.create(m_path, true)));
+        assertFalse("Work directory is not deleted", m_fileSystem.exists(workPath));
+        assertTrue("Points are not partitioned", QuadTreePartitioning.read(job.getConfiguration()).count() >= 16);
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        assertTrue(reader.verify());
+        assertEquals(format, reader.getQuadTree().format());
+        final Extent[] extents = {
+                new Extent(-10, -10, 200, 200),
+                new Extent(19, 69, 21, 71),
+                new Extent(40, 10, 60, 30),
+                new Extent(140, 0, 160, 100)
+        };
+        for (final Extent extent : extents)
+        {
+            final Set<Long> expected = new HashSet<Long>();
+            for (int i = 0; i < COUNT; i++)
+            {
+                if (extent.containsPoint(xy[2 * i], xy[2 * i + 1]))
+                {
+                    expected.add(addresses[i]);
+                }
+            }
+            final Set<Long> actual = new HashSet<Long>();
+            final Iterator<PointData> iterator = reader.search(extent);
+            while (iterator.hasNext())
+            {
+                assertTrue("Point is found twice", actual.add(iterator.next().address));
+            }
+            assertEquals("Search in " + extent + " has failed", expected, actual);
+        }
+    }
+
+    @Test
+    public void testBuild() throws Exception
+    {
+        testBuild(QuadTree.FORMAT_ROWS);
+    }
+
+    @Test
+    public void testColumnarBuild() throws Exception
+    {
+        testBuild(QuadTree.FORMAT_COLUMNS);
+    }
+}
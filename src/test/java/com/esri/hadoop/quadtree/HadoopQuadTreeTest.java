@@ -1,13 +1,30 @@
 package com.esri.hadoop.quadtree;
 
 import com.esri.hadoop.Extent;
+import com.esri.hadoop.MappedInputStream;
 import com.esri.hadoop.MiniFS;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.Path;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by kcoffin on 2/6/14.
@@ -17,6 +34,60 @@ public class HadoopQuadTreeTest extends MiniFS
 
     public static final double TINY = 1e-10;
 
+    private List<PointData> createPoints(
+            final Random random,
+            final int n)
+    {
+        final List<PointData> list = new ArrayList<PointData>(n);
+        for (int i = 0; i < n; i++)
+        {
+            list.add(new PointData(-180.0 + 360.0 * random.nextDouble(), -90.0 + 180.0 * random.nextDouble(), i));
+        }
+        return list;
+    }
+
+    private Extent createExtent(final Random random)
+    {
+        final double x = -180.0 + 340.0 * random.nextDouble();
+        final double y = -90.0 + 160.0 * random.nextDouble();
+        return new Extent(x, y, x + 20, y + 20);
+    }
+
+    private void writeWorld(final List<PointData> list) throws Exception
+    {
+        openOutputStream();
+        final FSQuadTreeWriter writer = new FSQuadTreeWriter(m_dataOutputStream, 16, new Extent(-180, -90, 180, 90));
+        for (final PointData pointData : list)
+        {
+            writer.addPointData(pointData);
+        }
+        writer.close();
+    }
+
+    private int count(
+            final FSQuadTreeReader reader,
+            final Extent extent) throws Exception
+    {
+        final Iterator<PointData> iterator = reader.search(extent);
+        int count = 0;
+        while (iterator.hasNext())
+        {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    private Set<Long> addresses(final Iterator<PointData> iterator)
+    {
+        final Set<Long> set = new HashSet<Long>();
+        while (iterator.hasNext())
+        {
+            set.add(iterator.next().address);
+        }
+        return set;
+    }
+
     @Test
     public void testUpperLeftAdd() throws Exception
     {
@@ -232,6 +303,395 @@ public class HadoopQuadTreeTest extends MiniFS
         //reader.DFS(new printDFS());
     }
 
+    @Test
+    public void testSearchTwiceOnLeafRoot() throws Exception
+    {
+        openOutputStream();
+        final FSQuadTreeWriter writer = new FSQuadTreeWriter(m_dataOutputStream, 32, new Extent(0, 0, 50, 50));
+        writer.addPointData(new PointData(10, 10, 1));
+        writer.addPointData(new PointData(20, 20, 2));
+        writer.addPointData(new PointData(30, 30, 3));
+        writer.close();
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        assertEquals("First search failed", 2, count(reader, new Extent(15, 15, 35, 35)));
+        assertEquals("Second search failed", 2, count(reader, new Extent(15, 15, 35, 35)));
+    }
+
+    @Test
+    public void testPinnedSearch() throws Exception
+    {
+        final Random random = new Random(42);
+        writeWorld(createPoints(random, 10000));
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        final FSQuadTreeReader pinnedReader = new FSQuadTreeReader(m_fileSystem.open(m_path), 4);
+        final FSQuadTreeReader budgetReader = new FSQuadTreeReader(m_fileSystem.open(m_path), 8, 4096);
+        for (int i = 0; i < 20; i++)
+        {
+            final Extent extent = createExtent(random);
+            final int expected = count(reader, extent);
+            assertEquals("Pinned search failed", expected, count(pinnedReader, extent));
+            assertEquals("Pinned search failed", expected, count(pinnedReader, extent));
+            assertEquals("Budget search failed", expected, count(budgetReader, extent));
+            assertEquals("Budget search failed", expected, count(budgetReader, extent));
+        }
+    }
+
+    @Test
+    public void testConcurrentSearch() throws Exception
+    {
+        final Random random = new Random(7);
+        writeWorld(createPoints(random, 10000));
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        final List<Extent> extents = new ArrayList<Extent>();
+        final List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 64; i++)
+        {
+            extents.add(createExtent(random));
+            expected.add(count(reader, extents.get(i)));
+        }
+
+        final FSQuadTreeReader sharedReader = new FSQuadTreeReader(m_fileSystem.open(m_path), 3);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++)
+            {
+                for (final Extent extent : extents)
+                {
+                    futures.add(executor.submit(new Callable<Integer>()
+                    {
+                        @Override
+                        public Integer call() throws Exception
+                        {
+                            return count(sharedReader, extent);
+                        }
+                    }));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++)
+            {
+                assertEquals("Concurrent search failed", expected.get(i % extents.size()), futures.get(i).get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnreadableNode() throws Exception
+    {
+        writeWorld(createPoints(new Random(43), 10000));
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        m_dataInputStream.close();
+        try
+        {
+            count(reader, new Extent(-180, -90, 180, 90));
+            fail("Search of a closed stream did not fail");
+        }
+        catch (RuntimeException e)
+        {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try
+        {
+            reader.nearest(0.0, 0.0, 10).hasNext();
+            fail("Nearest search of a closed stream did not fail");
+        }
+        catch (RuntimeException e)
+        {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testMappedSearch() throws Exception
+    {
+        final Random random = new Random(11);
+        writeWorld(createPoints(random, 10000));
+
+        final File file = File.createTempFile("quadtree", ".idx");
+        file.deleteOnExit();
+        m_fileSystem.copyToLocalFile(m_path, new Path(file.getAbsolutePath()));
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        final MappedQuadTreeReader mappedReader = new MappedQuadTreeReader(file);
+        // small segments so values and nodes straddle the segment boundaries
+        final MappedQuadTreeReader segmentedReader = new MappedQuadTreeReader(new MappedInputStream(file, 4093));
+        for (int i = 0; i < 20; i++)
+        {
+            final Extent extent = createExtent(random);
+            final Set<Long> expected = addresses(reader.search(extent));
+            assertEquals("Mapped search failed", expected, addresses(mappedReader.search(extent)));
+            assertEquals("Segmented search failed", expected, addresses(segmentedReader.search(extent)));
+        }
+        final Extent world = new Extent(-180, -90, 180, 90);
+        assertEquals("Mapped search failed", 10000, addresses(mappedReader.search(world)).size());
+    }
+
+    @Test
+    public void testColumnarFormat() throws Exception
+    {
+        final Random random = new Random(13);
+        final Path rowsPath = new Path("/tmp", "rows");
+        final FSQuadTreeWriter rowsWriter = new FSQuadTreeWriter(m_fileSystem.create(rowsPath, true), 16, new Extent(-180, -90, 180, 90));
+        openOutputStream();
+        final FSQuadTreeWriter writer = new FSQuadTreeWriter(m_dataOutputStream, 16, new Extent(-180, -90, 180, 90), QuadTree.FORMAT_COLUMNS);
+        final double[] xs = new double[10000];
+        final double[] ys = new double[10000];
+        for (int i = 0; i < 10000; i++)
+        {
+            xs[i] = -180.0 + 360.0 * random.nextDouble();
+            ys[i] = -90.0 + 180.0 * random.nextDouble();
+            // record addresses of 100 bytes in a random order
+            final long address = 100L * random.nextInt(1000000);
+            rowsWriter.addPointData(new PointData(xs[i], ys[i], address));
+            writer.addPointData(new PointData(xs[i], ys[i], address));
+        }
+        rowsWriter.close();
+        writer.close();
+        assertTrue("Columnar index is not smaller",
+                5 * m_fileSystem.getFileStatus(m_path).getLen() < 3 * m_fileSystem.getFileStatus(rowsPath).getLen());
+
+        final File file = File.createTempFile("quadtree", ".idx");
+        file.deleteOnExit();
+        m_fileSystem.copyToLocalFile(m_path, new Path(file.getAbsolutePath()));
+
+        openInputStream();
+        final FSQuadTreeReader rowsReader = new FSQuadTreeReader(m_fileSystem.open(rowsPath));
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        final MappedQuadTreeReader mappedReader = new MappedQuadTreeReader(file);
+        for (int i = 0; i < 20; i++)
+        {
+            final Extent extent = createExtent(random);
+            final Set<Long> expected = addresses(rowsReader.search(extent));
+            assertEquals("Columnar search failed", expected, addresses(reader.search(extent)));
+            assertEquals("Mapped columnar search failed", expected, addresses(mappedReader.search(extent)));
+        }
+
+        final Iterator<PointData> iterator = reader.search(new Extent(-180, -90, 180, 90));
+        int count = 0;
+        while (iterator.hasNext())
+        {
+            final PointData pointData = iterator.next();
+            boolean found = false;
+            for (int i = 0; i < xs.length && !found; i++)
+            {
+                found = Math.abs(xs[i] - pointData.x) < 1.0E-7 && Math.abs(ys[i] - pointData.y) < 1.0E-7;
+            }
+            assertTrue("Quantized point is too far", found);
+            count++;
+        }
+        assertEquals(10000, count);
+    }
+
+    @Test
+    public void testNearest() throws Exception
+    {
+        final Random random = new Random(23);
+        final List<PointData> list = createPoints(random, 5000);
+        writeWorld(list);
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        for (int q = 0; q < 10; q++)
+        {
+            final double x = -200.0 + 400.0 * random.nextDouble();
+            final double y = -100.0 + 200.0 * random.nextDouble();
+            final double[] expected = new double[list.size()];
+            for (int i = 0; i < expected.length; i++)
+            {
+                final PointData pointData = list.get(i);
+                expected[i] = (pointData.x - x) * (pointData.x - x) + (pointData.y - y) * (pointData.y - y);
+            }
+            Arrays.sort(expected);
+            final Iterator<PointData> iterator = reader.nearest(x, y, 25);
+            int count = 0;
+            while (iterator.hasNext())
+            {
+                final PointData pointData = iterator.next();
+                final double distance = (pointData.x - x) * (pointData.x - x) + (pointData.y - y) * (pointData.y - y);
+                assertEquals("Nearest search failed", expected[count], distance, 0.0);
+                count++;
+            }
+            assertEquals(25, count);
+        }
+    }
+
+    @Test
+    public void testBatchSearch() throws Exception
+    {
+        final Random random = new Random(31);
+        final List<PointData> list = createPoints(random, 10000);
+        // an overflow point
+        list.add(new PointData(500.0, 0.0, 10000));
+        writeWorld(list);
+
+        final List<Extent> extents = new ArrayList<Extent>();
+        for (int i = 0; i < 50; i++)
+        {
+            final double x = -180.0 + 340.0 * random.nextDouble();
+            final double y = -90.0 + 160.0 * random.nextDouble();
+            extents.add(new Extent(x, y, x + 10 + 20 * random.nextDouble(), y + 10 + 20 * random.nextDouble()));
+        }
+        extents.add(new Extent(400, -10, 600, 10));
+
+        openInputStream();
+        final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+        final List<Set<Long>> results = new ArrayList<Set<Long>>();
+        for (int i = 0; i < extents.size(); i++)
+        {
+            results.add(new HashSet<Long>());
+        }
+        reader.search(extents, new IBatchEvaluateFunction()
+        {
+            @Override
+            public void evaluate(
+                    final int query,
+                    final PointData pointData)
+            {
+                assertTrue("Point is evaluated twice", results.get(query).add(pointData.address));
+            }
+        });
+        for (int i = 0; i < extents.size(); i++)
+        {
+            assertEquals("Batch search failed", addresses(reader.search(extents.get(i))), results.get(i));
+        }
+        assertEquals(1, results.get(extents.size() - 1).size());
+    }
+
+    private byte[] writeQuadTree(
+            final List<PointData> list,
+            final int format,
+            final int threads) throws Exception
+    {
+        openOutputStream();
+        final FSQuadTreeWriter writer = new FSQuadTreeWriter(m_dataOutputStream, 8, new Extent(0, 0, 100, 100), format);
+        if (threads == 0)
+        {
+            for (final PointData pointData : list)
+            {
+                writer.addPointData(pointData);
+            }
+        }
+        else
+        {
+            writer.addPointData(list, threads);
+        }
+        writer.close();
+        openInputStream();
+        try
+        {
+            return IOUtils.toByteArray(m_dataInputStream);
+        }
+        finally
+        {
+            m_dataInputStream.close();
+        }
+    }
+
+    @Test
+    public void testParallelAdd() throws Exception
+    {
+        final Random random = new Random(37);
+        final List<PointData> list = new ArrayList<PointData>();
+        for (int i = 0; i < 20000; i++)
+        {
+            // a dense cluster, a uniform spread and a few points that grow the root
+            if (i % 3 == 0)
+            {
+                list.add(new PointData(10 + random.nextDouble(), 10 + random.nextDouble(), i));
+            }
+            else if (i % 1000 == 999)
+            {
+                list.add(new PointData(-300 + 800 * random.nextDouble(), -300 + 800 * random.nextDouble(), i));
+            }
+            else
+            {
+                list.add(new PointData(100 * random.nextDouble(), 100 * random.nextDouble(), i));
+            }
+        }
+        for (final int format : new int[]{QuadTree.FORMAT_ROWS, QuadTree.FORMAT_COLUMNS})
+        {
+            final byte[] expected = writeQuadTree(list, format, 0);
+            assertTrue("Parallel add is not the same as adding one at a time",
+                    Arrays.equals(expected, writeQuadTree(list, format, 4)));
+        }
+    }
+
+    @Test
+    public void testZOrderLayout() throws Exception
+    {
+        final Random random = new Random(41);
+        final List<PointData> list = new ArrayList<PointData>();
+        for (int i = 0; i < 30000; i++)
+        {
+            // a dense cluster makes deep subtrees, the uniform spread makes big ones
+            if (i % 3 == 0)
+            {
+                list.add(new PointData(10 + random.nextDouble(), 10 + random.nextDouble(), i));
+            }
+            else
+            {
+                list.add(new PointData(100 * random.nextDouble(), 100 * random.nextDouble(), i));
+            }
+        }
+        for (final int format : new int[]{QuadTree.FORMAT_ROWS, QuadTree.FORMAT_COLUMNS})
+        {
+            final Path depthFirstPath = new Path("/tmp", "depthfirst");
+            final FSQuadTreeWriter depthFirstWriter = new FSQuadTreeWriter(m_fileSystem.create(depthFirstPath, true), 8,
+                    new Extent(0, 0, 100, 100), format);
+            openOutputStream();
+            final FSQuadTreeWriter writer = new FSQuadTreeWriter(m_dataOutputStream, 8, new Extent(0, 0, 100, 100),
+                    format, QuadTree.LAYOUT_Z_ORDER);
+            for (final PointData pointData : list)
+            {
+                depthFirstWriter.addPointData(pointData);
+                writer.addPointData(pointData);
+            }
+            depthFirstWriter.close();
+            writer.close();
+
+            final File file = File.createTempFile("quadtree", ".idx");
+            file.deleteOnExit();
+            m_fileSystem.copyToLocalFile(m_path, new Path(file.getAbsolutePath()));
+
+            openInputStream();
+            final FSQuadTreeReader depthFirstReader = new FSQuadTreeReader(m_fileSystem.open(depthFirstPath));
+            final FSQuadTreeReader reader = new FSQuadTreeReader(m_dataInputStream);
+            final MappedQuadTreeReader mappedReader = new MappedQuadTreeReader(file);
+            assertEquals(QuadTree.LAYOUT_Z_ORDER, reader.getQuadTree().layout());
+            assertTrue("Z-order checksums failed", reader.getQuadTree().verify(m_dataInputStream));
+            for (int i = 0; i < 30; i++)
+            {
+                final double x = 100.0 * random.nextDouble();
+                final double y = 100.0 * random.nextDouble();
+                final double size = i % 2 == 0 ? 5.0 : 60.0;
+                final Extent extent = new Extent(x - size, y - size, x + size, y + size);
+                final Set<Long> expected = addresses(depthFirstReader.search(extent));
+                assertEquals("Z-order search failed", expected, addresses(reader.search(extent)));
+                assertEquals("Mapped Z-order search failed", expected, addresses(mappedReader.search(extent)));
+            }
+            assertEquals(list.size(), addresses(reader.search(new Extent(-1, -1, 101, 101))).size());
+            final Iterator<PointData> iterator = reader.nearest(10.5, 10.5, 10);
+            final Iterator<PointData> depthFirstIterator = depthFirstReader.nearest(10.5, 10.5, 10);
+            while (depthFirstIterator.hasNext())
+            {
+                assertEquals("Z-order nearest failed", depthFirstIterator.next(), iterator.next());
+            }
+        }
+    }
+
     private final class EvaluateFunction implements IEvaluateFunction
     {
         public int count = 0;
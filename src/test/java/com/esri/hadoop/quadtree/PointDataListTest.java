@@ -0,0 +1,80 @@
+package com.esri.hadoop.quadtree;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ */
+public class PointDataListTest
+{
+    @Test
+    public void testAddAndSort()
+    {
+        final List<PointData> expected = new ArrayList<PointData>();
+        final PointDataList list = new PointDataList();
+        for (int i = 0; i < 100; i++)
+        {
+            final PointData pointData = new PointData(i * 0.5, -i, (i * 37) % 101);
+            expected.add(pointData);
+            list.add(pointData.x, pointData.y, pointData.address);
+        }
+        assertEquals(expected, list);
+        assertEquals(expected, new PointDataList(expected));
+
+        final Comparator<PointData> comparator = new Comparator<PointData>()
+        {
+            @Override
+            public int compare(
+                    final PointData a,
+                    final PointData b)
+            {
+                return a.address < b.address ? -1 : (a.address == b.address ? 0 : 1);
+            }
+        };
+        Collections.sort(expected, comparator);
+        Collections.sort(list, comparator);
+        assertEquals(expected, list);
+        assertEquals(expected.get(3).address, list.address(3));
+
+        list.clear();
+        assertEquals(0, list.size());
+    }
+
+    @Test
+    public void testSortByAddress()
+    {
+        final Random random = new Random(17);
+        final List<PointData> expected = new ArrayList<PointData>();
+        final PointDataList list = new PointDataList();
+        for (int i = 0; i < 1000; i++)
+        {
+            // few distinct addresses, the points with the same address must keep their order
+            final PointData pointData = new PointData(random.nextDouble(), i, random.nextInt(50));
+            expected.add(pointData);
+            list.add(pointData);
+        }
+        Collections.sort(expected, new Comparator<PointData>()
+        {
+            @Override
+            public int compare(
+                    final PointData a,
+                    final PointData b)
+            {
+                return a.address < b.address ? -1 : (a.address == b.address ? 0 : 1);
+            }
+        });
+        list.sortByAddress();
+        assertEquals(expected, list);
+
+        list.sortByAddress();
+        assertEquals(expected, list);
+        new PointDataList().sortByAddress();
+    }
+}
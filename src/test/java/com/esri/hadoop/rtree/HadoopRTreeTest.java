@@ -1,21 +1,39 @@
 package com.esri.hadoop.rtree;
 
 import com.esri.hadoop.Extent;
+import com.esri.hadoop.MappedInputStream;
 import com.esri.hadoop.MiniFS;
+import org.apache.hadoop.fs.Path;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static com.esri.hadoop.rtree.RTreeFixtures.bruteForce;
+import static com.esri.hadoop.rtree.RTreeFixtures.createHandles;
+import static com.esri.hadoop.rtree.RTreeFixtures.search;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by kcoffin on 2/13/14.
  */
-@Ignore
 public class HadoopRTreeTest extends MiniFS
 {
+    @Ignore
     @Test
     public void testSearch() throws Exception
     {
@@ -42,6 +60,7 @@ public class HadoopRTreeTest extends MiniFS
         }
     }
 
+    @Ignore
     @Test
     public void testBigSearch() throws Exception
     {
@@ -90,4 +109,414 @@ public class HadoopRTreeTest extends MiniFS
         assertEquals("Search has failed", 0, badNumbers.size());
 
     }
+
+    /**
+     * Checks the node sizes and that the extent of each inner entry is the extent of its child
+     *
+     * @return the number of MBR handles beneath the node
+     */
+    private int checkNode(
+            final FSRTreeReader reader,
+            final long handle,
+            final boolean isRoot,
+            final int minimum) throws Exception
+    {
+        final PackedNode node = reader.getRTree().readNode(reader.getStream(), handle);
+        assertTrue("Node is too large", node.size <= 20);
+        assertTrue("Node is too small", isRoot || node.size >= minimum);
+        if (node.isLeaf)
+        {
+            return node.size;
+        }
+        int count = 0;
+        for (int i = 0; i < node.size; i++)
+        {
+            final PackedNode child = reader.getRTree().readNode(reader.getStream(), node.handles[i]);
+            final Extent extent = Extent.NULL_EXTENT.clone();
+            for (int c = 0; c < 4 * child.size; c += 4)
+            {
+                extent.unionInPlace(new Extent(child.extents[c], child.extents[c + 1], child.extents[c + 2], child.extents[c + 3]));
+            }
+            final Extent entry = new Extent(node.extents[4 * i], node.extents[4 * i + 1], node.extents[4 * i + 2], node.extents[4 * i + 3]);
+            assertTrue("Entry extent is not the child extent", entry.isEqual(extent, 0.0));
+            count += checkNode(reader, node.handles[i], false, minimum);
+        }
+        return count;
+    }
+
+    @Test
+    public void testArenaWriterSearch() throws Exception
+    {
+        final Random random = new Random(987);
+        final List<MBRHandle> list = createHandles(random, 20000);
+
+        openOutputStream();
+        final FSRTreeArenaWriter writer = new FSRTreeArenaWriter(m_dataOutputStream, 8, 20);
+        for (final MBRHandle handle : list)
+        {
+            writer.add(handle);
+        }
+        writer.close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+        assertTrue("Arena rtree has no checksums", reader.verify());
+        assertEquals(20000, checkNode(reader, reader.getRTree().getRootHandle(), true, 8));
+        for (int i = 0; i < 20; i++)
+        {
+            final double x = random.nextDouble() * 100;
+            final double y = random.nextDouble() * 100;
+            final Extent extent = new Extent(x, y, x + 5, y + 5);
+            assertEquals("Search has failed", bruteForce(list, extent), search(reader, extent));
+        }
+        assertEquals("Search has failed", 20000, search(reader, new Extent(-1, -1, 200, 200)).size());
+    }
+
+    @Test
+    public void testArenaWriterEmpty() throws Exception
+    {
+        openOutputStream();
+        new FSRTreeArenaWriter(m_dataOutputStream, 8, 20).close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+        assertEquals("Search has failed", 0, search(reader, new Extent(-1, -1, 200, 200)).size());
+    }
+
+    @Test
+    public void testInsertStrategies() throws Exception
+    {
+        final Random random = new Random(654);
+        final List<MBRHandle> list = createHandles(random, 10000);
+        for (final int strategy : new int[]{RTree.STRATEGY_QUADRATIC, RTree.STRATEGY_RSTAR,
+                RTree.STRATEGY_LINEAR, RTree.STRATEGY_ANG_TAN})
+        {
+            openOutputStream();
+            final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 8, 20, strategy);
+            for (final MBRHandle handle : list)
+            {
+                writer.add(handle);
+            }
+            writer.close();
+
+            openInputStream();
+            final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+            // the quadratic split does not keep a minimum number of entries
+            final int minimum = strategy == RTree.STRATEGY_QUADRATIC ? 1 : 8;
+            assertEquals(10000, checkNode(reader, reader.getRTree().getRootHandle(), true, minimum));
+            for (int i = 0; i < 20; i++)
+            {
+                final double x = random.nextDouble() * 100;
+                final double y = random.nextDouble() * 100;
+                final Extent extent = new Extent(x, y, x + 5, y + 5);
+                assertEquals("Search has failed", bruteForce(list, extent), search(reader, extent));
+            }
+        }
+    }
+
+    /**
+     * Splits a full leaf of a 4 to 10 tree by inserting the last entry, and checks both groups.
+     *
+     * @return the handles of the new node
+     */
+    private Set<Long> split(
+            final int strategy,
+            final List<MBRHandle> entries)
+    {
+        final RTree rTree = new RTree(4, 10);
+        rTree.setStrategy(strategy);
+        final RTree.Node node = rTree.new LeafNode();
+        for (final MBRHandle entry : entries.subList(0, entries.size() - 1))
+        {
+            node.insertNonFull(entry);
+        }
+        final RTree.Node jNode = node.splitAndInsert(entries.get(entries.size() - 1));
+        assertTrue("First group is too small", node.m_data.size() >= 4);
+        assertTrue("Second group is too small", jNode.m_data.size() >= 4);
+
+        final Set<Long> handles = new HashSet<Long>();
+        final Set<Long> jHandles = new HashSet<Long>();
+        for (final Object data : node.m_data)
+        {
+            handles.add(((MBRHandle) data).handle);
+        }
+        for (final Object data : jNode.m_data)
+        {
+            jHandles.add(((MBRHandle) data).handle);
+        }
+        handles.addAll(jHandles);
+        assertEquals("Split has lost entries", entries.size(), handles.size());
+        return jHandles;
+    }
+
+    @Test
+    public void testDegenerateSplits() throws Exception
+    {
+        final List<MBRHandle> identical = new ArrayList<MBRHandle>();
+        final List<MBRHandle> collinear = new ArrayList<MBRHandle>();
+        final List<MBRHandle> overlapping = new ArrayList<MBRHandle>();
+        for (int i = 0; i < 11; i++)
+        {
+            identical.add(new MBRHandle(new Extent(5, 5, 5, 5), i));
+            collinear.add(new MBRHandle(new Extent(i, 0, i, 0), i));
+            overlapping.add(new MBRHandle(new Extent(0, i, 10, i + 1), i));
+        }
+        for (final int strategy : new int[]{RTree.STRATEGY_LINEAR, RTree.STRATEGY_ANG_TAN})
+        {
+            split(strategy, identical);
+            split(strategy, collinear);
+            split(strategy, overlapping);
+        }
+    }
+
+    @Test
+    public void testAngTanFallbackSplit() throws Exception
+    {
+        // every entry but the last is nearest the low sides, the cut is then by center
+        final List<MBRHandle> entries = new ArrayList<MBRHandle>();
+        for (int i = 0; i < 10; i++)
+        {
+            entries.add(new MBRHandle(new Extent(i * 0.1, i * 0.1, i * 0.1 + 0.1, i * 0.1 + 0.1), i));
+        }
+        entries.add(new MBRHandle(new Extent(10, 10, 11, 11), 10));
+        final Set<Long> expected = new HashSet<Long>(Arrays.asList(7L, 8L, 9L, 10L));
+        assertEquals(expected, split(RTree.STRATEGY_ANG_TAN, entries));
+    }
+
+    @Test
+    public void testNodeCache() throws Exception
+    {
+        final Random random = new Random(321);
+        final List<MBRHandle> list = createHandles(random, 20000);
+
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        writer.bulkLoad(list);
+        writer.close();
+
+        openInputStream();
+        final long cacheSize = 16 * 1024;
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream, cacheSize);
+        for (int i = 0; i < 20; i++)
+        {
+            final double x = random.nextDouble() * 100;
+            final double y = random.nextDouble() * 100;
+            final Extent extent = new Extent(x, y, x + 5, y + 5);
+            assertEquals("Search has failed", bruteForce(list, extent), search(reader, extent));
+            assertEquals("Cached search has failed", bruteForce(list, extent), search(reader, extent));
+        }
+        final NodeCache cache = reader.getNodeCache();
+        assertTrue("Root is not cached", cache.getHits() > 0);
+        assertTrue("Cache is over budget", cache.getBytes() <= cacheSize);
+    }
+
+    @Test
+    public void testUnreadableNode() throws Exception
+    {
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        writer.bulkLoad(createHandles(new Random(47), 20000));
+        writer.close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+        m_dataInputStream.close();
+        try
+        {
+            search(reader, new Extent(-1, -1, 200, 200));
+            fail("Search of a closed stream did not fail");
+        }
+        catch (RuntimeException e)
+        {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try
+        {
+            reader.nearest(50.0, 50.0, 10).hasNext();
+            fail("Nearest search of a closed stream did not fail");
+        }
+        catch (RuntimeException e)
+        {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testMappedSearch() throws Exception
+    {
+        final Random random = new Random(99);
+        final List<MBRHandle> list = createHandles(random, 20000);
+
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        writer.bulkLoad(list);
+        writer.close();
+
+        final File file = File.createTempFile("rtree", ".idx");
+        file.deleteOnExit();
+        m_fileSystem.copyToLocalFile(m_path, new Path(file.getAbsolutePath()));
+
+        final MappedRTreeReader reader = new MappedRTreeReader(file);
+        // small segments so values and nodes straddle the segment boundaries
+        final MappedRTreeReader segmentedReader = new MappedRTreeReader(new MappedInputStream(file, 4093));
+        for (int i = 0; i < 20; i++)
+        {
+            final double x = random.nextDouble() * 100;
+            final double y = random.nextDouble() * 100;
+            final Extent extent = new Extent(x, y, x + 5, y + 5);
+            final Set<Long> expected = bruteForce(list, extent);
+            final Set<Long> mapped = new HashSet<Long>();
+            final Iterator<MBRHandle> iterator = reader.search(extent);
+            while (iterator.hasNext())
+            {
+                mapped.add(iterator.next().handle);
+            }
+            assertEquals("Mapped search has failed", expected, mapped);
+            final Set<Long> segmented = new HashSet<Long>();
+            final Iterator<MBRHandle> segmentedIterator = segmentedReader.search(extent);
+            while (segmentedIterator.hasNext())
+            {
+                segmented.add(segmentedIterator.next().handle);
+            }
+            assertEquals("Segmented search has failed", expected, segmented);
+        }
+    }
+
+    private double distance(
+            final Extent extent,
+            final double x,
+            final double y)
+    {
+        final double dx = Math.max(0.0, Math.max(extent.xmin - x, x - extent.xmax));
+        final double dy = Math.max(0.0, Math.max(extent.ymin - y, y - extent.ymax));
+        return dx * dx + dy * dy;
+    }
+
+    @Test
+    public void testNearest() throws Exception
+    {
+        final Random random = new Random(29);
+        final List<MBRHandle> list = createHandles(random, 5000);
+
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        for (final MBRHandle handle : list)
+        {
+            writer.add(handle);
+        }
+        writer.close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+        for (int q = 0; q < 10; q++)
+        {
+            final double x = -10.0 + 120.0 * random.nextDouble();
+            final double y = -10.0 + 120.0 * random.nextDouble();
+            final double[] expected = new double[list.size()];
+            for (int i = 0; i < expected.length; i++)
+            {
+                expected[i] = distance(list.get(i).extent, x, y);
+            }
+            Arrays.sort(expected);
+            final Iterator<MBRHandle> iterator = reader.nearest(x, y, 25);
+            int count = 0;
+            while (iterator.hasNext())
+            {
+                assertEquals("Nearest search has failed", expected[count], distance(iterator.next().extent, x, y), 0.0);
+                count++;
+            }
+            assertEquals(25, count);
+        }
+    }
+
+    @Test
+    public void testBatchSearch() throws Exception
+    {
+        final Random random = new Random(37);
+        final List<MBRHandle> list = createHandles(random, 20000);
+
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        writer.bulkLoad(list);
+        writer.close();
+
+        final List<Extent> extents = new ArrayList<Extent>();
+        for (int i = 0; i < 50; i++)
+        {
+            final double x = random.nextDouble() * 100;
+            final double y = random.nextDouble() * 100;
+            extents.add(new Extent(x, y, x + 5, y + 5));
+        }
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream, 1024 * 1024);
+        final List<Set<Long>> results = new ArrayList<Set<Long>>();
+        for (int i = 0; i < extents.size(); i++)
+        {
+            results.add(new HashSet<Long>());
+        }
+        reader.search(extents, new IBatchSearchFunction()
+        {
+            @Override
+            public void evaluate(
+                    final int query,
+                    final MBRHandle mbrHandle)
+            {
+                assertTrue("Handle is evaluated twice", results.get(query).add(mbrHandle.handle));
+            }
+        });
+        for (int i = 0; i < extents.size(); i++)
+        {
+            assertEquals("Batch search has failed", bruteForce(list, extents.get(i)), results.get(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentSearch() throws Exception
+    {
+        final Random random = new Random(654);
+        final List<MBRHandle> list = createHandles(random, 20000);
+
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        writer.bulkLoad(list);
+        writer.close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream, 64 * 1024);
+        final List<Extent> extents = new ArrayList<Extent>();
+        for (int i = 0; i < 64; i++)
+        {
+            final double x = random.nextDouble() * 100;
+            final double y = random.nextDouble() * 100;
+            extents.add(new Extent(x, y, x + 5, y + 5));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            final List<Future<Set<Long>>> futures = new ArrayList<Future<Set<Long>>>();
+            for (int t = 0; t < 8; t++)
+            {
+                for (final Extent extent : extents)
+                {
+                    futures.add(executor.submit(new Callable<Set<Long>>()
+                    {
+                        @Override
+                        public Set<Long> call() throws Exception
+                        {
+                            return search(reader, extent);
+                        }
+                    }));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++)
+            {
+                assertEquals("Concurrent search failed", bruteForce(list, extents.get(i % extents.size())), futures.get(i).get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package com.esri.hadoop.rtree;
+
+import com.esri.hadoop.Extent;
+import com.esri.hadoop.MiniFS;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static com.esri.hadoop.rtree.RTreeFixtures.bruteForce;
+import static com.esri.hadoop.rtree.RTreeFixtures.createHandles;
+import static com.esri.hadoop.rtree.RTreeFixtures.search;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Bulk loaded R tree tests
+ */
+public class RTreeBulkLoadTest extends MiniFS
+{
+    @Test
+    public void testBulkLoadSearch() throws Exception
+    {
+        final Random random = new Random(123);
+        final List<MBRHandle> list = createHandles(random, 20000);
+
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        writer.bulkLoad(list);
+        writer.close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+        for (int i = 0; i < 20; i++)
+        {
+            final double x = random.nextDouble() * 100;
+            final double y = random.nextDouble() * 100;
+            final Extent extent = new Extent(x, y, x + 5, y + 5);
+            assertEquals("Search has failed", bruteForce(list, extent), search(reader, extent));
+        }
+        assertEquals("Search has failed", 20000, search(reader, new Extent(-1, -1, 200, 200)).size());
+    }
+
+    @Test
+    public void testBulkLoadSingleNode() throws Exception
+    {
+        final List<MBRHandle> list = createHandles(new Random(456), 7);
+
+        openOutputStream();
+        final FSRTreeWriter writer = new FSRTreeWriter(m_dataOutputStream, 10, 20);
+        writer.bulkLoad(list);
+        writer.close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+        assertEquals("Search has failed", 7, search(reader, new Extent(-1, -1, 200, 200)).size());
+    }
+
+    @Test
+    public void testExternalWriterSearch() throws Exception
+    {
+        final Random random = new Random(789);
+        final List<MBRHandle> list = createHandles(random, 20000);
+
+        openOutputStream();
+        // tiny runs to force spilling and multi pass merging
+        final FSRTreeExternalWriter writer = new FSRTreeExternalWriter(m_dataOutputStream, 10, 20, 100,
+                new File(System.getProperty("java.io.tmpdir")));
+        for (final MBRHandle handle : list)
+        {
+            writer.add(handle);
+        }
+        writer.close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+        for (int i = 0; i < 20; i++)
+        {
+            final double x = random.nextDouble() * 100;
+            final double y = random.nextDouble() * 100;
+            final Extent extent = new Extent(x, y, x + 5, y + 5);
+            assertEquals("Search has failed", bruteForce(list, extent), search(reader, extent));
+        }
+        assertEquals("Search has failed", 20000, search(reader, new Extent(-1, -1, 200, 200)).size());
+    }
+
+    @Test
+    public void testExternalWriterEmpty() throws Exception
+    {
+        openOutputStream();
+        final FSRTreeExternalWriter writer = new FSRTreeExternalWriter(m_dataOutputStream, 10, 20);
+        writer.close();
+
+        openInputStream();
+        final FSRTreeReader reader = new FSRTreeReader(m_dataInputStream);
+        assertEquals("Search has failed", 0, search(reader, new Extent(-1, -1, 200, 200)).size());
+    }
+}
@@ -0,0 +1,64 @@
+package com.esri.hadoop.rtree;
+
+import com.esri.hadoop.Extent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * MBR handles and brute force results shared by the R tree tests
+ */
+final class RTreeFixtures
+{
+    private RTreeFixtures()
+    {
+    }
+
+    static List<MBRHandle> createHandles(
+            final Random random,
+            final int n)
+    {
+        final List<MBRHandle> list = new ArrayList<MBRHandle>(n);
+        for (long i = 0; i < n; i++)
+        {
+            final double width = random.nextDouble() * 3 + 0.1;
+            final double height = random.nextDouble() * 3 + 0.1;
+            final double x = random.nextDouble() * 100;
+            final double y = random.nextDouble() * 100;
+            list.add(new MBRHandle(new Extent(x, y, x + width, y + height), i));
+        }
+        return list;
+    }
+
+    static Set<Long> bruteForce(
+            final List<MBRHandle> list,
+            final Extent extent)
+    {
+        final Set<Long> set = new HashSet<Long>();
+        for (final MBRHandle handle : list)
+        {
+            if (!handle.extent.isDisjoint(extent))
+            {
+                set.add(handle.handle);
+            }
+        }
+        return set;
+    }
+
+    static Set<Long> search(
+            final FSRTreeReader reader,
+            final Extent extent) throws Exception
+    {
+        final Set<Long> set = new HashSet<Long>();
+        final Iterator<MBRHandle> iterator = reader.search(extent);
+        while (iterator.hasNext())
+        {
+            set.add(iterator.next().handle);
+        }
+        return set;
+    }
+}